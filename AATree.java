@@ -1,6 +1,12 @@
 package AATree;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.ToLongFunction;
 
 /**
  * Self balancing tree with only two possible rotations (no symmetric cases)
@@ -12,14 +18,113 @@ import java.util.ArrayList;
 public class AATree<T extends Comparable<? super T>> {
 	BinaryNode root;
 	int size;
+	long cardinality;
 	int rotationCount = 0;
+	/*
+	 * The nodes on the way down to the last insert or removal. An AA tree
+	 * with n nodes is at most 2 log n deep, so 64 slots covers any int size
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private final BinaryNode[] path = (BinaryNode[]) new AATree.BinaryNode[64];
+	private final Comparator<? super T> comparator;
+	private final ToLongFunction<? super T> keyOf;
+	private final boolean multiset;
 
 	/**
 	 * Constructs a new AATree with a null root
 	 *
 	 */
 	public AATree() {
+		this(null, null, false);
+	}
+
+	/**
+	 * Constructs a new, empty AATree that keeps duplicates when multiset is
+	 * true. Each node then counts how many times its element was inserted,
+	 * so equal elements share one node and only the first insert and the
+	 * last removal of an element change the tree's shape
+	 *
+	 * @param multiset
+	 */
+	public AATree(boolean multiset) {
+		this(null, null, multiset);
+	}
+
+	/**
+	 * Constructs a new, empty AATree ordered by the given comparator that
+	 * keeps duplicates when multiset is true
+	 *
+	 * @param comparator
+	 * @param multiset
+	 */
+	public AATree(Comparator<? super T> comparator, boolean multiset) {
+		this(comparator, null, multiset);
+	}
+
+	/**
+	 * Constructs a new, empty AATree ordered by the given comparator, or by
+	 * the elements' natural order if it is null
+	 *
+	 * @param comparator
+	 */
+	public AATree(Comparator<? super T> comparator) {
+		this(comparator, null, false);
+	}
+
+	/**
+	 * Constructs a new, empty AATree ordered by a long key taken from each
+	 * element. Elements with the same key count as the same element, and
+	 * lookups compare longs all the way down
+	 *
+	 * @param keyOf
+	 */
+	public AATree(ToLongFunction<? super T> keyOf) {
+		this(null, keyOf, false);
+		if (keyOf == null) {
+			throw new IllegalArgumentException();
+		}
+	}
+
+	private AATree(Comparator<? super T> comparator,
+			ToLongFunction<? super T> keyOf, boolean multiset) {
 		this.root = null;
+		this.comparator = comparator;
+		this.keyOf = keyOf;
+		this.multiset = multiset;
+	}
+
+	/**
+	 * Builds a tree from the first size elements of it, which must be in
+	 * strictly ascending order, in O(n) and without a rotation. Throws an
+	 * IllegalArgumentException if it runs out early or is out of order
+	 *
+	 * @param it
+	 * @param size
+	 * @return
+	 */
+	public static <T extends Comparable<? super T>> AATree<T> buildFromSorted(
+			Iterator<? extends T> it, int size) {
+		if (it == null || size < 0) {
+			throw new IllegalArgumentException();
+		}
+		AATree<T> tree = new AATree<T>();
+		tree.load(it, size);
+		return tree;
+	}
+
+	/**
+	 * Builds a tree from an array in strictly ascending order, see
+	 * buildFromSorted
+	 *
+	 * @param a
+	 * @return
+	 */
+	public static <T extends Comparable<? super T>> AATree<T> fromSortedArray(
+			T[] a) {
+		if (a == null) {
+			throw new IllegalArgumentException();
+		}
+		return buildFromSorted(Arrays.asList(a).iterator(), a.length);
 	}
 
 	/**
@@ -31,6 +136,113 @@ public class AATree<T extends Comparable<? super T>> {
 		return this.size;
 	}
 
+	/**
+	 * Returns the number of elements in the tree counting duplicates, which
+	 * is the same as size() unless the tree is a multiset
+	 *
+	 * @return
+	 */
+	public long cardinality() {
+		return this.cardinality;
+	}
+
+	/**
+	 * Returns true if the tree keeps duplicates
+	 *
+	 * @return
+	 */
+	public boolean isMultiset() {
+		return this.multiset;
+	}
+
+	/**
+	 * Returns how many times o is in the tree: 0 or 1 unless the tree is a
+	 * multiset
+	 *
+	 * @param o
+	 * @return
+	 */
+	public int count(T o) {
+		if (o == null) {
+			return 0;
+		}
+		BinaryNode current = this.root;
+		while (current != null) {
+			int compare = compare(o, current.element);
+			if (compare == 0) {
+				return current.count;
+			}
+			current = (compare < 0) ? current.leftChild : current.rightChild;
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns the comparator the tree is ordered by, or null if it uses the
+	 * natural order of its elements
+	 *
+	 * @return
+	 */
+	public Comparator<? super T> comparator() {
+		if (this.keyOf != null) {
+			return Comparator.comparingLong(this.keyOf);
+		}
+		return this.comparator;
+	}
+
+	/**
+	 * Compares two elements in the tree's order. Every descent calls this
+	 * once per level
+	 *
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	int compare(T a, T b) {
+		if (this.keyOf != null) {
+			return Long.compare(this.keyOf.applyAsLong(a),
+					this.keyOf.applyAsLong(b));
+		}
+		if (this.comparator != null) {
+			return this.comparator.compare(a, b);
+		}
+		return a.compareTo(b);
+	}
+
+	/**
+	 * Returns true if the tree holds an element equal to o. With a key
+	 * extractor the key of o is taken once and the descent compares longs
+	 *
+	 * @param o
+	 * @return
+	 */
+	public boolean contains(T o) {
+		if (o == null) {
+			return false;
+		}
+		BinaryNode current = this.root;
+		if (this.keyOf != null) {
+			long key = this.keyOf.applyAsLong(o);
+			while (current != null) {
+				long other = this.keyOf.applyAsLong(current.element);
+				if (key == other) {
+					return true;
+				}
+				current = (key < other) ? current.leftChild
+						: current.rightChild;
+			}
+			return false;
+		}
+		while (current != null) {
+			int compare = compare(o, current.element);
+			if (compare == 0) {
+				return true;
+			}
+			current = (compare < 0) ? current.leftChild : current.rightChild;
+		}
+		return false;
+	}
+
 	/**
 	 * Returns the number of rotations performed during the existence of the tree
 	 *
@@ -55,7 +267,10 @@ public class AATree<T extends Comparable<? super T>> {
 	}
 
 	/**
-	 * Inserts a comparable object into the tree, bottom-up
+	 * Inserts a comparable object into the tree, bottom-up. Walks down
+	 * iteratively, remembering the way in a reusable path buffer, then
+	 * skews and splits back up only as far as levels keep changing. In a
+	 * multiset an element that is already there only has its count raised
 	 *
 	 * @param o
 	 * @return
@@ -67,15 +282,62 @@ public class AATree<T extends Comparable<? super T>> {
 		if (this.root == null) {
 			this.root = new BinaryNode(o);
 			this.size++;
+			this.cardinality++;
 			return true;
 		}
-		BooleanWrapper b = new BooleanWrapper();
-		this.root = this.root.insert(o, b);
-		return b.getValue();
+		int depth = 0;
+		int compare = 0;
+		BinaryNode current = this.root;
+		while (current != null) {
+			compare = compare(o, current.element);
+			if (compare == 0) {
+				if (!this.multiset) {
+					return false;
+				}
+				if (current.count == Integer.MAX_VALUE) {
+					throw new IllegalStateException("count overflow");
+				}
+				current.count++;
+				this.cardinality++;
+				clearPath(depth);
+				return true;
+			}
+			this.path[depth++] = current;
+			current = (compare < 0) ? current.leftChild : current.rightChild;
+		}
+		BinaryNode parent = this.path[depth - 1];
+		if (compare < 0) {
+			parent.leftChild = new BinaryNode(o);
+		} else {
+			parent.rightChild = new BinaryNode(o);
+		}
+		this.size++;
+		this.cardinality++;
+
+		// a node's split looks two levels down, so only stop once two
+		// levels in a row came through skew and split untouched
+		boolean belowChanged = true;
+		for (int i = depth - 1; i >= 0; i--) {
+			BinaryNode node = this.path[i];
+			int level = node.level;
+			BinaryNode top = node.skew().split();
+			boolean changed = top != node || top.level != level;
+			if (!changed && !belowChanged) {
+				break;
+			}
+			if (top != node) {
+				relink(i, node, top);
+			}
+			belowChanged = changed;
+		}
+		clearPath(depth);
+		return true;
 	}
 
 	/**
-	 * Removes an object from the tree, bottom-up
+	 * Removes an object from the tree, bottom-up. Uses the same path buffer as
+	 * insert and stops rebalancing at the first node whose level holds. An
+	 * element inserted more than once only has its count lowered
 	 *
 	 * @param o
 	 * @return
@@ -84,17 +346,219 @@ public class AATree<T extends Comparable<? super T>> {
 		if (o == null) {
 			throw new IllegalArgumentException();
 		}
-		if (this.root == null) {
+		int depth = 0;
+		BinaryNode current = this.root;
+		while (current != null) {
+			int compare = compare(o, current.element);
+			this.path[depth++] = current;
+			if (compare == 0) {
+				break;
+			}
+			current = (compare < 0) ? current.leftChild : current.rightChild;
+		}
+		if (current == null) {
+			clearPath(depth);
 			return false;
 		}
-		if (this.root.element == o && this.size == 1) {
-			this.root = null;
-			this.size--;
+		this.cardinality--;
+		if (current.count > 1) {
+			current.count--;
+			clearPath(depth);
 			return true;
 		}
-		BooleanWrapper b = new BooleanWrapper();
-		this.root = this.root.remove(o, b);
-		return b.getValue();
+		if (current.leftChild != null && current.rightChild != null) {
+			// copy the predecessor up and unlink its node instead
+			BinaryNode pred = current.leftChild;
+			this.path[depth++] = pred;
+			while (pred.rightChild != null) {
+				pred = pred.rightChild;
+				this.path[depth++] = pred;
+			}
+			current.element = pred.element;
+			current.count = pred.count;
+			current = pred;
+		}
+		depth--;
+		relink(depth, current,
+				(current.leftChild == null) ? current.rightChild
+						: current.leftChild);
+		this.size--;
+
+		// a node only rebalances when a child's level drops, so the walk
+		// can stop at the first node that keeps its level
+		for (int i = depth - 1; i >= 0; i--) {
+			BinaryNode node = this.path[i];
+			int level = node.level;
+			BinaryNode top = node.balance();
+			if (top != node) {
+				relink(i, node, top);
+			}
+			if (top.level == level) {
+				break;
+			}
+		}
+		clearPath(depth + 1);
+		return true;
+	}
+
+	/**
+	 * Points the link that held the node at the given path index at its
+	 * replacement, which is the root link when the index is 0
+	 *
+	 * @param i
+	 * @param old
+	 * @param top
+	 */
+	private void relink(int i, BinaryNode old, BinaryNode top) {
+		if (i == 0) {
+			this.root = top;
+			return;
+		}
+		BinaryNode parent = this.path[i - 1];
+		if (parent.leftChild == old) {
+			parent.leftChild = top;
+		} else {
+			parent.rightChild = top;
+		}
+	}
+
+	/**
+	 * Drops the path buffer's references so removed nodes can be collected
+	 *
+	 * @param depth
+	 */
+	private void clearPath(int depth) {
+		for (int i = 0; i < depth; i++) {
+			this.path[i] = null;
+		}
+	}
+
+	/**
+	 * Adds every element of c. If the tree is an empty set and c is already
+	 * in ascending order the tree is built straight from it in O(n),
+	 * duplicates dropped; otherwise the elements are inserted one at a time
+	 *
+	 * @param c
+	 * @return true if the tree changed
+	 */
+	public boolean addAll(Collection<? extends T> c) {
+		if (c == null) {
+			throw new IllegalArgumentException();
+		}
+		Object[] a = c.toArray();
+		if (this.root == null && !this.multiset) {
+			int n = sortedDistinct(a);
+			if (n >= 0) {
+				@SuppressWarnings("unchecked")
+				List<T> sorted = (List<T>) (List<?>) Arrays.asList(a)
+						.subList(0, n);
+				load(sorted.iterator(), n);
+				return n > 0;
+			}
+		}
+		boolean changed = false;
+		for (Object o : a) {
+			@SuppressWarnings("unchecked")
+			T e = (T) o;
+			changed |= insert(e);
+		}
+		return changed;
+	}
+
+	/**
+	 * Moves the distinct elements of a to its front and returns how many
+	 * there are, or returns -1 if a is not in ascending order
+	 *
+	 * @param a
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	private int sortedDistinct(Object[] a) {
+		int n = 0;
+		for (Object o : a) {
+			if (o == null) {
+				throw new IllegalArgumentException();
+			}
+			if (n > 0) {
+				int compare = compare((T) a[n - 1], (T) o);
+				if (compare > 0) {
+					return -1;
+				}
+				if (compare == 0) {
+					continue;
+				}
+			}
+			a[n++] = o;
+		}
+		return n;
+	}
+
+	/**
+	 * Replaces the contents of the tree with a balanced tree of the next n
+	 * elements of it
+	 *
+	 * @param it
+	 * @param n
+	 */
+	private void load(Iterator<? extends T> it, int n) {
+		this.root = build(new SortedFeed(it), n);
+		this.size = n;
+		this.cardinality = n;
+	}
+
+	/**
+	 * Builds the left half, takes the middle element and builds the right
+	 * half, which gets the extra element when n is even. A node's level is
+	 * one more than its left child's, so a subtree of m nodes has level
+	 * floor(log2(m + 1)). The right child is one level down except when n is
+	 * one short of a power of two, where it is a full subtree on the same
+	 * level whose own right child is a level lower, so there is never more
+	 * than one horizontal link in a row
+	 *
+	 * @param feed
+	 * @param n
+	 * @return
+	 */
+	private BinaryNode build(SortedFeed feed, int n) {
+		if (n == 0) {
+			return null;
+		}
+		int leftCount = (n - 1) / 2;
+		BinaryNode left = build(feed, leftCount);
+		BinaryNode node = new BinaryNode(feed.next());
+		node.leftChild = left;
+		node.rightChild = build(feed, n - 1 - leftCount);
+		node.level = (left == null) ? 1 : left.level + 1;
+		return node;
+	}
+
+	/**
+	 * Hands out the elements of an iterator, checking that they are strictly
+	 * ascending
+	 */
+	private class SortedFeed {
+		private final Iterator<? extends T> it;
+		private T last;
+
+		SortedFeed(Iterator<? extends T> it) {
+			this.it = it;
+		}
+
+		T next() {
+			if (!this.it.hasNext()) {
+				throw new IllegalArgumentException("ran out of elements");
+			}
+			T e = this.it.next();
+			if (e == null) {
+				throw new IllegalArgumentException();
+			}
+			if (this.last != null && compare(this.last, e) >= 0) {
+				throw new IllegalArgumentException(
+						"elements are not strictly ascending");
+			}
+			this.last = e;
+			return e;
+		}
 	}
 
 	@Override
@@ -113,90 +577,29 @@ public class AATree<T extends Comparable<? super T>> {
 		BinaryNode leftChild;
 		BinaryNode rightChild;
 		int level = 1;
+		int count = 1;
 
 		BinaryNode(T o) {
 			this.element = o;
 		}
 
-		BinaryNode insert(T o, BooleanWrapper b) {
-			int compare = o.compareTo(this.element);
-			if (compare < 0) {
-				if (this.leftChild == null) {
-					this.leftChild = new BinaryNode(o);
-					AATree.this.size++;
-				} else {
-					this.leftChild = this.leftChild.insert(o, b);
-				}
-			} else if (compare > 0) {
-				if (this.rightChild == null) {
-					this.rightChild = new BinaryNode(o);
-					AATree.this.size++;
-				} else {
-					this.rightChild = this.rightChild.insert(o, b);
-				}
-			} else {
-				b.setFalse();
-			}
-			BinaryNode temp = this.skew();
-			return temp.split();
-		}
 
-		BinaryNode remove(T o, BooleanWrapper b) {
-			int comp = o.compareTo(this.element);
-			if (comp < 0) {
-				if (this.leftChild == null) {
-					b.setFalse();
-				} else {
-					this.leftChild = this.leftChild.remove(o, b);
-				}
-				return this.balance();
-			}
-			if (comp > 0) {
-				if (this.rightChild == null) {
-					b.setFalse();
-				} else {
-					this.rightChild = this.rightChild.remove(o, b);
-				}
-				return this.balance();
-			}
-			if (this.leftChild != null && this.rightChild != null) {
-				this.element = this.leftChild.maxRight();
-				this.leftChild = this.leftChild.remove(this.element, b);
-				return this.balance();
-			}
-			AATree.this.size--;
-			return (this.leftChild == null) ? this.rightChild : this.leftChild;
-
-		}
-
-		private T maxRight() {
-			if (this.rightChild == null) {
-				return this.element;
-			}
-			return this.rightChild.maxRight();
-		}
 
 		private BinaryNode balance() {
-			if (this.leftChild == null && this.rightChild != null) {
-				this.level--;
-				if (this.rightChild.level > this.level) {
-					this.rightChild.level = this.level;
-				}
-				return this.subBalance();
+			int should = Math.min(levelOf(this.leftChild),
+					levelOf(this.rightChild)) + 1;
+			if (should >= this.level) {
+				return this;
 			}
-			if (this.rightChild == null && this.leftChild != null) {
-				this.level--;
-				return this.subBalance();
+			this.level = should;
+			if (this.rightChild != null && this.rightChild.level > should) {
+				this.rightChild.level = should;
 			}
-			if ((this.leftChild != null && this.leftChild.level < this.level - 1)
-					|| (this.rightChild != null && this.rightChild.level < this.level - 1)) {
-				this.level--;
-				if (this.rightChild.level > this.level) {
-					this.rightChild.level = this.level;
-				}
-				return this.subBalance();
-			}
-			return this;
+			return this.subBalance();
+		}
+
+		private int levelOf(BinaryNode n) {
+			return (n == null) ? 0 : n.level;
 		}
 		
 		private BinaryNode subBalance() {
@@ -285,22 +688,16 @@ public class AATree<T extends Comparable<? super T>> {
 			return this.level;
 		}
 
-	}
-
-	private class BooleanWrapper {
-		boolean b;
-
-		public BooleanWrapper() {
-			this.b = true;
-		}
-
-		public boolean getValue() {
-			return this.b;
+		/**
+		 * Returns how many times this node's element was inserted, 1 unless
+		 * the tree is a multiset
+		 *
+		 * @return
+		 */
+		public int getCount() {
+			return this.count;
 		}
 
-		public void setFalse() {
-			this.b = false;
-		}
 	}
 
 }
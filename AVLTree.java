@@ -1,22 +1,174 @@
 
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
 import java.util.Stack;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongBinaryOperator;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class AVLTree<T extends Comparable<? super T>> implements Iterable<T> {
 	public BinaryNode root;
 	public int modCont = 0;
 	public int size = 0;
 	private int rotateCount;
+	private final Comparator<? super T> comparator;
+	private final ToLongFunction<? super T> keyOf;
+	private final Aggregate<? super T, Object> aggregate;
+	private final LongAggregate<? super T> longAggregate;
+
+	/*
+	 * Set operations hand a pair of subtrees to another task once the other
+	 * tree's side is at least this high, roughly a thousand elements
+	 */
+	private static final int FORK_HEIGHT = 10;
+
+	private enum SetOp {
+		UNION, INTERSECTION, DIFFERENCE
+	}
 
 	/**
 	 * An empty constructor for the class that sets the root node to null and is
 	 * an empty tree
 	 */
 	public AVLTree() {
-		root = null;
+		this(null, null, null, null);
+	}
+
+	/**
+	 * @param comparator
+	 *            The order to keep the elements in, or null for their natural
+	 *            order
+	 * 
+	 *         Creates an empty tree ordered by comparator
+	 */
+	public AVLTree(Comparator<? super T> comparator) {
+		this(comparator, null, null, null);
+	}
+
+	/**
+	 * @param keyOf
+	 *            Maps each element to the long it is ordered by. Elements with
+	 *            the same key count as the same element
+	 * 
+	 *         Creates an empty tree ordered by a primitive key. Lookups take
+	 *         the key of the element searched for once and then compare longs
+	 *         all the way down
+	 */
+	public AVLTree(ToLongFunction<? super T> keyOf) {
+		this(null, keyOf, null, null);
+		if (keyOf == null)
+			throw new IllegalArgumentException();
+	}
+
+	/**
+	 * @param comparator
+	 *            The order to keep the elements in, or null for their natural
+	 *            order
+	 * @param aggregate
+	 *            What every node keeps about its subtree, as a long
+	 * 
+	 *         Creates an empty tree that can answer aggregateLong(lo, hi) in
+	 *         O(log n) without boxing
+	 */
+	public AVLTree(Comparator<? super T> comparator,
+			LongAggregate<? super T> aggregate) {
+		this(comparator, null, null, aggregate);
+		if (aggregate == null)
+			throw new IllegalArgumentException();
+	}
+
+	private AVLTree(Comparator<? super T> comparator,
+			ToLongFunction<? super T> keyOf,
+			Aggregate<? super T, Object> aggregate,
+			LongAggregate<? super T> longAggregate) {
+		this.root = null;
+		this.comparator = comparator;
+		this.keyOf = keyOf;
+		this.aggregate = aggregate;
+		this.longAggregate = longAggregate;
+	}
+
+	/**
+	 * @return The comparator the tree is ordered by, or null if it uses the
+	 *         natural order of its elements
+	 */
+	public Comparator<? super T> comparator() {
+		if (keyOf != null)
+			return Comparator.comparingLong(keyOf);
+		return comparator;
+	}
+
+	/**
+	 * @param a
+	 *            The first element
+	 * @param b
+	 *            The second element
+	 * @return Negative, zero or positive as a is below, equal to or above b
+	 *         in the tree's order
+	 * 
+	 *         Every comparison in the tree goes through here, once per level
+	 *         of a descent
+	 */
+	int compare(T a, T b) {
+		if (keyOf != null)
+			return Long.compare(keyOf.applyAsLong(a), keyOf.applyAsLong(b));
+		if (comparator != null)
+			return comparator.compare(a, b);
+		return a.compareTo(b);
+	}
+
+	private boolean sameOrder(AVLTree<T> other) {
+		return comparator == other.comparator && keyOf == other.keyOf;
+	}
+
+	/**
+	 * @param it
+	 *            The elements in strictly ascending order
+	 * @param size
+	 *            How many elements to take from it
+	 * @return A tree holding the first size elements of it
+	 * 
+	 *         Builds a perfectly balanced tree straight from sorted input in
+	 *         O(n), without a single comparison against the tree or a
+	 *         rotation. Throws an IllegalArgumentException if it runs out
+	 *         early or its elements are not strictly ascending
+	 */
+	public static <T extends Comparable<? super T>> AVLTree<T> buildFromSorted(
+			Iterator<? extends T> it, int size) {
+		if (it == null || size < 0)
+			throw new IllegalArgumentException();
+		AVLTree<T> tree = new AVLTree<T>();
+		tree.load(it, size);
+		return tree;
+	}
+
+	/**
+	 * @param a
+	 *            The elements in strictly ascending order
+	 * @return A tree holding the elements of a
+	 * 
+	 *         See buildFromSorted
+	 */
+	public static <T extends Comparable<? super T>> AVLTree<T> fromSortedArray(
+			T[] a) {
+		if (a == null)
+			throw new IllegalArgumentException();
+		return buildFromSorted(Arrays.asList(a).iterator(), a.length);
 	}
 
 	/**
@@ -90,11 +242,10 @@ public class AVLTree<T extends Comparable<? super T>> implements Iterable<T> {
 	 * 
 	 *         Converts the tree into a stack which it will then iterate through
 	 */
-	@SuppressWarnings("unchecked")
 	public Iterator<T> preOrderIterator() {
-		Stack<Object> stack = new Stack<Object>();
+		Stack<T> stack = new Stack<T>();
 		if (isEmpty())
-			return (Iterator<T>) stack.iterator();
+			return stack.iterator();
 
 		else {
 			return new PreOrderIterator(root);
@@ -102,20 +253,528 @@ public class AVLTree<T extends Comparable<? super T>> implements Iterable<T> {
 
 	}
 
-	@SuppressWarnings("unchecked")
 	public Iterator<T> iterator() {
-		Stack<Object> stack = new Stack<Object>();
+		Stack<T> stack = new Stack<T>();
 		if (isEmpty())
-			return (Iterator<T>) stack.iterator();
+			return stack.iterator();
 
 		else {
-			if (!root.Iterator().hasNext()) {
-				throw (new NoSuchElementException());
-			}
 			return new PreOrderIterator(root);
 		}
 	}
 
+	/**
+	 * @return A spliterator over the elements in ascending order
+	 * 
+	 *         Unlike iterator(), which goes in pre order, this walks the tree
+	 *         in order. Splits hand off the part of the tree left of the
+	 *         shallowest pending node, so each half gets about half the
+	 *         elements, and the subtree counts keep both sizes exact
+	 */
+	@Override
+	public Spliterator<T> spliterator() {
+		return new InOrderSpliterator(root, null, countOf(root));
+	}
+
+	/**
+	 * @return A sequential stream of the elements in ascending order
+	 */
+	public Stream<T> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+
+	/**
+	 * @return A parallel stream of the elements in ascending order
+	 */
+	public Stream<T> parallelStream() {
+		return StreamSupport.stream(spliterator(), true);
+	}
+
+	/**
+	 * @param o
+	 *            The element to look for
+	 * @return true if the element is in the tree; false otherwise
+	 */
+	public boolean contains(T o) {
+		if (o == null)
+			return false;
+		BinaryNode current = root;
+		if (keyOf != null) {
+			long key = keyOf.applyAsLong(o);
+			while (current != null) {
+				long other = keyOf.applyAsLong(current.element);
+				if (key == other)
+					return true;
+				current = (key < other) ? current.leftChild
+						: current.rightChild;
+			}
+			return false;
+		}
+		while (current != null) {
+			int compare = compare(o, current.element);
+			if (compare == 0)
+				return true;
+			current = (compare < 0) ? current.leftChild : current.rightChild;
+		}
+		return false;
+	}
+
+	/**
+	 * @param o
+	 *            The element to rank
+	 * @return The number of elements in the tree smaller than o, which does
+	 *         not have to be in the tree
+	 * 
+	 *         Walks down once, adding up the left subtree counts of every node
+	 *         it passes to the right of. O(log n)
+	 */
+	public int rank(T o) {
+		if (o == null)
+			throw new IllegalArgumentException();
+		return countBelow(o, false);
+	}
+
+	/**
+	 * @return The number of elements smaller than o, or no larger than o if
+	 *         inclusive
+	 */
+	private int countBelow(T o, boolean inclusive) {
+		int below = 0;
+		BinaryNode current = root;
+		while (current != null) {
+			int compare = compare(o, current.element);
+			if (compare <= 0) {
+				if (compare == 0)
+					return below + countOf(current.leftChild)
+							+ (inclusive ? 1 : 0);
+				current = current.leftChild;
+			} else {
+				below += countOf(current.leftChild) + 1;
+				current = current.rightChild;
+			}
+		}
+		return below;
+	}
+
+	/**
+	 * @param index
+	 *            The position of the element in sorted order, from 0
+	 * @return The element at that position
+	 * 
+	 *         Steers down by the left subtree counts. O(log n). Throws an
+	 *         IndexOutOfBoundsException if index is not in [0, size)
+	 */
+	public T select(int index) {
+		if (index < 0 || index >= countOf(root))
+			throw new IndexOutOfBoundsException("index " + index + ", size "
+					+ countOf(root));
+		BinaryNode current = root;
+		while (true) {
+			int left = countOf(current.leftChild);
+			if (index < left) {
+				current = current.leftChild;
+			} else if (index == left) {
+				return current.element;
+			} else {
+				index -= left + 1;
+				current = current.rightChild;
+			}
+		}
+	}
+
+	/**
+	 * @param p
+	 *            The percentile, from 0 to 100; 99.9 for p999
+	 * @return The smallest element that at least p percent of the elements
+	 *         are less than or equal to (the nearest rank method), or the
+	 *         smallest element for p = 0
+	 * 
+	 *         One select, so O(log n). Throws a NoSuchElementException if the
+	 *         tree is empty
+	 */
+	public T percentile(double p) {
+		if (!(p >= 0 && p <= 100))
+			throw new IllegalArgumentException("p must be between 0 and 100");
+		int n = countOf(root);
+		if (n == 0)
+			throw new NoSuchElementException();
+		int rank = (int) Math.ceil(p / 100 * n);
+		return select(Math.max(rank, 1) - 1);
+	}
+
+	/**
+	 * @return The middle element, or the lower of the two middle elements
+	 *         when the size is even. Throws a NoSuchElementException if the
+	 *         tree is empty
+	 */
+	public T median() {
+		int n = countOf(root);
+		if (n == 0)
+			throw new NoSuchElementException();
+		return select((n - 1) / 2);
+	}
+
+	/**
+	 * @param n
+	 *            A node, or null
+	 * @return The number of nodes in n's subtree, 0 for null
+	 */
+	private int countOf(BinaryNode n) {
+		return (n == null) ? 0 : n.count;
+	}
+
+	/**
+	 * @param <T>
+	 *            The elements
+	 * @param <A>
+	 *            The summary of a run of elements
+	 * 
+	 *            A monoid over the elements: combine must be associative and
+	 *            identity must leave any value unchanged when combined with
+	 *            it. combine need not be commutative; runs are always
+	 *            combined in order
+	 */
+	public static final class Aggregate<T, A> {
+		private final A identity;
+		private final Function<? super T, ? extends A> of;
+		private final BinaryOperator<A> combine;
+
+		/**
+		 * @param identity
+		 *            The summary of no elements
+		 * @param of
+		 *            The summary of a single element
+		 * @param combine
+		 *            Joins the summaries of two adjacent runs, left first
+		 */
+		public Aggregate(A identity, Function<? super T, ? extends A> of,
+				BinaryOperator<A> combine) {
+			if (of == null || combine == null)
+				throw new IllegalArgumentException();
+			this.identity = identity;
+			this.of = of;
+			this.combine = combine;
+		}
+	}
+
+	/**
+	 * @param <T>
+	 *            The elements
+	 * 
+	 *            An Aggregate whose summaries are longs, kept unboxed in the
+	 *            nodes
+	 */
+	public static final class LongAggregate<T> {
+		private final long identity;
+		private final ToLongFunction<? super T> of;
+		private final LongBinaryOperator combine;
+
+		/**
+		 * @param identity
+		 *            The summary of no elements
+		 * @param of
+		 *            The summary of a single element
+		 * @param combine
+		 *            Joins the summaries of two adjacent runs, left first
+		 */
+		public LongAggregate(long identity, ToLongFunction<? super T> of,
+				LongBinaryOperator combine) {
+			if (of == null || combine == null)
+				throw new IllegalArgumentException();
+			this.identity = identity;
+			this.of = of;
+			this.combine = combine;
+		}
+
+		/**
+		 * @param value
+		 *            The value of an element
+		 * @return The sum of the values, wrapping on overflow
+		 */
+		public static <T> LongAggregate<T> sum(
+				ToLongFunction<? super T> value) {
+			return new LongAggregate<T>(0, value, Long::sum);
+		}
+
+		/**
+		 * @param value
+		 *            The value of an element
+		 * @return The smallest value, Long.MAX_VALUE for no elements
+		 */
+		public static <T> LongAggregate<T> min(
+				ToLongFunction<? super T> value) {
+			return new LongAggregate<T>(Long.MAX_VALUE, value, Math::min);
+		}
+
+		/**
+		 * @param value
+		 *            The value of an element
+		 * @return The largest value, Long.MIN_VALUE for no elements
+		 */
+		public static <T> LongAggregate<T> max(
+				ToLongFunction<? super T> value) {
+			return new LongAggregate<T>(Long.MIN_VALUE, value, Math::max);
+		}
+	}
+
+	/**
+	 * @param <T>
+	 *            The elements
+	 * @param <A>
+	 *            The summary of a run of elements
+	 * 
+	 *            An AVLTree whose nodes keep an Aggregate of their subtree,
+	 *            so that it can answer aggregate(lo, hi) in O(log n)
+	 */
+	public static final class Aggregated<T extends Comparable<? super T>, A>
+			extends AVLTree<T> {
+		/**
+		 * @param comparator
+		 *            The order to keep the elements in, or null for their
+		 *            natural order
+		 * @param aggregate
+		 *            What every node keeps about its subtree
+		 * 
+		 *            Creates an empty tree
+		 */
+		@SuppressWarnings("unchecked")
+		public Aggregated(Comparator<? super T> comparator,
+				Aggregate<? super T, A> aggregate) {
+			super(comparator, null, (Aggregate<? super T, Object>)
+					(Aggregate<?, ?>) aggregate, null);
+			if (aggregate == null)
+				throw new IllegalArgumentException();
+		}
+
+		/**
+		 * @param lo
+		 *            The lowest element to include, or null for no lower
+		 *            bound
+		 * @param hi
+		 *            The highest element to include, or null for no upper
+		 *            bound
+		 * @return The aggregate of the elements in [lo, hi], in order, or
+		 *         the identity if there are none
+		 * 
+		 *         Walks down to the first node inside the range, then down
+		 *         each boundary from there, taking whole subtrees that fall
+		 *         inside. O(log n) combines
+		 */
+		@SuppressWarnings("unchecked")
+		public A aggregate(T lo, T hi) {
+			// the constructor only accepts an Aggregate with summaries of A
+			return (A) super.aggregateRange(lo, hi);
+		}
+	}
+
+	/**
+	 * @return The tree's aggregate of the elements in [lo, hi], as the walk
+	 *         for Aggregated.aggregate
+	 */
+	private Object aggregateRange(T lo, T hi) {
+		Aggregate<? super T, Object> g = this.aggregate;
+		BinaryNode split = splitNode(lo, hi);
+		if (split == null)
+			return g.identity;
+
+		// Elements >= lo in the left subtree, gathered right to left
+		Object left = g.identity;
+		for (BinaryNode n = split.leftChild; n != null;) {
+			if (lo != null && compare(n.element, lo) < 0) {
+				n = n.rightChild;
+			} else {
+				left = g.combine.apply(g.combine.apply(g.of.apply(n.element),
+						aggOf(n.rightChild)), left);
+				n = n.leftChild;
+			}
+		}
+		// Elements <= hi in the right subtree, gathered left to right
+		Object right = g.identity;
+		for (BinaryNode n = split.rightChild; n != null;) {
+			if (hi != null && compare(n.element, hi) > 0) {
+				n = n.leftChild;
+			} else {
+				right = g.combine.apply(right, g.combine.apply(
+						aggOf(n.leftChild), g.of.apply(n.element)));
+				n = n.rightChild;
+			}
+		}
+		return g.combine.apply(
+				g.combine.apply(left, g.of.apply(split.element)), right);
+	}
+
+	/**
+	 * @param lo
+	 *            The lowest element to include, or null for no lower bound
+	 * @param hi
+	 *            The highest element to include, or null for no upper bound
+	 * @return The long aggregate of the elements in [lo, hi], in order, or
+	 *         the identity if there are none
+	 * 
+	 *         The same walk as aggregate, with nothing boxed. Throws an
+	 *         IllegalStateException if the tree was not created with a
+	 *         LongAggregate
+	 */
+	public long aggregateLong(T lo, T hi) {
+		LongAggregate<? super T> g = longAggregate;
+		if (g == null)
+			throw new IllegalStateException("the tree keeps no long aggregate");
+		LongBinaryOperator op = g.combine;
+		BinaryNode split = splitNode(lo, hi);
+		if (split == null)
+			return g.identity;
+
+		long left = g.identity;
+		for (BinaryNode n = split.leftChild; n != null;) {
+			if (lo != null && compare(n.element, lo) < 0) {
+				n = n.rightChild;
+			} else {
+				left = op.applyAsLong(op.applyAsLong(
+						g.of.applyAsLong(n.element), longAggOf(n.rightChild)),
+						left);
+				n = n.leftChild;
+			}
+		}
+		long right = g.identity;
+		for (BinaryNode n = split.rightChild; n != null;) {
+			if (hi != null && compare(n.element, hi) > 0) {
+				n = n.leftChild;
+			} else {
+				right = op.applyAsLong(right, op.applyAsLong(
+						longAggOf(n.leftChild), g.of.applyAsLong(n.element)));
+				n = n.rightChild;
+			}
+		}
+		return op.applyAsLong(
+				op.applyAsLong(left, g.of.applyAsLong(split.element)), right);
+	}
+
+	/**
+	 * @return The highest node with its element in [lo, hi], where the paths
+	 *         to lo and hi part, or null if the range is empty
+	 */
+	private BinaryNode splitNode(T lo, T hi) {
+		BinaryNode n = root;
+		while (n != null) {
+			if (lo != null && compare(n.element, lo) < 0)
+				n = n.rightChild;
+			else if (hi != null && compare(n.element, hi) > 0)
+				n = n.leftChild;
+			else
+				return n;
+		}
+		return null;
+	}
+
+	private Object aggOf(BinaryNode n) {
+		return (n == null) ? aggregate.identity : ((AggNode) n).agg;
+	}
+
+	private long longAggOf(BinaryNode n) {
+		return (n == null) ? longAggregate.identity : ((LongAggNode) n).agg;
+	}
+
+	/**
+	 * @return A new leaf for element, carrying the tree's aggregate if it
+	 *         keeps one
+	 */
+	private BinaryNode newNode(T element) {
+		if (aggregate != null)
+			return new AggNode(element);
+		if (longAggregate != null)
+			return new LongAggNode(element);
+		return new BinaryNode(element);
+	}
+
+	/**
+	 * @param lo
+	 *            The lower bound
+	 * @param loInclusive
+	 *            Whether lo itself is in the view
+	 * @param hi
+	 *            The upper bound
+	 * @param hiInclusive
+	 *            Whether hi itself is in the view
+	 * @return A live view of the elements between lo and hi
+	 * 
+	 *         Nothing is copied: the view reads the tree as it is when it is
+	 *         used. Its iterator seeks to lo in O(log n) and stops at hi, so
+	 *         a scan of k elements costs O(log n + k), and it fails fast if
+	 *         the tree is changed under it. The view is read only. Throws an
+	 *         IllegalArgumentException if lo is greater than hi
+	 */
+	public RangeView subSet(T lo, boolean loInclusive, T hi,
+			boolean hiInclusive) {
+		if (lo == null || hi == null)
+			throw new IllegalArgumentException();
+		if (compare(lo, hi) > 0)
+			throw new IllegalArgumentException("lo is greater than hi");
+		return new RangeView(lo, loInclusive, hi, hiInclusive, false);
+	}
+
+	/**
+	 * @param lo
+	 *            The lower bound, inclusive
+	 * @param hi
+	 *            The upper bound, exclusive
+	 * @return A live view of the elements from lo up to hi. See subSet
+	 */
+	public RangeView subSet(T lo, T hi) {
+		return subSet(lo, true, hi, false);
+	}
+
+	/**
+	 * @param hi
+	 *            The upper bound
+	 * @param inclusive
+	 *            Whether hi itself is in the view
+	 * @return A live view of the elements below hi. See subSet
+	 */
+	public RangeView headSet(T hi, boolean inclusive) {
+		if (hi == null)
+			throw new IllegalArgumentException();
+		return new RangeView(null, false, hi, inclusive, false);
+	}
+
+	/**
+	 * @param hi
+	 *            The upper bound, exclusive
+	 * @return A live view of the elements below hi. See subSet
+	 */
+	public RangeView headSet(T hi) {
+		return headSet(hi, false);
+	}
+
+	/**
+	 * @param lo
+	 *            The lower bound
+	 * @param inclusive
+	 *            Whether lo itself is in the view
+	 * @return A live view of the elements above lo. See subSet
+	 */
+	public RangeView tailSet(T lo, boolean inclusive) {
+		if (lo == null)
+			throw new IllegalArgumentException();
+		return new RangeView(lo, inclusive, null, false, false);
+	}
+
+	/**
+	 * @param lo
+	 *            The lower bound, inclusive
+	 * @return A live view of the elements from lo up. See subSet
+	 */
+	public RangeView tailSet(T lo) {
+		return tailSet(lo, true);
+	}
+
+	/**
+	 * @return A live view of the whole tree that iterates from the largest
+	 *         element down. See subSet
+	 */
+	public RangeView descendingSet() {
+		return new RangeView(null, false, null, false, true);
+	}
+
 	/**
 	 * @author kellymr1
 	 * 
@@ -126,10 +785,8 @@ public class AVLTree<T extends Comparable<? super T>> implements Iterable<T> {
 		public T element;
 		public BinaryNode leftChild;
 		public BinaryNode rightChild;
-		public int leftHeight = 0;
-		public int rightHeight = 0;
-		private Stack<Object> stack = new Stack<Object>();
 		public int hpos;
+		public int count = 1;
 
 		/**
 		 * @param element
@@ -183,80 +840,65 @@ public class AVLTree<T extends Comparable<? super T>> implements Iterable<T> {
 
 		}
 
-		/**
-		 * @return Returns an iterator
-		 */
-		public Iterator<Object> Iterator() {
-			stack.push(element);
-
-			if (this.rightChild != null) {
-				rightChild.Iterator();
-			}
-
-			if (this.leftChild != null) {
-				leftChild.Iterator();
-			}
-
-			Iterator<Object> it = stack.iterator();
-
-			return it;
-		}
-
 		/**
 		 * @author kellymr1
 		 * @param o
 		 *            The element that will be inserted into the tree
-		 * @return true if it is successfully inserted
+		 * @param b
+		 *            Switched off if the element is already there, and
+		 *            counts the rotations
+		 * @return the new root of this subtree
 		 * 
 		 *         This method will insert an element into a tree and check the
 		 *         nodes to see if it should go on the left or right side of the
-		 *         tree. It will then return true if the node is successfully
-		 *         placed; false otherwise.
+		 *         tree. It will then adjust the heights on the way back up.
 		 */
-		public BinaryNode insert(T i) {
+		public BinaryNode insert(T i, bool b) {
+            int compare = compare(i, element);
 
-            if (i.compareTo(element) > 0) {
+            if (compare > 0) {
                   if (rightChild != null) {
-                         rightChild = rightChild.insert(i);  // inserts recursively into the tree
-                         this.hpos = this.getHeight();  // gives this a height
+                         rightChild = rightChild.insert(i, b);  // inserts recursively into the tree
+                         this.update();  // gives this a height
                      
-                         return this.adjust();  // adjust if height is imbalanced
+                         return this.adjust(b);  // adjust if height is imbalanced
                          
                   }
                   
                   // if right = null
-                  rightChild = new BinaryNode(i);  // sets new right child
+                  rightChild = newNode(i);  // sets new right child
                   rightChild.hpos = 0;
-                  this.hpos = this.getHeight();
-                  modCont++;
+                  this.update();
                   return this;
             }
             
-            if (i.compareTo(element) < 0) {
+            if (compare < 0) {
                   if (leftChild != null) {
-                         leftChild = leftChild.insert(i);
-                         this.hpos = this.getHeight();
-                         return this.adjust();
+                         leftChild = leftChild.insert(i, b);
+                         this.update();
+                         return this.adjust(b);
                   }
                   
-                  leftChild = new BinaryNode(i);
+                  leftChild = newNode(i);
                   leftChild.hpos = 0;
-                  this.hpos = this.getHeight();
-                  modCont++;
+                  this.update();
                   return this;
             }
             
+            b.setBool();  // already in the tree
             return this;
 
      }
 
 
 		 /**
+		 * @param b
+		 *            Counts the rotations
 		 * @return A binary node that has been adjusted
 		 * 
 		 * This method will check the position of the nodes and see if there is a height imbalance.  It will then make any corrections that are necessary.
 		 */
-		private BinaryNode adjust() {
+		private BinaryNode adjust(bool b) {
 			 	 int rightHeight = -1;
             	 int leftHeight = -1;
             	 
@@ -278,10 +920,10 @@ public class AVLTree<T extends Comparable<? super T>> implements Iterable<T> {
             		 }
             		 
             		 if(lh > rh){
-            			 rightChild = rightChild.rotateRight();
+            			 rightChild = rightChild.rotateRight(b);
             		 }
             		 
-            		 return rotateLeft();
+            		 return rotateLeft(b);
             	 }
             	 if(rightHeight - leftHeight < -1){
             		 int lh = -1;
@@ -295,16 +937,25 @@ public class AVLTree<T extends Comparable<? super T>> implements Iterable<T> {
             		 }
             		 
             		 if(lh < rh){
-            			 leftChild = leftChild.rotateLeft();
+            			 leftChild = leftChild.rotateLeft(b);
             		 }
             		 
-            		 return rotateRight();
+            		 return rotateRight(b);
             	 }
 
 			return this;
       }
 
 
+		/**
+		 * Recomputes hpos and count from the children, which must already be
+		 * up to date. Anything that changes a node's children calls this
+		 */
+		void update() {
+			this.hpos = this.getHeight();
+			this.count = 1 + countOf(leftChild) + countOf(rightChild);
+		}
+
 		/**
 		 * @return the height of the node
 		 * 
@@ -327,33 +978,36 @@ public class AVLTree<T extends Comparable<? super T>> implements Iterable<T> {
 		}
 
 		/**
+		 * @param b
+		 *            Counts the rotation
 		 * @return A rotated binary node
 		 * 
 		 * This will return a binary node that has been rotated so that it is the new root.  It will also redo any height values
 		 */
-		private BinaryNode rotateLeft() {
-			BinaryNode temp = new BinaryNode(element);
-			temp = this.rightChild;
+		private BinaryNode rotateLeft(bool b) {
+			BinaryNode temp = this.rightChild;
 			this.rightChild = temp.leftChild;
 			temp.leftChild = this;
-			this.hpos = this.getHeight();
-			temp.hpos = temp.getHeight();
-			rotateCount++;
+			this.update();
+			temp.update();
+			b.rotations++;
 			return temp;
 		}
 
 		/**
+		 * @param b
+		 *            Counts the rotation
 		 * @return A rotated binary node
 		 * 
 		 * This will return a binary node that has been rotated so that it is the new root.  It will also redo any height values
 		 */
-		private BinaryNode rotateRight() {
+		private BinaryNode rotateRight(bool b) {
 			BinaryNode temp = this.leftChild;
 			this.leftChild = temp.rightChild;
 			temp.rightChild = this;
-			this.hpos = this.getHeight();
-			temp.hpos = temp.getHeight();
-			rotateCount++;
+			this.update();
+			temp.update();
+			b.rotations++;
 			return temp;
 		}
 
@@ -371,28 +1025,29 @@ public class AVLTree<T extends Comparable<? super T>> implements Iterable<T> {
 		 *         true if the specified element is removed; false otherwise.
 		 */
 		public BinaryNode remove(T element, bool b) {
-			this.hpos = this.getHeight();
-			if (element.compareTo(this.element) < 0){
+			this.update();
+			int compare = compare(element, this.element);
+			if (compare < 0){
 				if(leftChild != null){
 					leftChild = leftChild.remove(element, b);
-					this.hpos = this.getHeight();
-					return this.adjust();
+					this.update();
+					return this.adjust(b);
 				}
 				else {
 					b.setBool();
-					return null;
+					return this;
 				}
 			}
 
-			else if (element.compareTo(this.element) > 0) {
+			else if (compare > 0) {
 				if(rightChild != null){
 					rightChild = rightChild.remove(element, b);
-					this.hpos = this.getHeight();
-					return this.adjust();
+					this.update();
+					return this.adjust(b);
 				}
 				else {
 					b.setBool();
-					return null;
+					return this;
 				}
 			}
 
@@ -401,14 +1056,15 @@ public class AVLTree<T extends Comparable<? super T>> implements Iterable<T> {
 				if (leftChild != null && rightChild != null) {
 					this.element = leftChild.maxValue();
 					leftChild = leftChild.remove(this.element, b);
-					return this;
+					this.update();
+					return this.adjust(b);
 				}
 
 				else if(rightChild == null && leftChild == null) return null;
 				else if(rightChild == null && leftChild != null) return leftChild;
 				else if(leftChild == null && rightChild != null) return rightChild;
 
-				return this.adjust();
+				return this.adjust(b);
 			}
 
 		}
@@ -419,6 +1075,49 @@ public class AVLTree<T extends Comparable<? super T>> implements Iterable<T> {
 
 	}
 
+	/**
+	 * A node that also keeps the tree's Aggregate of its subtree. Only trees
+	 * made with an Aggregate have them, so other trees keep their smaller
+	 * nodes
+	 */
+	private class AggNode extends BinaryNode {
+		private Object agg;
+
+		AggNode(T element) {
+			super(element);
+			this.agg = aggregate.of.apply(element);
+		}
+
+		@Override
+		void update() {
+			super.update();
+			BinaryOperator<Object> op = aggregate.combine;
+			agg = op.apply(op.apply(aggOf(leftChild),
+					aggregate.of.apply(element)), aggOf(rightChild));
+		}
+	}
+
+	/**
+	 * A node that also keeps the tree's LongAggregate of its subtree
+	 */
+	private class LongAggNode extends BinaryNode {
+		private long agg;
+
+		LongAggNode(T element) {
+			super(element);
+			this.agg = longAggregate.of.applyAsLong(element);
+		}
+
+		@Override
+		void update() {
+			super.update();
+			LongBinaryOperator op = longAggregate.combine;
+			agg = op.applyAsLong(op.applyAsLong(longAggOf(leftChild),
+					longAggregate.of.applyAsLong(element)),
+					longAggOf(rightChild));
+		}
+	}
+
 	/**
 	 * @author kellymr1
 	 * 
@@ -488,6 +1187,243 @@ public class AVLTree<T extends Comparable<? super T>> implements Iterable<T> {
 
 	}
 
+	/**
+	 * A read only window onto the elements between two bounds, either of
+	 * which may be missing. The bounds are checked on every call, so the view
+	 * always shows the tree's current contents
+	 */
+	public class RangeView extends AbstractSet<T> {
+		private final T lo;
+		private final boolean loInclusive;
+		private final T hi;
+		private final boolean hiInclusive;
+		private final boolean descending;
+
+		RangeView(T lo, boolean loInclusive, T hi, boolean hiInclusive,
+				boolean descending) {
+			this.lo = lo;
+			this.loInclusive = loInclusive;
+			this.hi = hi;
+			this.hiInclusive = hiInclusive;
+			this.descending = descending;
+		}
+
+		private boolean tooLow(T e) {
+			if (lo == null)
+				return false;
+			int compare = compare(e, lo);
+			return compare < 0 || (compare == 0 && !loInclusive);
+		}
+
+		private boolean tooHigh(T e) {
+			if (hi == null)
+				return false;
+			int compare = compare(e, hi);
+			return compare > 0 || (compare == 0 && !hiInclusive);
+		}
+
+		@Override
+		public Iterator<T> iterator() {
+			return new RangeIterator(this, descending);
+		}
+
+		/**
+		 * @return An iterator over the view from its largest element down
+		 */
+		public Iterator<T> descendingIterator() {
+			return new RangeIterator(this, !descending);
+		}
+
+		/**
+		 * @return The same view, iterated in the opposite order
+		 */
+		public RangeView descendingSet() {
+			return new RangeView(lo, loInclusive, hi, hiInclusive, !descending);
+		}
+
+		/**
+		 * @return The number of elements in the view, from two ranks, O(log
+		 *         n)
+		 */
+		@Override
+		public int size() {
+			int from = (lo == null) ? 0 : countBelow(lo, !loInclusive);
+			int to = (hi == null) ? countOf(root) : countBelow(hi, hiInclusive);
+			return Math.max(0, to - from);
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return !iterator().hasNext();
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public boolean contains(Object o) {
+			if (o == null)
+				return false;
+			T e = (T) o;
+			return !tooLow(e) && !tooHigh(e) && AVLTree.this.contains(e);
+		}
+	}
+
+	/**
+	 * In order iteration over a RangeView. The stack holds the nodes whose
+	 * left side (right side when descending) has been visited but which have
+	 * not been returned yet; it is seeded by one walk down to the near bound
+	 */
+	private class RangeIterator implements Iterator<T> {
+		private final ArrayDeque<BinaryNode> s = new ArrayDeque<BinaryNode>();
+		private final RangeView view;
+		private final boolean descending;
+		private final int myMod;
+
+		RangeIterator(RangeView view, boolean descending) {
+			this.view = view;
+			this.descending = descending;
+			this.myMod = modCont;
+			BinaryNode n = root;
+			while (n != null) {
+				boolean outside = descending ? view.tooHigh(n.element) : view
+						.tooLow(n.element);
+				if (outside) {
+					n = descending ? n.leftChild : n.rightChild;
+				} else {
+					s.push(n);
+					n = descending ? n.rightChild : n.leftChild;
+				}
+			}
+		}
+
+		public boolean hasNext() {
+			if (s.isEmpty())
+				return false;
+			T e = s.peek().element;
+			return !(descending ? view.tooLow(e) : view.tooHigh(e));
+		}
+
+		public T next() {
+			if (myMod != modCont)
+				throw new ConcurrentModificationException();
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			BinaryNode current = s.pop();
+			BinaryNode n = descending ? current.leftChild : current.rightChild;
+			while (n != null) {
+				s.push(n);
+				n = descending ? n.rightChild : n.leftChild;
+			}
+			return current.element;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * In order spliterator. Each node on the stack stands for its own
+	 * element followed by its right subtree, the top of the stack coming
+	 * first. Everything pushed is below hi, so the bound only costs a compare
+	 * while walking down a left spine, and only once a split has set one
+	 */
+	private class InOrderSpliterator implements Spliterator<T> {
+		private final ArrayDeque<BinaryNode> s = new ArrayDeque<BinaryNode>();
+		private final T hi;
+		private long remaining;
+		private int myMod;
+
+		InOrderSpliterator(BinaryNode top, T hi, long remaining) {
+			this.hi = hi;
+			this.remaining = remaining;
+			this.myMod = modCont;
+			pushLeft(top);
+		}
+
+		private void pushLeft(BinaryNode n) {
+			for (; n != null; n = n.leftChild)
+				if (hi == null || compare(n.element, hi) < 0)
+					s.push(n);
+		}
+
+		public boolean tryAdvance(Consumer<? super T> action) {
+			if (action == null)
+				throw new NullPointerException();
+			BinaryNode current = s.poll();
+			if (current == null)
+				return false;
+			pushLeft(current.rightChild);
+			remaining--;
+			action.accept(current.element);
+			if (myMod != modCont)
+				throw new ConcurrentModificationException();
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(Consumer<? super T> action) {
+			if (action == null)
+				throw new NullPointerException();
+			BinaryNode current;
+			while ((current = s.poll()) != null) {
+				pushLeft(current.rightChild);
+				action.accept(current.element);
+			}
+			remaining = 0;
+			if (myMod != modCont)
+				throw new ConcurrentModificationException();
+		}
+
+		/**
+		 * With two or more nodes pending, the prefix takes all but the bottom
+		 * one, which is the shallowest, and its size is the pending nodes plus
+		 * their right subtrees. With one left, the prefix takes that node and
+		 * the part of its right subtree below the subtree's root r, which is
+		 * r's left subtree
+		 */
+		public Spliterator<T> trySplit() {
+			InOrderSpliterator prefix;
+			if (s.size() >= 2) {
+				BinaryNode bottom = s.pollLast();
+				prefix = new InOrderSpliterator(null, null, 0);
+				for (BinaryNode n : s)
+					prefix.remaining += 1 + countOf(n.rightChild);
+				prefix.s.addAll(s);
+				s.clear();
+				s.push(bottom);
+			} else if (s.size() == 1) {
+				BinaryNode r = s.peek().rightChild;
+				while (r != null && hi != null && compare(r.element, hi) >= 0)
+					r = r.leftChild;
+				if (r == null)
+					return null;
+				prefix = new InOrderSpliterator(null, r.element,
+						1 + countOf(r.leftChild));
+				prefix.s.push(s.pop());
+				s.push(r);
+			} else {
+				return null;
+			}
+			prefix.myMod = myMod;
+			remaining -= prefix.remaining;
+			return prefix;
+		}
+
+		public long estimateSize() {
+			return remaining;
+		}
+
+		public int characteristics() {
+			return ORDERED | SORTED | DISTINCT | NONNULL | SIZED | SUBSIZED;
+		}
+
+		@Override
+		public Comparator<? super T> getComparator() {
+			return comparator();
+		}
+	}
+
 	/**
 	 * @param i
 	 *            The element that you will be inserting into the tree
@@ -503,14 +1439,20 @@ public class AVLTree<T extends Comparable<? super T>> implements Iterable<T> {
 
 		else {
 			if (isEmpty()) {
-				this.root = new BinaryNode(i);
+				this.root = newNode(i);
 				root.hpos = 0;
 				size++;
 				modCont++;
 				return true;
-			} else{
-				root = root.insert(i);
-				return root.insert(i) != null;
+			} else {
+				bool newBool = new bool();
+				root = root.insert(i, newBool);
+				rotateCount += newBool.rotations;
+				if (!newBool.getbool())
+					return false;
+				size++;
+				modCont++;
+				return true;
 			}
 
 		}
@@ -544,7 +1486,479 @@ public class AVLTree<T extends Comparable<? super T>> implements Iterable<T> {
 		} else {
 			bool newBool = new bool();
 			root = root.remove(i, newBool);
-			return newBool.getbool();
+			rotateCount += newBool.rotations;
+			if (!newBool.getbool())
+				return false;
+			size--;
+			modCont++;
+			return true;
+		}
+	}
+
+	/**
+	 * @param c
+	 *            The elements to add
+	 * @return true if the tree changed; false otherwise
+	 * 
+	 *         Adds every element of c. If the tree is empty and c is already
+	 *         in ascending order the tree is built straight from it in O(n),
+	 *         duplicates dropped; otherwise the elements are inserted one at
+	 *         a time
+	 */
+	public boolean addAll(Collection<? extends T> c) {
+		if (c == null)
+			throw new IllegalArgumentException();
+		Object[] a = c.toArray();
+		if (isEmpty()) {
+			int n = sortedDistinct(a);
+			if (n >= 0) {
+				@SuppressWarnings("unchecked")
+				List<T> sorted = (List<T>) (List<?>) Arrays.asList(a).subList(
+						0, n);
+				load(sorted.iterator(), n);
+				return n > 0;
+			}
+		}
+		boolean changed = false;
+		for (Object o : a) {
+			@SuppressWarnings("unchecked")
+			T e = (T) o;
+			changed |= insert(e);
+		}
+		return changed;
+	}
+
+	/**
+	 * @param a
+	 *            The elements to check
+	 * @return The number of distinct elements, which are moved to the front
+	 *         of a, if a is in ascending order; -1 otherwise
+	 */
+	@SuppressWarnings("unchecked")
+	private int sortedDistinct(Object[] a) {
+		int n = 0;
+		for (Object o : a) {
+			if (o == null)
+				throw new IllegalArgumentException();
+			if (n > 0) {
+				int compare = compare((T) a[n - 1], (T) o);
+				if (compare > 0)
+					return -1;
+				if (compare == 0)
+					continue;
+			}
+			a[n++] = o;
+		}
+		return n;
+	}
+
+	/**
+	 * @param it
+	 *            The elements in strictly ascending order
+	 * @param n
+	 *            How many elements to take from it
+	 * 
+	 *            Replaces the contents of the tree with a balanced tree of the
+	 *            next n elements of it
+	 */
+	private void load(Iterator<? extends T> it, int n) {
+		root = build(new SortedFeed(it), n);
+		size = n;
+		modCont++;
+	}
+
+	/**
+	 * @param feed
+	 *            The source of the elements
+	 * @param n
+	 *            The number of elements in the subtree
+	 * @return The root of the subtree, or null if n is 0
+	 * 
+	 *         Builds the left half, takes the middle element and builds the
+	 *         right half, which gets the extra element when n is even. Both
+	 *         halves differ in size by at most one, so their heights do too
+	 */
+	private BinaryNode build(SortedFeed feed, int n) {
+		if (n == 0)
+			return null;
+		int leftCount = (n - 1) / 2;
+		BinaryNode left = build(feed, leftCount);
+		BinaryNode node = newNode(feed.next());
+		node.leftChild = left;
+		node.rightChild = build(feed, n - 1 - leftCount);
+		node.update();
+		return node;
+	}
+
+	/**
+	 * Hands out the elements of an iterator, checking that they are strictly
+	 * ascending
+	 */
+	private class SortedFeed {
+		private final Iterator<? extends T> it;
+		private T last;
+
+		SortedFeed(Iterator<? extends T> it) {
+			this.it = it;
+		}
+
+		T next() {
+			if (!it.hasNext())
+				throw new IllegalArgumentException("ran out of elements");
+			T e = it.next();
+			if (e == null)
+				throw new IllegalArgumentException();
+			if (last != null && compare(last, e) >= 0)
+				throw new IllegalArgumentException(
+						"elements are not strictly ascending");
+			last = e;
+			return e;
+		}
+	}
+
+	/**
+	 * @param other
+	 *            The tree whose elements are added
+	 * @return true if the tree changed; false otherwise
+	 * 
+	 *         Adds every element of other to this tree, running on the common
+	 *         ForkJoinPool. See union(AVLTree, ForkJoinPool)
+	 */
+	public boolean union(AVLTree<T> other) {
+		return union(other, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param other
+	 *            The tree whose elements are added
+	 * @param pool
+	 *            The pool the work is split over
+	 * @return true if the tree changed; false otherwise
+	 * 
+	 *         Adds every element of other to this tree. This tree is split
+	 *         around the root of other, both halves are merged with the
+	 *         matching subtrees of other in parallel and the results are
+	 *         joined back together. For trees of m and n elements, m <= n,
+	 *         that is O(m log(n/m + 1)) work with O(log n log m) span. This
+	 *         tree's nodes are reused and other's elements are copied into new
+	 *         ones, so other is only read and must not change meanwhile
+	 */
+	public boolean union(AVLTree<T> other, ForkJoinPool pool) {
+		return setOperation(SetOp.UNION, other, pool);
+	}
+
+	/**
+	 * @param other
+	 *            The tree whose elements are kept
+	 * @return true if the tree changed; false otherwise
+	 * 
+	 *         Removes every element that is not in other, running on the
+	 *         common ForkJoinPool. See union(AVLTree, ForkJoinPool)
+	 */
+	public boolean intersection(AVLTree<T> other) {
+		return intersection(other, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param other
+	 *            The tree whose elements are kept
+	 * @param pool
+	 *            The pool the work is split over
+	 * @return true if the tree changed; false otherwise
+	 * 
+	 *         Removes every element that is not in other, in the same way and
+	 *         with the same bounds as union. other is only read
+	 */
+	public boolean intersection(AVLTree<T> other, ForkJoinPool pool) {
+		return setOperation(SetOp.INTERSECTION, other, pool);
+	}
+
+	/**
+	 * @param other
+	 *            The tree whose elements are removed
+	 * @return true if the tree changed; false otherwise
+	 * 
+	 *         Removes every element that is in other, running on the common
+	 *         ForkJoinPool. See union(AVLTree, ForkJoinPool)
+	 */
+	public boolean difference(AVLTree<T> other) {
+		return difference(other, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param other
+	 *            The tree whose elements are removed
+	 * @param pool
+	 *            The pool the work is split over
+	 * @return true if the tree changed; false otherwise
+	 * 
+	 *         Removes every element that is in other, in the same way and with
+	 *         the same bounds as union. other is only read
+	 */
+	public boolean difference(AVLTree<T> other, ForkJoinPool pool) {
+		return setOperation(SetOp.DIFFERENCE, other, pool);
+	}
+
+	private boolean setOperation(SetOp op, AVLTree<T> other,
+			ForkJoinPool pool) {
+		if (other == null || pool == null)
+			throw new IllegalArgumentException();
+		if (!sameOrder(other))
+			throw new IllegalArgumentException(
+					"the trees are not in the same order");
+		if (other == this) {
+			if (op != SetOp.DIFFERENCE || isEmpty())
+				return false;
+			root = null;
+			size = 0;
+			modCont++;
+			return true;
+		}
+		if (other.isEmpty() && op != SetOp.INTERSECTION)
+			return false;
+
+		SetTask task = new SetTask(op, root, other.root);
+		pool.invoke(task);
+		root = task.result;
+		rotateCount += task.b.rotations;
+		modCont++;
+		int before = size;
+		if (op == SetOp.UNION)
+			size += task.count;
+		else if (op == SetOp.INTERSECTION)
+			size = task.count;
+		else
+			size -= task.count;
+		return size != before;
+	}
+
+	/**
+	 * @param n
+	 *            A node, or null
+	 * @return The height of n, -1 for null
+	 */
+	private int hposOf(BinaryNode n) {
+		return (n == null) ? -1 : n.hpos;
+	}
+
+	/**
+	 * @param l
+	 *            The subtree of smaller elements
+	 * @param k
+	 *            The node that goes between them; its old children are dropped
+	 * @param r
+	 *            The subtree of larger elements
+	 * @param b
+	 *            Counts the rotations
+	 * @return The root of a balanced tree of l, k and r
+	 * 
+	 *         If the heights are within one k simply becomes the root.
+	 *         Otherwise k is hung off the spine of the taller tree where the
+	 *         heights match, and the nodes above are adjusted on the way back
+	 *         up as after an insert. O(|hpos(l) - hpos(r)|)
+	 */
+	private BinaryNode join(BinaryNode l, BinaryNode k, BinaryNode r, bool b) {
+		int hl = hposOf(l);
+		int hr = hposOf(r);
+		if (hl > hr + 1)
+			return joinRight(l, k, r, b);
+		if (hr > hl + 1)
+			return joinLeft(l, k, r, b);
+		k.leftChild = l;
+		k.rightChild = r;
+		k.update();
+		return k;
+	}
+
+	private BinaryNode joinRight(BinaryNode l, BinaryNode k, BinaryNode r,
+			bool b) {
+		if (hposOf(l.rightChild) <= hposOf(r) + 1) {
+			k.leftChild = l.rightChild;
+			k.rightChild = r;
+			k.update();
+			l.rightChild = k;
+		} else {
+			l.rightChild = joinRight(l.rightChild, k, r, b);
+		}
+		l.update();
+		return l.adjust(b);
+	}
+
+	private BinaryNode joinLeft(BinaryNode l, BinaryNode k, BinaryNode r,
+			bool b) {
+		if (hposOf(r.leftChild) <= hposOf(l) + 1) {
+			k.leftChild = l;
+			k.rightChild = r.leftChild;
+			k.update();
+			r.leftChild = k;
+		} else {
+			r.leftChild = joinLeft(l, k, r.leftChild, b);
+		}
+		r.update();
+		return r.adjust(b);
+	}
+
+	/**
+	 * @param l
+	 *            The subtree of smaller elements
+	 * @param r
+	 *            The subtree of larger elements
+	 * @param b
+	 *            Counts the rotations
+	 * @return The root of a balanced tree of l and r
+	 * 
+	 *         Takes the largest node out of l and joins around it
+	 */
+	private BinaryNode join2(BinaryNode l, BinaryNode r, bool b) {
+		if (l == null)
+			return r;
+		if (r == null)
+			return l;
+		Split s = splitLast(l, b);
+		return join(s.left, s.node, r, b);
+	}
+
+	/**
+	 * @param t
+	 *            A non-empty subtree
+	 * @param b
+	 *            Counts the rotations
+	 * @return The largest node of t, and the rest of t as the left side
+	 */
+	private Split splitLast(BinaryNode t, bool b) {
+		if (t.rightChild == null)
+			return new Split(t.leftChild, t, null);
+		Split s = splitLast(t.rightChild, b);
+		s.left = join(t.leftChild, t, s.left, b);
+		return s;
+	}
+
+	/**
+	 * @param t
+	 *            The subtree to split; it is taken apart
+	 * @param key
+	 *            The element to split around
+	 * @param b
+	 *            Counts the rotations
+	 * @return The elements of t below key, the node holding key if there is
+	 *         one, and the elements above key
+	 * 
+	 *         Walks down to key and joins the subtrees it passes onto the
+	 *         matching side on the way back up. O(log n)
+	 */
+	private Split split(BinaryNode t, T key, bool b) {
+		if (t == null)
+			return new Split(null, null, null);
+		int compare = compare(key, t.element);
+		if (compare == 0)
+			return new Split(t.leftChild, t, t.rightChild);
+		if (compare < 0) {
+			Split s = split(t.leftChild, key, b);
+			s.right = join(s.right, t, t.rightChild, b);
+			return s;
+		}
+		Split s = split(t.rightChild, key, b);
+		s.left = join(t.leftChild, t, s.left, b);
+		return s;
+	}
+
+	/**
+	 * The result of a split: two subtrees and the node between them, which is
+	 * null if the key was not found
+	 */
+	private class Split {
+		BinaryNode left;
+		BinaryNode node;
+		BinaryNode right;
+
+		Split(BinaryNode left, BinaryNode node, BinaryNode right) {
+			this.left = left;
+			this.node = node;
+			this.right = right;
+		}
+	}
+
+	/**
+	 * One step of union, intersection or difference: combines a subtree of
+	 * this tree, which it takes apart, with a subtree of the other tree,
+	 * which it only reads. Each task counts its own rotations and elements so
+	 * the tasks share nothing but the nodes they were handed
+	 */
+	private class SetTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final SetOp op;
+		private final BinaryNode mine;
+		private final BinaryNode theirs;
+		private final bool b = new bool();
+		private BinaryNode result;
+		/*
+		 * Elements added by a union, kept by an intersection or removed by a
+		 * difference
+		 */
+		private int count;
+
+		SetTask(SetOp op, BinaryNode mine, BinaryNode theirs) {
+			this.op = op;
+			this.mine = mine;
+			this.theirs = theirs;
+		}
+
+		@Override
+		protected void compute() {
+			result = apply(mine, theirs);
+		}
+
+		private BinaryNode apply(BinaryNode t1, BinaryNode t2) {
+			if (t2 == null)
+				return (op == SetOp.INTERSECTION) ? null : t1;
+			if (t1 == null)
+				return (op == SetOp.UNION) ? copy(t2) : null;
+
+			Split s = split(t1, t2.element, b);
+			BinaryNode left;
+			BinaryNode right;
+			if (t2.hpos >= FORK_HEIGHT) {
+				SetTask l = new SetTask(op, s.left, t2.leftChild);
+				SetTask r = new SetTask(op, s.right, t2.rightChild);
+				invokeAll(l, r);
+				left = l.result;
+				right = r.result;
+				count += l.count + r.count;
+				b.rotations += l.b.rotations + r.b.rotations;
+			} else {
+				left = apply(s.left, t2.leftChild);
+				right = apply(s.right, t2.rightChild);
+			}
+
+			if (op == SetOp.UNION) {
+				BinaryNode k = s.node;
+				if (k == null) {
+					k = newNode(t2.element);
+					count++;
+				}
+				return AVLTree.this.join(left, k, right, b);
+			}
+			if (s.node != null) {
+				count++;
+				if (op == SetOp.INTERSECTION)
+					return AVLTree.this.join(left, s.node, right, b);
+			}
+			return join2(left, right, b);
+		}
+
+		/**
+		 * @return A copy of t with the same shape, counted as added
+		 */
+		private BinaryNode copy(BinaryNode t) {
+			if (t == null)
+				return null;
+			BinaryNode n = newNode(t.element);
+			n.leftChild = copy(t.leftChild);
+			n.rightChild = copy(t.rightChild);
+			n.update();
+			count++;
+			return n;
 		}
 	}
 
@@ -560,10 +1974,12 @@ public class AVLTree<T extends Comparable<? super T>> implements Iterable<T> {
 	/**
 	 * @author kellymr1
 	 *
-	 *	This is the boolean class for insert and remove that will return true if there is something other than null being returned
+	 *	This is the boolean class for insert and remove that will return true if there is something other than null being returned.
+	 *	It also counts the rotations the operation makes, so the nodes never touch the tree's own counters
 	 */
 	public class bool{
 		private boolean bool = true;
+		int rotations;
 		/**
 		 * A blank constructor for bool
 		 */
@@ -0,0 +1,553 @@
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * A sorted map kept in an AVL tree, with the value stored in the node next to
+ * its key.
+ *
+ * Every update walks down once, recording the nodes it passes in a path
+ * buffer, and then rebalances back up that path only as far as a height
+ * changes, using the same rotations as AVLTree. computeIfAbsent, compute and
+ * merge read, call the function and write from that single walk, so a
+ * counter update costs one descent instead of a get followed by a put. If the
+ * function itself reads the map, the walk is done again before the write
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class AVLTreeMap<K extends Comparable<? super K>, V> extends
+		AbstractMap<K, V> {
+	/*
+	 * An AVL tree of n nodes is less than 1.45 log(n + 2) high, so 64 covers
+	 * any int size
+	 */
+	private static final int MAX_HEIGHT = 64;
+
+	private Node root;
+	private int size = 0;
+	private int modCont = 0;
+	private int rotateCount = 0;
+	private final Comparator<? super K> comparator;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private final Node[] path = (Node[]) new AVLTreeMap.Node[MAX_HEIGHT];
+	private int depth;
+	private int lastCompare;
+	// counts the walks, so a caller can tell its path has been reused
+	private int pathEpoch;
+
+	/**
+	 * Creates an empty map ordered by the keys' natural order
+	 */
+	public AVLTreeMap() {
+		this(null);
+	}
+
+	/**
+	 * @param comparator
+	 *            The order to keep the keys in, or null for their natural
+	 *            order
+	 *
+	 *            Creates an empty map ordered by comparator
+	 */
+	public AVLTreeMap(Comparator<? super K> comparator) {
+		this.comparator = comparator;
+	}
+
+	/**
+	 * @return The comparator the map is ordered by, or null if it uses the
+	 *         natural order of its keys
+	 */
+	public Comparator<? super K> comparator() {
+		return comparator;
+	}
+
+	/**
+	 * @return The number of rotations done over the life of the map
+	 */
+	public int getRotationCount() {
+		return rotateCount;
+	}
+
+	/**
+	 * @return The height of the tree, or -1 if the map is empty
+	 */
+	public int height() {
+		return heightOf(root) - 1;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void clear() {
+		root = null;
+		size = 0;
+		modCont++;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return find(key) != null;
+	}
+
+	@Override
+	public V get(Object key) {
+		Node n = find(key);
+		return (n == null) ? null : n.value;
+	}
+
+	/**
+	 * @param key
+	 *            The key to store value under
+	 * @param value
+	 *            The value, which may be null
+	 * @return The value the key had before, or null if it had none
+	 */
+	@Override
+	public V put(K key, V value) {
+		Node n = descend(key);
+		if (n != null) {
+			V old = n.value;
+			n.value = value;
+			clearPath();
+			return old;
+		}
+		attach(key, value);
+		return null;
+	}
+
+	/**
+	 * @param key
+	 *            The key to look up
+	 * @param mappingFunction
+	 *            Makes the value if the key has none
+	 * @return The value now stored under key
+	 *
+	 *         The function is called at most once, between the walk down and
+	 *         the insert. If it adds or removes keys, the call throws
+	 *         ConcurrentModificationException
+	 */
+	@Override
+	public V computeIfAbsent(K key,
+			Function<? super K, ? extends V> mappingFunction) {
+		if (mappingFunction == null)
+			throw new NullPointerException();
+		Node n = descend(key);
+		if (n != null && n.value != null) {
+			clearPath();
+			return n.value;
+		}
+		int myMod = modCont;
+		int myEpoch = pathEpoch;
+		V value = mappingFunction.apply(key);
+		if (myMod != modCont)
+			throw new ConcurrentModificationException();
+		if (myEpoch != pathEpoch)
+			n = descend(key);
+		if (value == null) {
+			clearPath();
+			return null;
+		}
+		if (n != null) {
+			n.value = value;
+			clearPath();
+		} else {
+			attach(key, value);
+		}
+		return value;
+	}
+
+	/**
+	 * @param key
+	 *            The key to update
+	 * @param remappingFunction
+	 *            Gets the key and its current value, or null, and returns the
+	 *            new value, or null to remove the key
+	 * @return The new value, or null if the key is now absent
+	 */
+	@Override
+	public V compute(K key,
+			BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+		if (remappingFunction == null)
+			throw new NullPointerException();
+		Node n = descend(key);
+		int myMod = modCont;
+		int myEpoch = pathEpoch;
+		V value = remappingFunction.apply(key, (n == null) ? null : n.value);
+		if (myMod != modCont)
+			throw new ConcurrentModificationException();
+		if (myEpoch != pathEpoch)
+			n = descend(key);
+		return store(n, key, value);
+	}
+
+	/**
+	 * @param key
+	 *            The key to update
+	 * @param value
+	 *            The value to store if the key has none
+	 * @param remappingFunction
+	 *            Combines the current value with value, returning null to
+	 *            remove the key
+	 * @return The new value, or null if the key is now absent
+	 */
+	@Override
+	public V merge(K key, V value,
+			BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+		if (value == null || remappingFunction == null)
+			throw new NullPointerException();
+		Node n = descend(key);
+		if (n == null || n.value == null)
+			return store(n, key, value);
+		int myMod = modCont;
+		int myEpoch = pathEpoch;
+		V merged = remappingFunction.apply(n.value, value);
+		if (myMod != modCont)
+			throw new ConcurrentModificationException();
+		if (myEpoch != pathEpoch)
+			n = descend(key);
+		return store(n, key, merged);
+	}
+
+	/**
+	 * @param key
+	 *            The key to remove
+	 * @return The value it had, or null if it was not in the map
+	 */
+	@Override
+	public V remove(Object key) {
+		@SuppressWarnings("unchecked")
+		Node n = descend((K) key);
+		if (n == null) {
+			clearPath();
+			return null;
+		}
+		V old = n.value;
+		unlink(n);
+		return old;
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		return new EntrySet();
+	}
+
+	private int compare(K a, K b) {
+		if (comparator != null)
+			return comparator.compare(a, b);
+		return a.compareTo(b);
+	}
+
+	@SuppressWarnings("unchecked")
+	private Node find(Object key) {
+		if (key == null)
+			throw new NullPointerException();
+		K k = (K) key;
+		Node current = root;
+		while (current != null) {
+			int compare = compare(k, current.key);
+			if (compare == 0)
+				return current;
+			current = (compare < 0) ? current.leftChild : current.rightChild;
+		}
+		return null;
+	}
+
+	/**
+	 * @param key
+	 *            The key to look for
+	 * @return The node holding key, or null
+	 *
+	 *         Walks down with one comparison per level, leaving the nodes it
+	 *         passed in the path buffer and the result of the last comparison
+	 *         in lastCompare, so an insert knows which side of the last node
+	 *         the new leaf goes on. The buffer is shared, so a function that
+	 *         calls back into the map walks over it; such callers compare
+	 *         pathEpoch before and after and walk down again if it moved
+	 */
+	private Node descend(K key) {
+		if (key == null)
+			throw new NullPointerException();
+		pathEpoch++;
+		depth = 0;
+		Node current = root;
+		while (current != null) {
+			path[depth++] = current;
+			lastCompare = compare(key, current.key);
+			if (lastCompare == 0)
+				return current;
+			current = (lastCompare < 0) ? current.leftChild
+					: current.rightChild;
+		}
+		return null;
+	}
+
+	/**
+	 * Finishes compute or merge from the path left by descend: a null value
+	 * removes the node, anything else is stored in it or in a new leaf
+	 */
+	private V store(Node n, K key, V value) {
+		if (value == null) {
+			if (n != null)
+				unlink(n);
+			else
+				clearPath();
+			return null;
+		}
+		if (n != null) {
+			n.value = value;
+			clearPath();
+		} else {
+			attach(key, value);
+		}
+		return value;
+	}
+
+	/**
+	 * Hangs a new leaf below the last node on the path and rebalances
+	 */
+	private void attach(K key, V value) {
+		Node leaf = new Node(key, value);
+		if (depth == 0) {
+			root = leaf;
+		} else if (lastCompare < 0) {
+			path[depth - 1].leftChild = leaf;
+		} else {
+			path[depth - 1].rightChild = leaf;
+		}
+		size++;
+		modCont++;
+		rebalance(depth);
+	}
+
+	/**
+	 * Takes the node at the end of the path out of the tree. A node with two
+	 * children takes over its successor's key and value, and the successor's
+	 * node, which has no left child, is unlinked instead
+	 */
+	private void unlink(Node n) {
+		if (n.leftChild != null && n.rightChild != null) {
+			Node succ = n.rightChild;
+			path[depth++] = succ;
+			while (succ.leftChild != null) {
+				succ = succ.leftChild;
+				path[depth++] = succ;
+			}
+			n.key = succ.key;
+			n.value = succ.value;
+			n = succ;
+		}
+		depth--;
+		relink(depth, n, (n.leftChild != null) ? n.leftChild : n.rightChild);
+		size--;
+		modCont++;
+		rebalance(depth);
+	}
+
+	/**
+	 * @param i
+	 *            The number of nodes on the path above the change
+	 *
+	 *            Walks back up the path restoring heights and rotating where
+	 *            a node leans by two. It stops at the first node whose
+	 *            subtree ends up as high as it was, since nothing above it can
+	 *            have changed
+	 */
+	private void rebalance(int i) {
+		while (--i >= 0) {
+			Node node = path[i];
+			int before = node.height;
+			Node top = balance(node);
+			if (top != node)
+				relink(i, node, top);
+			if (top.height == before)
+				break;
+		}
+		clearPath();
+	}
+
+	private void relink(int i, Node old, Node top) {
+		if (i == 0) {
+			root = top;
+			return;
+		}
+		Node parent = path[i - 1];
+		if (parent.leftChild == old)
+			parent.leftChild = top;
+		else
+			parent.rightChild = top;
+	}
+
+	private void clearPath() {
+		for (int i = 0; i < path.length && path[i] != null; i++)
+			path[i] = null;
+		depth = 0;
+	}
+
+	private int heightOf(Node n) {
+		return (n == null) ? 0 : n.height;
+	}
+
+	private void fixHeight(Node n) {
+		n.height = Math.max(heightOf(n.leftChild), heightOf(n.rightChild)) + 1;
+	}
+
+	/**
+	 * @param n
+	 *            The node to balance, whose children are balanced
+	 * @return The root of the subtree after any rotation
+	 *
+	 *         Same cases as AVLTree's adjust: a single rotation when the
+	 *         taller child leans the same way, a double one when it leans the
+	 *         other way
+	 */
+	private Node balance(Node n) {
+		int lean = heightOf(n.leftChild) - heightOf(n.rightChild);
+		if (lean > 1) {
+			Node l = n.leftChild;
+			if (heightOf(l.leftChild) < heightOf(l.rightChild))
+				n.leftChild = rotateLeft(l);
+			return rotateRight(n);
+		}
+		if (lean < -1) {
+			Node r = n.rightChild;
+			if (heightOf(r.rightChild) < heightOf(r.leftChild))
+				n.rightChild = rotateRight(r);
+			return rotateLeft(n);
+		}
+		fixHeight(n);
+		return n;
+	}
+
+	private Node rotateRight(Node n) {
+		rotateCount++;
+		Node l = n.leftChild;
+		n.leftChild = l.rightChild;
+		l.rightChild = n;
+		fixHeight(n);
+		fixHeight(l);
+		return l;
+	}
+
+	private Node rotateLeft(Node n) {
+		rotateCount++;
+		Node r = n.rightChild;
+		n.rightChild = r.leftChild;
+		r.leftChild = n;
+		fixHeight(n);
+		fixHeight(r);
+		return r;
+	}
+
+	/**
+	 * A key, its value and the links of the tree. The height of a leaf is 1
+	 */
+	private class Node implements Map.Entry<K, V> {
+		K key;
+		V value;
+		Node leftChild;
+		Node rightChild;
+		int height = 1;
+
+		Node(K key, V value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		public K getKey() {
+			return key;
+		}
+
+		public V getValue() {
+			return value;
+		}
+
+		public V setValue(V value) {
+			V old = this.value;
+			this.value = value;
+			return old;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry))
+				return false;
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+			return key.equals(e.getKey())
+					&& (value == null ? e.getValue() == null : value.equals(e
+							.getValue()));
+		}
+
+		@Override
+		public int hashCode() {
+			return key.hashCode() ^ (value == null ? 0 : value.hashCode());
+		}
+
+		@Override
+		public String toString() {
+			return key + "=" + value;
+		}
+	}
+
+	private class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+		@Override
+		public Iterator<Map.Entry<K, V>> iterator() {
+			return new EntryIterator();
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public void clear() {
+			AVLTreeMap.this.clear();
+		}
+	}
+
+	/**
+	 * In order iteration over the entries. remove() is not supported, since
+	 * removing a node with two children moves its successor's entry into it
+	 */
+	private class EntryIterator implements Iterator<Map.Entry<K, V>> {
+		private final ArrayDeque<Node> s = new ArrayDeque<Node>();
+		private final int myMod = modCont;
+
+		EntryIterator() {
+			for (Node n = root; n != null; n = n.leftChild)
+				s.push(n);
+		}
+
+		public boolean hasNext() {
+			return !s.isEmpty();
+		}
+
+		public Map.Entry<K, V> next() {
+			if (myMod != modCont)
+				throw new ConcurrentModificationException();
+			if (s.isEmpty())
+				throw new NoSuchElementException();
+			Node current = s.pop();
+			for (Node n = current.rightChild; n != null; n = n.leftChild)
+				s.push(n);
+			return current;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,135 @@
+import java.util.ConcurrentModificationException;
+
+/**
+ * Checks that computeIfAbsent, compute and merge survive functions that call
+ * back into the map, and that null arguments throw NullPointerException as
+ * the Map contract asks.
+ *
+ * Usage: java AVLTreeMapTest (exits with an error on the first failure)
+ */
+public class AVLTreeMapTest {
+
+	static void check(boolean ok, String what) {
+		if (!ok)
+			throw new AssertionError(what);
+	}
+
+	static AVLTreeMap<Integer, Integer> filled() {
+		AVLTreeMap<Integer, Integer> map = new AVLTreeMap<Integer, Integer>();
+		for (int i = 0; i < 100; i++)
+			map.put(i, i);
+		return map;
+	}
+
+	/**
+	 * Checks that the keys 0 to 99 still map to themselves and that the map
+	 * holds added keys more than that
+	 */
+	static void checkContents(AVLTreeMap<Integer, Integer> map, int added,
+			String what) {
+		check(map.size() == 100 + added, what + ": size " + map.size());
+		for (int i = 0; i < 100; i++)
+			check(Integer.valueOf(i).equals(map.get(i)), what + ": get(" + i
+					+ ") " + map.get(i));
+		int count = 0;
+		for (Integer k : map.keySet())
+			count++;
+		check(count == map.size(), what + ": iterated " + count);
+	}
+
+	static void nestedReads() {
+		AVLTreeMap<Integer, Integer> map = filled();
+		map.compute(1000, (k, v) -> {
+			map.remove(-1);
+			return 1;
+		});
+		checkContents(map, 1, "remove(absent) inside compute");
+
+		AVLTreeMap<Integer, Integer> map2 = filled();
+		map2.computeIfAbsent(1000, k -> {
+			map2.put(50, 50);
+			return 1;
+		});
+		checkContents(map2, 1, "put(existing) inside computeIfAbsent");
+
+		AVLTreeMap<Integer, Integer> map3 = filled();
+		map3.merge(60, 1, (a, b) -> {
+			map3.get(10);
+			map3.remove(-5);
+			return a;
+		});
+		checkContents(map3, 0, "reads inside merge");
+
+		AVLTreeMap<Integer, Integer> map4 = filled();
+		map4.compute(70, (k, v) -> {
+			map4.containsKey(3);
+			map4.remove(-1);
+			return null;
+		});
+		check(map4.size() == 99 && !map4.containsKey(70)
+				&& map4.get(71) == 71, "remove through compute after reads");
+	}
+
+	static void nestedWrites() {
+		// the memoizing pattern: the inner call inserts
+		AVLTreeMap<Integer, Long> memo = new AVLTreeMap<Integer, Long>();
+		memo.put(0, 0L);
+		memo.put(1, 1L);
+		boolean threw = false;
+		try {
+			fib(memo, 20);
+		} catch (ConcurrentModificationException e) {
+			threw = true;
+		}
+		check(threw, "inserting inside computeIfAbsent must throw");
+
+		AVLTreeMap<Integer, Integer> map = filled();
+		threw = false;
+		try {
+			map.compute(1000, (k, v) -> {
+				map.remove(5);
+				return 1;
+			});
+		} catch (ConcurrentModificationException e) {
+			threw = true;
+		}
+		check(threw, "removing inside compute must throw");
+	}
+
+	static long fib(AVLTreeMap<Integer, Long> memo, int n) {
+		return memo.computeIfAbsent(n, k -> fib(memo, k - 1)
+				+ fib(memo, k - 2));
+	}
+
+	static void expectNull(Runnable r, String what) {
+		try {
+			r.run();
+		} catch (NullPointerException e) {
+			return;
+		}
+		throw new AssertionError(what + " must throw NullPointerException");
+	}
+
+	static void nulls() {
+		AVLTreeMap<Integer, Integer> map = filled();
+		expectNull(() -> map.put(null, 1), "put(null)");
+		expectNull(() -> map.remove(null), "remove(null)");
+		expectNull(() -> map.get(null), "get(null)");
+		expectNull(() -> map.containsKey(null), "containsKey(null)");
+		expectNull(() -> map.computeIfAbsent(null, k -> 1),
+				"computeIfAbsent(null)");
+		expectNull(() -> map.computeIfAbsent(1, null),
+				"computeIfAbsent with no function");
+		expectNull(() -> map.compute(1, null), "compute with no function");
+		expectNull(() -> map.merge(1, null, (a, b) -> a),
+				"merge with no value");
+		expectNull(() -> map.merge(1, 1, null), "merge with no function");
+	}
+
+	public static void main(String[] args) {
+		nestedReads();
+		nestedWrites();
+		nulls();
+		System.out.println("AVLTreeMapTest passed");
+	}
+}
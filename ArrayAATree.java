@@ -0,0 +1,405 @@
+package AATree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * An AATree whose nodes live in parallel arrays instead of node objects.
+ * Node i has its children in left[i] and right[i], its level in level[i] and
+ * its element in elements[i]. Slot 0 stands for the empty tree: its level is
+ * 0, so skew and split read the level of a missing child without a null
+ * check.
+ *
+ * Freed slots are chained through left[] and handed out again before the
+ * arrays grow, and the arrays grow a whole chunk at a time. A tree of n
+ * elements is five arrays for the collector to trace, not n node objects.
+ *
+ * @param <T>
+ */
+public class ArrayAATree<T extends Comparable<? super T>> {
+	private static final int CHUNK = 1 << 12;
+
+	int root;
+	int size;
+	int rotationCount = 0;
+
+	int[] left;
+	int[] right;
+	int[] level;
+	Object[] elements;
+	private int used = 1;
+	private int free = 0;
+	private final Comparator<? super T> comparator;
+
+	/*
+	 * The slots on the way down to the last insert or removal, see AATree
+	 */
+	private final int[] path = new int[64];
+
+	/**
+	 * Constructs a new, empty ArrayAATree
+	 *
+	 */
+	public ArrayAATree() {
+		this(null, CHUNK);
+	}
+
+	/**
+	 * Constructs a new, empty ArrayAATree with room for the given number of
+	 * elements before its arrays have to grow
+	 *
+	 * @param capacity
+	 */
+	public ArrayAATree(int capacity) {
+		this(null, capacity);
+	}
+
+	/**
+	 * Constructs a new, empty ArrayAATree ordered by the given comparator, or
+	 * by the elements' natural order if it is null
+	 *
+	 * @param comparator
+	 */
+	public ArrayAATree(Comparator<? super T> comparator) {
+		this(comparator, CHUNK);
+	}
+
+	/**
+	 * Constructs a new, empty ArrayAATree ordered by the given comparator,
+	 * with room for the given number of elements before its arrays have to
+	 * grow
+	 *
+	 * @param comparator
+	 * @param capacity
+	 */
+	public ArrayAATree(Comparator<? super T> comparator, int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException();
+		}
+		this.comparator = comparator;
+		this.left = new int[capacity + 1];
+		this.right = new int[capacity + 1];
+		this.level = new int[capacity + 1];
+		this.elements = new Object[capacity + 1];
+	}
+
+	/**
+	 * Returns the number of elements in the tree
+	 *
+	 * @return
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the comparator the tree is ordered by, or null if it uses the
+	 * natural order of its elements
+	 *
+	 * @return
+	 */
+	public Comparator<? super T> comparator() {
+		return this.comparator;
+	}
+
+	int compare(T a, T b) {
+		if (this.comparator != null) {
+			return this.comparator.compare(a, b);
+		}
+		return a.compareTo(b);
+	}
+
+	/**
+	 * Returns true if the tree holds an element equal to o, walking down the
+	 * child arrays
+	 *
+	 * @param o
+	 * @return
+	 */
+	public boolean contains(T o) {
+		if (o == null) {
+			return false;
+		}
+		int current = this.root;
+		while (current != 0) {
+			int compare = compare(o, element(current));
+			if (compare == 0) {
+				return true;
+			}
+			current = (compare < 0) ? this.left[current] : this.right[current];
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the number of rotations performed during the existence of the tree
+	 *
+	 * @return
+	 */
+	public int rotationCount() {
+		return this.rotationCount;
+	}
+
+	/**
+	 * Returns a pre-order representation of the tree's elements
+	 *
+	 * @return
+	 */
+	public ArrayList<Object> toArrayList() {
+		ArrayList<Object> a = new ArrayList<>(this.size);
+		if (this.root == 0) {
+			return a;
+		}
+		int[] stack = new int[64];
+		int top = 0;
+		stack[top++] = this.root;
+		while (top > 0) {
+			int n = stack[--top];
+			a.add(this.elements[n]);
+			if (this.right[n] != 0) {
+				stack[top++] = this.right[n];
+			}
+			if (this.left[n] != 0) {
+				stack[top++] = this.left[n];
+			}
+		}
+		return a;
+	}
+
+	@Override
+	public String toString() {
+		return toArrayList().toString();
+	}
+
+	/**
+	 * Inserts a comparable object into the tree, bottom-up, the same way
+	 * AATree.insert does
+	 *
+	 * @param o
+	 * @return
+	 */
+	public boolean insert(T o) {
+		if (o == null) {
+			throw new IllegalArgumentException();
+		}
+		if (this.root == 0) {
+			this.root = allocate(o);
+			this.size++;
+			return true;
+		}
+		int depth = 0;
+		int compare = 0;
+		int current = this.root;
+		while (current != 0) {
+			compare = compare(o, element(current));
+			if (compare == 0) {
+				return false;
+			}
+			this.path[depth++] = current;
+			current = (compare < 0) ? this.left[current] : this.right[current];
+		}
+		int node = allocate(o);
+		int parent = this.path[depth - 1];
+		if (compare < 0) {
+			this.left[parent] = node;
+		} else {
+			this.right[parent] = node;
+		}
+		this.size++;
+
+		boolean belowChanged = true;
+		for (int i = depth - 1; i >= 0; i--) {
+			int n = this.path[i];
+			int lvl = this.level[n];
+			int top = split(skew(n));
+			boolean changed = top != n || this.level[top] != lvl;
+			if (!changed && !belowChanged) {
+				break;
+			}
+			if (top != n) {
+				relink(i, n, top);
+			}
+			belowChanged = changed;
+		}
+		return true;
+	}
+
+	/**
+	 * Removes an object from the tree, bottom-up, the same way AATree.remove
+	 * does. The freed slot is reused by a later insert
+	 *
+	 * @param o
+	 * @return
+	 */
+	public boolean remove(T o) {
+		if (o == null) {
+			throw new IllegalArgumentException();
+		}
+		int depth = 0;
+		int current = this.root;
+		while (current != 0) {
+			int compare = compare(o, element(current));
+			this.path[depth++] = current;
+			if (compare == 0) {
+				break;
+			}
+			current = (compare < 0) ? this.left[current] : this.right[current];
+		}
+		if (current == 0) {
+			return false;
+		}
+		if (this.left[current] != 0 && this.right[current] != 0) {
+			int pred = this.left[current];
+			this.path[depth++] = pred;
+			while (this.right[pred] != 0) {
+				pred = this.right[pred];
+				this.path[depth++] = pred;
+			}
+			this.elements[current] = this.elements[pred];
+			current = pred;
+		}
+		depth--;
+		relink(depth, current, (this.left[current] == 0) ? this.right[current]
+				: this.left[current]);
+		release(current);
+		this.size--;
+
+		for (int i = depth - 1; i >= 0; i--) {
+			int n = this.path[i];
+			int lvl = this.level[n];
+			int top = balance(n);
+			if (top != n) {
+				relink(i, n, top);
+			}
+			if (this.level[top] == lvl) {
+				break;
+			}
+		}
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	private T element(int n) {
+		return (T) this.elements[n];
+	}
+
+	private void relink(int i, int old, int top) {
+		if (i == 0) {
+			this.root = top;
+			return;
+		}
+		int parent = this.path[i - 1];
+		if (this.left[parent] == old) {
+			this.left[parent] = top;
+		} else {
+			this.right[parent] = top;
+		}
+	}
+
+	/**
+	 * Takes a slot off the free list, or the next unused one, growing the
+	 * arrays by a chunk when they are full
+	 *
+	 * @param o
+	 * @return
+	 */
+	private int allocate(T o) {
+		int n;
+		if (this.free != 0) {
+			n = this.free;
+			this.free = this.left[n];
+		} else {
+			if (this.used == this.elements.length) {
+				grow();
+			}
+			n = this.used++;
+		}
+		this.left[n] = 0;
+		this.right[n] = 0;
+		this.level[n] = 1;
+		this.elements[n] = o;
+		return n;
+	}
+
+	private void release(int n) {
+		this.elements[n] = null;
+		this.right[n] = 0;
+		this.level[n] = 0;
+		this.left[n] = this.free;
+		this.free = n;
+	}
+
+	/**
+	 * Grows by half the current capacity, rounded up to whole chunks
+	 */
+	private void grow() {
+		int capacity = this.elements.length;
+		int wanted = capacity + Math.max(CHUNK, capacity >> 1);
+		wanted = (int) Math.min(Integer.MAX_VALUE - 8L,
+				((wanted + CHUNK - 1L) / CHUNK) * CHUNK);
+		if (wanted <= capacity) {
+			throw new IllegalStateException("tree is full");
+		}
+		this.left = Arrays.copyOf(this.left, wanted);
+		this.right = Arrays.copyOf(this.right, wanted);
+		this.level = Arrays.copyOf(this.level, wanted);
+		this.elements = Arrays.copyOf(this.elements, wanted);
+	}
+
+	private int balance(int n) {
+		int should = Math.min(this.level[this.left[n]],
+				this.level[this.right[n]]) + 1;
+		if (should >= this.level[n]) {
+			return n;
+		}
+		this.level[n] = should;
+		int r = this.right[n];
+		if (this.level[r] > should) {
+			this.level[r] = should;
+		}
+		return subBalance(n);
+	}
+
+	private int subBalance(int n) {
+		int temp = skew(n);
+		int r = this.right[temp];
+		if (r != 0) {
+			this.right[temp] = skew(r);
+			r = this.right[temp];
+			if (this.right[r] != 0) {
+				this.right[r] = skew(this.right[r]);
+			}
+		}
+		temp = split(temp);
+		if (this.right[temp] != 0) {
+			this.right[temp] = split(this.right[temp]);
+		}
+		return temp;
+	}
+
+	private int skew(int n) {
+		int l = this.left[n];
+		if (n != 0 && l != 0 && this.level[l] == this.level[n]) {
+			this.rotationCount++;
+			this.left[n] = this.right[l];
+			this.right[l] = n;
+			return l;
+		}
+		return n;
+	}
+
+	private int split(int n) {
+		int r = this.right[n];
+		if (n != 0 && r != 0 && this.level[n] == this.level[r]
+				&& this.level[r] == this.level[this.right[r]]) {
+			this.rotationCount++;
+			this.right[n] = this.left[r];
+			this.left[r] = n;
+			this.level[r]++;
+			return r;
+		}
+		return n;
+	}
+
+}
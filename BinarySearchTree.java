@@ -1,9 +1,16 @@
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
 import java.util.Stack;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * @author kellymr1
@@ -21,13 +28,105 @@ public class BinarySearchTree<T extends Comparable<? super T>> implements
 	public int modCont = 0;
 
 	public int size = 0;
+	private final Comparator<? super T> comparator;
+	private final ToLongFunction<? super T> keyOf;
 
 	/**
 	 * An empty constructor for the class that sets the root node to null and is
 	 * an empty tree
 	 */
 	public BinarySearchTree() {
-		root = null;
+		this(null, null);
+	}
+
+	/**
+	 * @param comparator
+	 *            The order to keep the elements in, or null for their natural
+	 *            order
+	 * 
+	 *            Creates an empty tree ordered by comparator
+	 */
+	public BinarySearchTree(Comparator<? super T> comparator) {
+		this(comparator, null);
+	}
+
+	/**
+	 * @param keyOf
+	 *            Maps each element to the long it is ordered by. Elements with
+	 *            the same key count as the same element
+	 * 
+	 *            Creates an empty tree ordered by a primitive key, so lookups
+	 *            compare longs all the way down
+	 */
+	public BinarySearchTree(ToLongFunction<? super T> keyOf) {
+		this(null, keyOf);
+		if (keyOf == null)
+			throw new IllegalArgumentException();
+	}
+
+	private BinarySearchTree(Comparator<? super T> comparator,
+			ToLongFunction<? super T> keyOf) {
+		this.root = null;
+		this.comparator = comparator;
+		this.keyOf = keyOf;
+	}
+
+	/**
+	 * @return The comparator the tree is ordered by, or null if it uses the
+	 *         natural order of its elements
+	 */
+	public Comparator<? super T> comparator() {
+		if (keyOf != null)
+			return Comparator.comparingLong(keyOf);
+		return comparator;
+	}
+
+	/**
+	 * @param a
+	 *            The first element
+	 * @param b
+	 *            The second element
+	 * @return Negative, zero or positive as a is below, equal to or above b
+	 *         in the tree's order
+	 */
+	int compare(T a, T b) {
+		if (keyOf != null)
+			return Long.compare(keyOf.applyAsLong(a), keyOf.applyAsLong(b));
+		if (comparator != null)
+			return comparator.compare(a, b);
+		return a.compareTo(b);
+	}
+
+	/**
+	 * @param o
+	 *            The element to look for
+	 * @return true if the element is in the tree; false otherwise
+	 * 
+	 *         One comparison per level, or one long comparison per level when
+	 *         the tree is ordered by a key
+	 */
+	public boolean contains(T o) {
+		if (o == null)
+			return false;
+		BinaryNode current = root;
+		if (keyOf != null) {
+			long key = keyOf.applyAsLong(o);
+			while (current != null) {
+				long other = keyOf.applyAsLong(current.element);
+				if (key == other)
+					return true;
+				current = (key < other) ? current.leftChild
+						: current.rightChild;
+			}
+			return false;
+		}
+		while (current != null) {
+			int compare = compare(o, current.element);
+			if (compare == 0)
+				return true;
+			current = (compare < 0) ? current.leftChild : current.rightChild;
+		}
+		return false;
 	}
 
 	/**
@@ -101,11 +200,10 @@ public class BinarySearchTree<T extends Comparable<? super T>> implements
 	 * 
 	 *         Converts the tree into a stack which it will then iterate through
 	 */
-	@SuppressWarnings("unchecked")
 	public Iterator<T> preOrderIterator() {
-		Stack<Object> stack = new Stack<Object>();
+		Stack<T> stack = new Stack<T>();
 		if (isEmpty())
-			return (Iterator<T>) stack.iterator();
+			return stack.iterator();
 
 		else {
 			return new PreOrderIterator(root);
@@ -113,20 +211,43 @@ public class BinarySearchTree<T extends Comparable<? super T>> implements
 
 	}
 
-	@SuppressWarnings("unchecked")
 	public Iterator<T> iterator() {
-		Stack<Object> stack = new Stack<Object>();
+		Stack<T> stack = new Stack<T>();
 		if (isEmpty())
-			return (Iterator<T>) stack.iterator();
+			return stack.iterator();
 
 		else {
-			if (!root.Iterator().hasNext()) {
-				throw (new NoSuchElementException());
-			}
 			return new InOrderIterator(root);
 		}
 	}
 
+	/**
+	 * @return A spliterator over the elements in ascending order
+	 * 
+	 *         Splits hand off the part of the tree left of the shallowest
+	 *         pending node, so on a reasonably shaped tree each half gets
+	 *         about half the elements. The size is exact until the first
+	 *         split and an estimate after it, since the nodes keep no counts
+	 */
+	@Override
+	public Spliterator<T> spliterator() {
+		return new InOrderSpliterator(root, null, size, true);
+	}
+
+	/**
+	 * @return A sequential stream of the elements in ascending order
+	 */
+	public Stream<T> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+
+	/**
+	 * @return A parallel stream of the elements in ascending order
+	 */
+	public Stream<T> parallelStream() {
+		return StreamSupport.stream(spliterator(), true);
+	}
+
 	/**
 	 * @author kellymr1
 	 * 
@@ -137,10 +258,6 @@ public class BinarySearchTree<T extends Comparable<? super T>> implements
 		public T element;
 		public BinaryNode leftChild;
 		public BinaryNode rightChild;
-		private int height = 0;
-		private int leftHeight = 0;
-		private int rightHeight = 0;
-		private Stack<Object> stack = new Stack<Object>();
 
 		/**
 		 * @param element
@@ -164,18 +281,8 @@ public class BinarySearchTree<T extends Comparable<? super T>> implements
 		 *         larger height
 		 */
 		public int height() {
-
-			if (this.leftChild == null && this.rightChild == null) {
-				return height;
-			}
-
-			if (leftChild != null) {
-				leftHeight = leftChild.height() + 1;
-			}
-
-			if (rightChild != null) {
-				rightHeight = rightChild.height() + 1;
-			}
+			int leftHeight = leftHeight();
+			int rightHeight = rightHeight();
 
 			if (rightHeight > leftHeight)
 				return rightHeight;
@@ -186,6 +293,22 @@ public class BinarySearchTree<T extends Comparable<? super T>> implements
 			}
 		}
 
+		/**
+		 * @return The height of the left side of this node, counting the
+		 *         edge down to the left child, or 0 if there is none
+		 */
+		private int leftHeight() {
+			return (leftChild == null) ? 0 : leftChild.height() + 1;
+		}
+
+		/**
+		 * @return The height of the right side of this node, counting the
+		 *         edge down to the right child, or 0 if there is none
+		 */
+		private int rightHeight() {
+			return (rightChild == null) ? 0 : rightChild.height() + 1;
+		}
+
 		/**
 		 * @return Returns an array list of the tree in order
 		 * 
@@ -207,25 +330,6 @@ public class BinarySearchTree<T extends Comparable<? super T>> implements
 
 		}
 
-		/**
-		 * @return Returns an iterator
-		 */
-		public Iterator<Object> Iterator() {
-			stack.push(element);
-
-			if (this.rightChild != null) {
-				rightChild.Iterator();
-			}
-
-			if (this.leftChild != null) {
-				leftChild.Iterator();
-			}
-
-			Iterator<Object> it = stack.iterator();
-
-			return it;
-		}
-
 		/**
 		 * @author kellymr1
 		 * @param o The element that will be inserted into the tree
@@ -237,8 +341,9 @@ public class BinarySearchTree<T extends Comparable<? super T>> implements
 		 *         placed; false otherwise.
 		 */
 		public Boolean insert(T o) {
+			int compare = compare(o, element);
 
-			if (o.compareTo(element) > 0) {
+			if (compare > 0) {
 				if (rightChild != null) {
 					return rightChild.insert(o);
 				} else {
@@ -251,7 +356,7 @@ public class BinarySearchTree<T extends Comparable<? super T>> implements
 
 			}
 
-			if (o.compareTo(element) < 0) {
+			if (compare < 0) {
 
 				if (leftChild != null) {
 					return leftChild.insert(o);
@@ -281,12 +386,13 @@ public class BinarySearchTree<T extends Comparable<? super T>> implements
 		 *         true if the specified element is removed; false otherwise.
 		 */
 		public boolean remove(T element, BinaryNode root) {
+			int compare = compare(element, this.element);
 
-			if (element.compareTo(this.element) < 0)
+			if (compare < 0)
 				return (leftChild != null) ? leftChild.remove(element, this)
 						: false; // no ternary with recursion
 
-			else if (element.compareTo(this.element) > 0) {
+			else if (compare > 0) {
 				return (rightChild != null) ? rightChild.remove(element, this)
 						: false;
 			}
@@ -504,6 +610,109 @@ public class BinarySearchTree<T extends Comparable<? super T>> implements
 
 	}
 
+	/**
+	 * In order spliterator. Each node on the stack stands for its own
+	 * element followed by its right subtree, the top of the stack coming
+	 * first. Everything pushed is below hi, so the bound only costs a compare
+	 * while walking down a left spine, and only once a split has set one
+	 */
+	private class InOrderSpliterator implements Spliterator<T> {
+		private final ArrayDeque<BinaryNode> s = new ArrayDeque<BinaryNode>();
+		private final T hi;
+		private long estimate;
+		private boolean exact;
+		private int myMod;
+
+		InOrderSpliterator(BinaryNode top, T hi, long estimate, boolean exact) {
+			this.hi = hi;
+			this.estimate = estimate;
+			this.exact = exact;
+			this.myMod = modCont;
+			pushLeft(top);
+		}
+
+		private void pushLeft(BinaryNode n) {
+			for (; n != null; n = n.leftChild)
+				if (hi == null || compare(n.element, hi) < 0)
+					s.push(n);
+		}
+
+		public boolean tryAdvance(Consumer<? super T> action) {
+			if (action == null)
+				throw new NullPointerException();
+			BinaryNode current = s.poll();
+			if (current == null)
+				return false;
+			pushLeft(current.rightChild);
+			if (estimate > 0)
+				estimate--;
+			action.accept(current.element);
+			if (myMod != modCont)
+				throw new ConcurrentModificationException();
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(Consumer<? super T> action) {
+			if (action == null)
+				throw new NullPointerException();
+			BinaryNode current;
+			while ((current = s.poll()) != null) {
+				pushLeft(current.rightChild);
+				action.accept(current.element);
+			}
+			estimate = 0;
+			if (myMod != modCont)
+				throw new ConcurrentModificationException();
+		}
+
+		/**
+		 * With two or more nodes pending, the prefix takes all but the bottom
+		 * one, which is the shallowest. With one left, the prefix takes that
+		 * node and the part of its right subtree below the subtree's root
+		 */
+		public Spliterator<T> trySplit() {
+			InOrderSpliterator prefix;
+			if (s.size() >= 2) {
+				BinaryNode bottom = s.pollLast();
+				prefix = new InOrderSpliterator(null, null, 0, false);
+				prefix.s.addAll(s);
+				s.clear();
+				s.push(bottom);
+			} else if (s.size() == 1) {
+				BinaryNode r = s.peek().rightChild;
+				while (r != null && hi != null && compare(r.element, hi) >= 0)
+					r = r.leftChild;
+				if (r == null)
+					return null;
+				prefix = new InOrderSpliterator(null, r.element, 0, false);
+				prefix.s.push(s.pop());
+				s.push(r);
+			} else {
+				return null;
+			}
+			prefix.myMod = myMod;
+			prefix.estimate = estimate >>> 1;
+			estimate -= prefix.estimate;
+			exact = false;
+			return prefix;
+		}
+
+		public long estimateSize() {
+			return estimate;
+		}
+
+		public int characteristics() {
+			return ORDERED | SORTED | DISTINCT | NONNULL
+					| (exact ? SIZED : 0);
+		}
+
+		@Override
+		public Comparator<? super T> getComparator() {
+			return comparator();
+		}
+	}
+
 	/**
 	 * @param o The element that you will be inserting into the tree
 	 * @return true if it was inserted; false otherwise. Will throw an exception
@@ -582,9 +791,7 @@ public class BinarySearchTree<T extends Comparable<? super T>> implements
 		
 		if(root.leftChild == null && root.rightChild == null) return true;  // tests if root is only one here
 		
-		root.height();  // sets left and right height variables
-		
-		if(root.leftHeight != root.rightHeight) return false;  // see if heights are equal to eachother
+		if(root.leftHeight() != root.rightHeight()) return false;  // see if heights are equal to eachother
 		
 		if(root.leftChild != null && root.rightChild != null){  // goes through the left and right side
 			
@@ -600,16 +807,80 @@ public class BinarySearchTree<T extends Comparable<? super T>> implements
 		return false;
 	}
 	
-	public void addAll(Collection c){
-		if(c == null || c.isEmpty()){
-			
+	/**
+	 * @param c
+	 *            The elements to add
+	 * @return true if the tree changed; false otherwise
+	 * 
+	 *         Adds every element of c. If the tree is empty and c is already
+	 *         in ascending order the tree is built balanced straight from it
+	 *         in O(n), duplicates dropped, instead of degenerating into a
+	 *         list; otherwise the elements are inserted one at a time
+	 */
+	public boolean addAll(Collection<? extends T> c) {
+		if (c == null)
+			throw new IllegalArgumentException();
+		Object[] a = c.toArray();
+		if (isEmpty()) {
+			int n = sortedDistinct(a);
+			if (n >= 0) {
+				root = build(a, 0, n);
+				size = n;
+				modCont++;
+				return n > 0;
+			}
 		}
-		else{
-			Iterator i = c.iterator();
-			while(i.hasNext()){
-				this.insert((T) c);  // You can't make a collection T because it is not in the lang.  Good try though!  In the exam this was taken from, I believe this was a Comparable type, not T
+		boolean changed = false;
+		for (Object o : a) {
+			@SuppressWarnings("unchecked")
+			T e = (T) o;
+			changed |= insert(e);
+		}
+		return changed;
+	}
+
+	/**
+	 * @param a
+	 *            The elements to check
+	 * @return The number of distinct elements, which are moved to the front
+	 *         of a, if a is in ascending order; -1 otherwise
+	 */
+	@SuppressWarnings("unchecked")
+	private int sortedDistinct(Object[] a) {
+		int n = 0;
+		for (Object o : a) {
+			if (o == null)
+				throw new IllegalArgumentException();
+			if (n > 0) {
+				int compare = compare((T) a[n - 1], (T) o);
+				if (compare > 0)
+					return -1;
+				if (compare == 0)
+					continue;
 			}
+			a[n++] = o;
 		}
+		return n;
+	}
+
+	/**
+	 * @param a
+	 *            The sorted elements
+	 * @param from
+	 *            The first index of the subtree, inclusive
+	 * @param to
+	 *            The last index of the subtree, exclusive
+	 * @return The root of a balanced subtree of a[from..to)
+	 */
+	@SuppressWarnings("unchecked")
+	private BinaryNode build(Object[] a, int from, int to) {
+		if (from == to)
+			return null;
+		int mid = (from + to - 1) >>> 1;
+		BinaryNode node = new BinaryNode((T) a[mid]);
+		node.leftChild = build(a, from, mid);
+		node.rightChild = build(a, mid + 1, to);
+		return node;
 	}
 
 }
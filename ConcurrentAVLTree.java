@@ -0,0 +1,898 @@
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @param <T>
+ *            The elements
+ *
+ *            An AVL tree that many threads can read and write at once.
+ *            Lookups take no locks: every node carries a version that
+ *            changes whenever a rotation moves keys out of its subtree, and
+ *            a descent checks the version of the node it came from before
+ *            trusting the link it followed, retrying from that node if it
+ *            moved. Writers lock only the node they change and its parent;
+ *            rotations lock the parent and the two or three nodes they turn.
+ *
+ *            Balance is relaxed: heights are fixed, and rotations done, on
+ *            the way back up after an update releases its locks, so for a
+ *            moment a subtree can be out of balance and the hpos-style
+ *            heights can be stale. Removing a node with two children only
+ *            marks it absent, leaving it as a routing node that is unlinked
+ *            once it is down to one child. This is the algorithm of Bronson,
+ *            Casper, Chafi and Olukotun, "A Practical Concurrent Binary
+ *            Search Tree" (PPoPP 2010), without its lazy cloning.
+ *
+ *            insert, remove and contains are linearizable. size is exact
+ *            once the writers are done and an estimate while they run;
+ *            iterators are weakly consistent
+ */
+public class ConcurrentAVLTree<T extends Comparable<? super T>> implements
+		Iterable<T> {
+	// version bits: unlinked, shrinking, then a count of finished changes
+	private static final long UNLINKED = 1L;
+	private static final long SHRINKING = 2L;
+
+	// nodeCondition results that are not a new height
+	private static final int UNLINK_REQUIRED = -1;
+	private static final int REBALANCE_REQUIRED = -2;
+	private static final int NOTHING_REQUIRED = -3;
+
+	private static final int SPIN_COUNT = 100;
+
+	private static final Object RETRY = new Object();
+
+	private final Comparator<? super T> comparator;
+	// its right child is the root, so the root can be rotated like any node
+	private final BinaryNode rootHolder = new BinaryNode(null, 1, false, null);
+	// what attemptHigher returns instead of RETRY, so it can stay typed
+	private final BinaryNode retryHigher = new BinaryNode(null, 0, false,
+			null);
+	private final LongAdder size = new LongAdder();
+	private final LongAdder rotateCount = new LongAdder();
+
+	/**
+	 * Creates an empty tree in the elements' natural order
+	 */
+	public ConcurrentAVLTree() {
+		this(null);
+	}
+
+	/**
+	 * @param comparator
+	 *            The order to keep the elements in, or null for their natural
+	 *            order
+	 */
+	public ConcurrentAVLTree(Comparator<? super T> comparator) {
+		this.comparator = comparator;
+	}
+
+	private int compare(T a, T b) {
+		if (comparator != null)
+			return comparator.compare(a, b);
+		return a.compareTo(b);
+	}
+
+	/**
+	 * @return The number of elements. Exact when no write is in progress
+	 */
+	public int size() {
+		return (int) size.sum();
+	}
+
+	/**
+	 * @return True if there are no elements
+	 */
+	public boolean isEmpty() {
+		return size.sum() == 0;
+	}
+
+	/**
+	 * @return The number of rotations done since the tree was made
+	 */
+	public long getRotationCount() {
+		return rotateCount.sum();
+	}
+
+	/**
+	 * @return The height of the tree, which can be off by a little while
+	 *         writers are rebalancing it
+	 */
+	public int height() {
+		return height(rootHolder.rightChild) - 1;
+	}
+
+	/**
+	 * Checks that every stored height is right, every node is in balance,
+	 * the elements are in order and every routing node has two children.
+	 * Only meaningful once no writer is running
+	 *
+	 * @throws IllegalStateException
+	 *             naming the first node that is wrong
+	 */
+	void check() {
+		check(rootHolder.rightChild, rootHolder, null, null);
+	}
+
+	private int check(BinaryNode n, BinaryNode parent, T lo, T hi) {
+		if (n == null)
+			return 0;
+		if (n.parent != parent)
+			throw new IllegalStateException("parent of " + n.element);
+		if ((lo != null && compare(n.element, lo) <= 0)
+				|| (hi != null && compare(n.element, hi) >= 0))
+			throw new IllegalStateException("order at " + n.element);
+		int hL = check(n.leftChild, n, lo, n.element);
+		int hR = check(n.rightChild, n, n.element, hi);
+		if (n.hpos != 1 + Math.max(hL, hR))
+			throw new IllegalStateException("height at " + n.element + " "
+					+ n.hpos + " vs " + (1 + Math.max(hL, hR)));
+		if (hL - hR < -1 || hL - hR > 1)
+			throw new IllegalStateException("balance at " + n.element);
+		if (!n.present && (n.leftChild == null || n.rightChild == null))
+			throw new IllegalStateException("routing node " + n.element
+					+ " not unlinked");
+		return n.hpos;
+	}
+
+	/**
+	 * @param o
+	 *            The element to look for
+	 * @return True if the tree holds o
+	 *
+	 *         Takes no locks; only retries the levels whose version changed
+	 *         under it
+	 */
+	public boolean contains(T o) {
+		if (o == null)
+			return false;
+		return attemptGet(o, rootHolder, 1, 0) == Boolean.TRUE;
+	}
+
+	/**
+	 * @param i
+	 *            The element to add
+	 * @return True if it was added, false if it was already there
+	 */
+	public boolean insert(T i) {
+		if (i == null)
+			throw new IllegalArgumentException();
+		if (!update(i, true))
+			return false;
+		size.increment();
+		return true;
+	}
+
+	/**
+	 * @param i
+	 *            The element to take out
+	 * @return True if it was there
+	 */
+	public boolean remove(T i) {
+		if (i == null)
+			return false;
+		if (!update(i, false))
+			return false;
+		size.decrement();
+		return true;
+	}
+
+	/**
+	 * @return The elements in order. The iterator never throws a
+	 *         ConcurrentModificationException: each step looks up the next
+	 *         element above the last one it returned, so it sees every
+	 *         element that is there for the whole walk, none that were gone
+	 *         before it started, and some of the ones written meanwhile
+	 */
+	public Iterator<T> iterator() {
+		return new Iterator<T>() {
+			private BinaryNode next = higher(null);
+
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			public T next() {
+				if (next == null)
+					throw new NoSuchElementException();
+				T e = next.element;
+				next = higher(e);
+				return e;
+			}
+		};
+	}
+
+	/**
+	 * @return The node of the smallest present element above o, or the
+	 *         smallest present element for null, or null if there is none
+	 */
+	private BinaryNode higher(T o) {
+		while (true) {
+			BinaryNode n = attemptHigher(o, rootHolder, 1, 0);
+			if (n == retryHigher)
+				continue;
+			if (n == null)
+				return null;
+			if (n.present)
+				return n;
+			// a routing node: carry on from its key
+			o = n.element;
+		}
+	}
+
+	private static boolean isShrinkingOrUnlinked(long ovl) {
+		return (ovl & (UNLINKED | SHRINKING)) != 0;
+	}
+
+	private static boolean isUnlinked(long ovl) {
+		return (ovl & UNLINKED) != 0;
+	}
+
+	private static long beginChange(long ovl) {
+		return ovl | SHRINKING;
+	}
+
+	/*
+	 * clears both flag bits and counts one more change
+	 */
+	private static long endChange(long ovl) {
+		return (ovl | UNLINKED | SHRINKING) + 1;
+	}
+
+	private int height(BinaryNode n) {
+		return (n == null) ? 0 : n.hpos;
+	}
+
+	/**
+	 * Waits for the rotation that is shrinking n to finish. Rotations hold
+	 * n's lock, so after a short spin taking the lock is enough
+	 */
+	private void waitUntilChangeCompleted(BinaryNode n, long ovl) {
+		if ((ovl & SHRINKING) == 0)
+			return;
+		for (int i = 0; i < SPIN_COUNT; i++) {
+			if (n.changeOVL != ovl)
+				return;
+		}
+		synchronized (n) {
+			// nothing: the lock was only taken to wait for the rotation
+		}
+	}
+
+	/**
+	 * @param o
+	 *            The element to look for
+	 * @param node
+	 *            A node whose version was nodeOVL when the caller got here
+	 * @param dir
+	 *            Which child of node to search, negative for the left
+	 * @param nodeOVL
+	 *            node's version
+	 * @return Boolean.TRUE or FALSE, or RETRY if node changed and the caller
+	 *         has to look again
+	 */
+	private Object attemptGet(T o, BinaryNode node, int dir, long nodeOVL) {
+		while (true) {
+			BinaryNode child = node.child(dir);
+			if (child == null) {
+				if (node.changeOVL != nodeOVL)
+					return RETRY;
+				return Boolean.FALSE;
+			}
+			int compare = compare(o, child.element);
+			if (compare == 0)
+				return child.present ? Boolean.TRUE : Boolean.FALSE;
+
+			long childOVL = child.changeOVL;
+			if (isShrinkingOrUnlinked(childOVL)) {
+				waitUntilChangeCompleted(child, childOVL);
+				if (node.changeOVL != nodeOVL)
+					return RETRY;
+			} else if (child != node.child(dir)) {
+				if (node.changeOVL != nodeOVL)
+					return RETRY;
+			} else {
+				if (node.changeOVL != nodeOVL)
+					return RETRY;
+				Object r = attemptGet(o, child, compare, childOVL);
+				if (r != RETRY)
+					return r;
+			}
+		}
+	}
+
+	/**
+	 * The same hand-over-hand descent as attemptGet, looking for the node
+	 * with the smallest element above o, absent or not
+	 *
+	 * @return The node, null if there is none, or retryHigher
+	 */
+	private BinaryNode attemptHigher(T o, BinaryNode node, int dir,
+			long nodeOVL) {
+		while (true) {
+			BinaryNode child = node.child(dir);
+			if (child == null) {
+				if (node.changeOVL != nodeOVL)
+					return retryHigher;
+				return null;
+			}
+			long childOVL = child.changeOVL;
+			if (isShrinkingOrUnlinked(childOVL)) {
+				waitUntilChangeCompleted(child, childOVL);
+				if (node.changeOVL != nodeOVL)
+					return retryHigher;
+			} else if (child != node.child(dir)) {
+				if (node.changeOVL != nodeOVL)
+					return retryHigher;
+			} else {
+				if (node.changeOVL != nodeOVL)
+					return retryHigher;
+				boolean above = o == null || compare(o, child.element) < 0;
+				BinaryNode r = attemptHigher(o, child, above ? -1 : 1,
+						childOVL);
+				if (r != retryHigher)
+					return (r == null && above) ? child : r;
+			}
+		}
+	}
+
+	/**
+	 * @param o
+	 *            The element to add or take out
+	 * @param present
+	 *            True to add it, false to take it out
+	 * @return True if the tree changed
+	 */
+	private boolean update(T o, boolean present) {
+		while (true) {
+			BinaryNode root = rootHolder.rightChild;
+			if (root == null) {
+				if (!present)
+					return false;
+				if (attemptInsertIntoEmpty(o))
+					return true;
+			} else {
+				long ovl = root.changeOVL;
+				if (isShrinkingOrUnlinked(ovl)) {
+					waitUntilChangeCompleted(root, ovl);
+				} else if (root == rootHolder.rightChild) {
+					Object r = attemptUpdate(o, present, rootHolder, root,
+							ovl);
+					if (r != RETRY)
+						return r == Boolean.TRUE;
+				}
+			}
+		}
+	}
+
+	private boolean attemptInsertIntoEmpty(T o) {
+		synchronized (rootHolder) {
+			if (rootHolder.rightChild != null)
+				return false;
+			rootHolder.rightChild = new BinaryNode(o, 1, true, rootHolder);
+			rootHolder.hpos = 2;
+			return true;
+		}
+	}
+
+	/**
+	 * @param o
+	 *            The element to add or take out
+	 * @param present
+	 *            True to add it
+	 * @param parent
+	 *            node's parent
+	 * @param node
+	 *            A node whose version was nodeOVL when the caller got here
+	 * @param nodeOVL
+	 *            node's version
+	 * @return Boolean.TRUE if the tree changed, FALSE if not, or RETRY
+	 */
+	private Object attemptUpdate(T o, boolean present, BinaryNode parent,
+			BinaryNode node, long nodeOVL) {
+		int compare = compare(o, node.element);
+		if (compare == 0)
+			return attemptNodeUpdate(present, parent, node);
+
+		while (true) {
+			BinaryNode child = node.child(compare);
+			if (node.changeOVL != nodeOVL)
+				return RETRY;
+
+			if (child == null) {
+				if (!present)
+					return Boolean.FALSE;
+				BinaryNode damaged;
+				synchronized (node) {
+					if (node.changeOVL != nodeOVL)
+						return RETRY;
+					if (node.child(compare) != null) {
+						// someone else got there first: look again
+						continue;
+					}
+					node.setChild(compare, new BinaryNode(o, 1, true, node));
+					damaged = fixHeight(node);
+				}
+				fixHeightAndRebalance(damaged);
+				return Boolean.TRUE;
+			}
+
+			long childOVL = child.changeOVL;
+			if (isShrinkingOrUnlinked(childOVL)) {
+				waitUntilChangeCompleted(child, childOVL);
+			} else if (child != node.child(compare)) {
+				// the link moved, read it again
+			} else {
+				if (node.changeOVL != nodeOVL)
+					return RETRY;
+				Object r = attemptUpdate(o, present, node, child, childOVL);
+				if (r != RETRY)
+					return r;
+			}
+		}
+	}
+
+	/**
+	 * Adds or takes out the element of node itself. Adding just marks it
+	 * present. Taking out a node with two children only marks it absent;
+	 * one with fewer is unlinked under its parent's and its own lock
+	 */
+	private Object attemptNodeUpdate(boolean present, BinaryNode parent,
+			BinaryNode node) {
+		if (!present) {
+			if (!node.present)
+				return Boolean.FALSE;
+			if (node.leftChild == null || node.rightChild == null) {
+				BinaryNode damaged;
+				synchronized (parent) {
+					if (isUnlinked(parent.changeOVL) || node.parent != parent)
+						return RETRY;
+					synchronized (node) {
+						if (!node.present)
+							return Boolean.FALSE;
+						if (!attemptUnlink(parent, node))
+							return RETRY;
+					}
+					damaged = fixHeight(parent);
+				}
+				fixHeightAndRebalance(damaged);
+				return Boolean.TRUE;
+			}
+		}
+		synchronized (node) {
+			if (isUnlinked(node.changeOVL))
+				return RETRY;
+			if (!present
+					&& (node.leftChild == null || node.rightChild == null))
+				return RETRY;
+			boolean was = node.present;
+			node.present = present;
+			return (was != present) ? Boolean.TRUE : Boolean.FALSE;
+		}
+	}
+
+	/**
+	 * Splices node, which has at most one child, out from under parent.
+	 * Both must be locked
+	 *
+	 * @return False if node has moved or grown a second child
+	 */
+	private boolean attemptUnlink(BinaryNode parent, BinaryNode node) {
+		BinaryNode parentL = parent.leftChild;
+		BinaryNode parentR = parent.rightChild;
+		if (parentL != node && parentR != node)
+			return false;
+		BinaryNode left = node.leftChild;
+		BinaryNode right = node.rightChild;
+		if (left != null && right != null)
+			return false;
+		BinaryNode splice = (left != null) ? left : right;
+		if (parentL == node)
+			parent.leftChild = splice;
+		else
+			parent.rightChild = splice;
+		if (splice != null)
+			splice.parent = parent;
+		node.changeOVL = UNLINKED;
+		node.present = false;
+		return true;
+	}
+
+	/**
+	 * @return What node needs: UNLINK_REQUIRED, REBALANCE_REQUIRED,
+	 *         NOTHING_REQUIRED or the height it should have
+	 */
+	private int nodeCondition(BinaryNode node) {
+		BinaryNode nL = node.leftChild;
+		BinaryNode nR = node.rightChild;
+		if ((nL == null || nR == null) && !node.present)
+			return UNLINK_REQUIRED;
+		int hN = node.hpos;
+		int hL0 = height(nL);
+		int hR0 = height(nR);
+		int hNRepl = 1 + Math.max(hL0, hR0);
+		int bal = hL0 - hR0;
+		if (bal < -1 || bal > 1)
+			return REBALANCE_REQUIRED;
+		return (hN != hNRepl) ? hNRepl : NOTHING_REQUIRED;
+	}
+
+	/**
+	 * Fixes node's height, node being locked
+	 *
+	 * @return The next node that may need work, or null
+	 */
+	private BinaryNode fixHeight(BinaryNode node) {
+		int c = nodeCondition(node);
+		switch (c) {
+		case REBALANCE_REQUIRED:
+		case UNLINK_REQUIRED:
+			return node;
+		case NOTHING_REQUIRED:
+			return null;
+		default:
+			node.hpos = c;
+			return node.parent;
+		}
+	}
+
+	/**
+	 * Walks up from node fixing heights, unlinking routing nodes and
+	 * rotating until a node needs nothing. Holds at most the locks of one
+	 * parent and the nodes under it that a rotation turns.
+	 *
+	 * A rotation that leaves work below it goes there first; its parent,
+	 * whose height may still be stale, is kept and looked at again once
+	 * the walk from below stops short of it.
+	 *
+	 * No height is lost between threads: every height is stored under its
+	 * node's lock, a walk only stops under the lock of the node it stops
+	 * at, and whoever moves a subtree under a new parent reads its height
+	 * after linking it, while whoever changes that height reads its parent
+	 * afterwards, so one of the two always sees the other. Once the writers
+	 * stop, the tree is a strict AVL tree again
+	 */
+	private void fixHeightAndRebalance(BinaryNode node) {
+		ArrayDeque<BinaryNode> pending = null;
+		while (true) {
+			if (node == null || node.parent == null
+					|| isUnlinked(node.changeOVL)) {
+				if (pending == null || pending.isEmpty())
+					return;
+				node = pending.pop();
+				continue;
+			}
+			int c = nodeCondition(node);
+			if (c != UNLINK_REQUIRED && c != REBALANCE_REQUIRED) {
+				// even when nothing seems needed: a thread holding the lock
+				// may be about to store a height worked out before ours
+				synchronized (node) {
+					node = isUnlinked(node.changeOVL) ? null : fixHeight(node);
+				}
+			} else {
+				BinaryNode nParent = node.parent;
+				synchronized (nParent) {
+					if (!isUnlinked(nParent.changeOVL)
+							&& node.parent == nParent) {
+						synchronized (node) {
+							node = rebalance(nParent, node);
+						}
+						if (node != null && node != nParent
+								&& node != nParent.parent) {
+							if (pending == null)
+								pending = new ArrayDeque<BinaryNode>();
+							pending.push(nParent);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * The adjust() of this tree: nParent and n are locked
+	 *
+	 * @return The next node that may need work, or null
+	 */
+	private BinaryNode rebalance(BinaryNode nParent, BinaryNode n) {
+		BinaryNode nL = n.leftChild;
+		BinaryNode nR = n.rightChild;
+		if ((nL == null || nR == null) && !n.present) {
+			if (attemptUnlink(nParent, n))
+				return fixHeight(nParent);
+			return n;
+		}
+		int hN = n.hpos;
+		int hL0 = height(nL);
+		int hR0 = height(nR);
+		int hNRepl = 1 + Math.max(hL0, hR0);
+		int bal = hL0 - hR0;
+		if (bal > 1)
+			return rebalanceToRight(nParent, n, nL, hR0);
+		if (bal < -1)
+			return rebalanceToLeft(nParent, n, nR, hL0);
+		if (hNRepl != hN) {
+			n.hpos = hNRepl;
+			return fixHeight(nParent);
+		}
+		return null;
+	}
+
+	private BinaryNode rebalanceToRight(BinaryNode nParent, BinaryNode n,
+			BinaryNode nL, int hR0) {
+		synchronized (nL) {
+			int hL = nL.hpos;
+			if (hL - hR0 <= 1)
+				return n;
+			BinaryNode nLR = nL.rightChild;
+			int hLL0 = height(nL.leftChild);
+			int hLR0 = height(nLR);
+			if (hLL0 >= hLR0)
+				return rotateRight(nParent, n, nL, hR0, hLL0, nLR, hLR0);
+			synchronized (nLR) {
+				int hLR = nLR.hpos;
+				if (hLL0 >= hLR)
+					return rotateRight(nParent, n, nL, hR0, hLL0, nLR, hLR);
+				int hLRL = height(nLR.leftChild);
+				int b = hLL0 - hLRL;
+				if (b >= -1 && b <= 1)
+					return rotateRightOverLeft(nParent, n, nL, hR0, hLL0,
+							nLR, hLRL);
+			}
+			// nL would be out of balance after the double rotation, so
+			// fix it on its own first
+			return rebalanceToLeft(n, nL, nLR, hLL0);
+		}
+	}
+
+	private BinaryNode rebalanceToLeft(BinaryNode nParent, BinaryNode n,
+			BinaryNode nR, int hL0) {
+		synchronized (nR) {
+			int hR = nR.hpos;
+			if (hL0 - hR >= -1)
+				return n;
+			BinaryNode nRL = nR.leftChild;
+			int hRL0 = height(nRL);
+			int hRR0 = height(nR.rightChild);
+			if (hRR0 >= hRL0)
+				return rotateLeft(nParent, n, hL0, nR, nRL, hRL0, hRR0);
+			synchronized (nRL) {
+				int hRL = nRL.hpos;
+				if (hRR0 >= hRL)
+					return rotateLeft(nParent, n, hL0, nR, nRL, hRL, hRR0);
+				int hRLR = height(nRL.rightChild);
+				int b = hRR0 - hRLR;
+				if (b >= -1 && b <= 1)
+					return rotateLeftOverRight(nParent, n, hL0, nR, nRL,
+							hRR0, hRLR);
+			}
+			return rebalanceToRight(n, nR, nRL, hRR0);
+		}
+	}
+
+	/**
+	 * Turns nL up over n. n loses nL's left subtree, so it is marked
+	 * shrinking for the length of the change
+	 */
+	private BinaryNode rotateRight(BinaryNode nParent, BinaryNode n,
+			BinaryNode nL, int hR, int hLL, BinaryNode nLR, int hLR) {
+		rotateCount.increment();
+		long nodeOVL = n.changeOVL;
+		BinaryNode nPL = nParent.leftChild;
+		n.changeOVL = beginChange(nodeOVL);
+
+		n.leftChild = nLR;
+		if (nLR != null)
+			nLR.parent = n;
+		nL.rightChild = n;
+		n.parent = nL;
+		if (nPL == n)
+			nParent.leftChild = nL;
+		else
+			nParent.rightChild = nL;
+		nL.parent = nParent;
+
+		// nLR has just moved under n; see fixHeightAndRebalance
+		hLR = height(nLR);
+		int hNRepl = 1 + Math.max(hLR, hR);
+		n.hpos = hNRepl;
+		nL.hpos = 1 + Math.max(hLL, hNRepl);
+		n.changeOVL = endChange(nodeOVL);
+
+		int balN = hLR - hR;
+		if (balN < -1 || balN > 1)
+			return n;
+		if ((nLR == null || hR == 0) && !n.present)
+			return n;
+		int balL = hLL - hNRepl;
+		if (balL < -1 || balL > 1)
+			return nL;
+		if (hLL == 0 && !nL.present)
+			return nL;
+		return fixHeight(nParent);
+	}
+
+	private BinaryNode rotateLeft(BinaryNode nParent, BinaryNode n, int hL,
+			BinaryNode nR, BinaryNode nRL, int hRL, int hRR) {
+		rotateCount.increment();
+		long nodeOVL = n.changeOVL;
+		BinaryNode nPL = nParent.leftChild;
+		n.changeOVL = beginChange(nodeOVL);
+
+		n.rightChild = nRL;
+		if (nRL != null)
+			nRL.parent = n;
+		nR.leftChild = n;
+		n.parent = nR;
+		if (nPL == n)
+			nParent.leftChild = nR;
+		else
+			nParent.rightChild = nR;
+		nR.parent = nParent;
+
+		hRL = height(nRL);
+		int hNRepl = 1 + Math.max(hL, hRL);
+		n.hpos = hNRepl;
+		nR.hpos = 1 + Math.max(hNRepl, hRR);
+		n.changeOVL = endChange(nodeOVL);
+
+		int balN = hRL - hL;
+		if (balN < -1 || balN > 1)
+			return n;
+		if ((nRL == null || hL == 0) && !n.present)
+			return n;
+		int balR = hRR - hNRepl;
+		if (balR < -1 || balR > 1)
+			return nR;
+		if (hRR == 0 && !nR.present)
+			return nR;
+		return fixHeight(nParent);
+	}
+
+	/**
+	 * Turns nLR up over both nL and n, which both lose keys to it
+	 */
+	private BinaryNode rotateRightOverLeft(BinaryNode nParent, BinaryNode n,
+			BinaryNode nL, int hR, int hLL, BinaryNode nLR, int hLRL) {
+		rotateCount.increment();
+		long nodeOVL = n.changeOVL;
+		long leftOVL = nL.changeOVL;
+		BinaryNode nPL = nParent.leftChild;
+		BinaryNode nLRL = nLR.leftChild;
+		BinaryNode nLRR = nLR.rightChild;
+
+		n.changeOVL = beginChange(nodeOVL);
+		nL.changeOVL = beginChange(leftOVL);
+
+		n.leftChild = nLRR;
+		if (nLRR != null)
+			nLRR.parent = n;
+		nL.rightChild = nLRL;
+		if (nLRL != null)
+			nLRL.parent = nL;
+		nLR.leftChild = nL;
+		nL.parent = nLR;
+		nLR.rightChild = n;
+		n.parent = nLR;
+		if (nPL == n)
+			nParent.leftChild = nLR;
+		else
+			nParent.rightChild = nLR;
+		nLR.parent = nParent;
+
+		// nLRL and nLRR have just moved; see fixHeightAndRebalance
+		int hLRR = height(nLRR);
+		hLRL = height(nLRL);
+		int hNRepl = 1 + Math.max(hLRR, hR);
+		n.hpos = hNRepl;
+		int hLRepl = 1 + Math.max(hLL, hLRL);
+		nL.hpos = hLRepl;
+		nLR.hpos = 1 + Math.max(hLRepl, hNRepl);
+
+		n.changeOVL = endChange(nodeOVL);
+		nL.changeOVL = endChange(leftOVL);
+
+		int balN = hLRR - hR;
+		if (balN < -1 || balN > 1)
+			return n;
+		if ((nLRR == null || hR == 0) && !n.present)
+			return n;
+		int balLR = hLRepl - hNRepl;
+		if (balLR < -1 || balLR > 1)
+			return nLR;
+		// an absent nL left with one child goes next
+		if ((hLL == 0 || hLRL == 0) && !nL.present)
+			return nL;
+		return fixHeight(nParent);
+	}
+
+	private BinaryNode rotateLeftOverRight(BinaryNode nParent, BinaryNode n,
+			int hL, BinaryNode nR, BinaryNode nRL, int hRR, int hRLR) {
+		rotateCount.increment();
+		long nodeOVL = n.changeOVL;
+		long rightOVL = nR.changeOVL;
+		BinaryNode nPL = nParent.leftChild;
+		BinaryNode nRLL = nRL.leftChild;
+		BinaryNode nRLR = nRL.rightChild;
+
+		n.changeOVL = beginChange(nodeOVL);
+		nR.changeOVL = beginChange(rightOVL);
+
+		n.rightChild = nRLL;
+		if (nRLL != null)
+			nRLL.parent = n;
+		nR.leftChild = nRLR;
+		if (nRLR != null)
+			nRLR.parent = nR;
+		nRL.rightChild = nR;
+		nR.parent = nRL;
+		nRL.leftChild = n;
+		n.parent = nRL;
+		if (nPL == n)
+			nParent.leftChild = nRL;
+		else
+			nParent.rightChild = nRL;
+		nRL.parent = nParent;
+
+		int hRLL = height(nRLL);
+		hRLR = height(nRLR);
+		int hNRepl = 1 + Math.max(hL, hRLL);
+		n.hpos = hNRepl;
+		int hRRepl = 1 + Math.max(hRLR, hRR);
+		nR.hpos = hRRepl;
+		nRL.hpos = 1 + Math.max(hNRepl, hRRepl);
+
+		n.changeOVL = endChange(nodeOVL);
+		nR.changeOVL = endChange(rightOVL);
+
+		int balN = hRLL - hL;
+		if (balN < -1 || balN > 1)
+			return n;
+		if ((nRLL == null || hL == 0) && !n.present)
+			return n;
+		int balRL = hRRepl - hNRepl;
+		if (balRL < -1 || balRL > 1)
+			return nRL;
+		if ((hRR == 0 || hRLR == 0) && !nR.present)
+			return nR;
+		return fixHeight(nParent);
+	}
+
+	/**
+	 * A node of the tree. Every field that another thread can read without
+	 * a lock is volatile; changes to them are made under the node's lock
+	 */
+	class BinaryNode {
+		final T element;
+		volatile int hpos;
+		volatile boolean present;
+		volatile BinaryNode parent;
+		volatile long changeOVL;
+		volatile BinaryNode leftChild;
+		volatile BinaryNode rightChild;
+
+		BinaryNode(T element, int hpos, boolean present, BinaryNode parent) {
+			this.element = element;
+			this.hpos = hpos;
+			this.present = present;
+			this.parent = parent;
+		}
+
+		/**
+		 * @param dir
+		 *            Negative for the left child, otherwise the right
+		 */
+		BinaryNode child(int dir) {
+			return (dir < 0) ? leftChild : rightChild;
+		}
+
+		void setChild(int dir, BinaryNode n) {
+			if (dir < 0)
+				leftChild = n;
+			else
+				rightChild = n;
+		}
+	}
+}
@@ -0,0 +1,391 @@
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+import redblacktree.RedBlackTree;
+import redblacktree.ShardedRedBlackTree;
+import redblacktree.SnapshotRedBlackTree;
+import redblacktree.StampedRedBlackTree;
+
+/**
+ * Benchmark harness for the trees that several threads can use at once,
+ * against java.util.concurrent.ConcurrentSkipListSet and a plain AVLTree
+ * behind one lock.
+ *
+ * Every run fills the set with half of the key range, then starts the
+ * threads together and lets each one pick random keys for a fixed time:
+ * the given percentage of operations are lookups and the rest are split
+ * evenly between inserts and removes, so the size stays about the same.
+ * Each row reports the total operations per second over all threads.
+ *
+ * Usage: java ConcurrentBenchmark [-engines avl-concurrent,skiplist,
+ * rb-snapshot,rb-stamped,rb-sharded,avl-locked,rb-locked]
+ * [-threads 1,2,4,8,16,32,64] [-reads 50,90,99] [-range 1000000]
+ * [-seconds 2] [-repeats n] [-shards 16] [-stats]
+ *
+ * rb-sharded starts with its shards splitting the key range evenly; -stats
+ * prints each shard's size, operations and lock waits after its rows.
+ *
+ * Thread counts above the number of cores measure how the engines behave
+ * when threads are descheduled while holding a lock or mid-update.
+ */
+public class ConcurrentBenchmark {
+	/**
+	 * Common view of the engines so the workers can be written once. Every
+	 * method may be called from any number of threads at once
+	 */
+	interface Engine {
+		String name();
+
+		boolean insert(Integer i);
+
+		boolean lookup(Integer i);
+
+		boolean remove(Integer i);
+
+		/**
+		 * @return Anything the engine counted during the run, or null
+		 */
+		default String report() {
+			return null;
+		}
+
+		/**
+		 * Checks the engine's structure once all workers have stopped
+		 *
+		 * @throws IllegalStateException
+		 *             if it is broken
+		 */
+		default void check() {
+		}
+	}
+
+	static int shards = 16;
+
+	static Engine create(String name, int range) {
+		switch (name) {
+		case "avl-concurrent":
+			return new Engine() {
+				ConcurrentAVLTree<Integer> tree = new ConcurrentAVLTree<Integer>();
+
+				public String name() {
+					return "ConcurrentAVLTree";
+				}
+
+				public boolean insert(Integer i) {
+					return tree.insert(i);
+				}
+
+				public boolean lookup(Integer i) {
+					return tree.contains(i);
+				}
+
+				public boolean remove(Integer i) {
+					return tree.remove(i);
+				}
+
+				public void check() {
+					tree.check();
+				}
+			};
+		case "skiplist":
+			return new Engine() {
+				ConcurrentSkipListSet<Integer> set = new ConcurrentSkipListSet<Integer>();
+
+				public String name() {
+					return "ConcurrentSkipList";
+				}
+
+				public boolean insert(Integer i) {
+					return set.add(i);
+				}
+
+				public boolean lookup(Integer i) {
+					return set.contains(i);
+				}
+
+				public boolean remove(Integer i) {
+					return set.remove(i);
+				}
+			};
+		case "rb-snapshot":
+			return new Engine() {
+				SnapshotRedBlackTree<Integer> tree = new SnapshotRedBlackTree<Integer>();
+
+				public String name() {
+					return "SnapshotRBTree";
+				}
+
+				public boolean insert(Integer i) {
+					return tree.insert(i);
+				}
+
+				public boolean lookup(Integer i) {
+					return tree.contains(i);
+				}
+
+				public boolean remove(Integer i) {
+					return tree.remove(i);
+				}
+			};
+		case "rb-stamped":
+			return new Engine() {
+				StampedRedBlackTree<Integer> tree = new StampedRedBlackTree<Integer>();
+
+				public String name() {
+					return "StampedRBTree";
+				}
+
+				public boolean insert(Integer i) {
+					return tree.insert(i);
+				}
+
+				public boolean lookup(Integer i) {
+					return tree.contains(i);
+				}
+
+				public boolean remove(Integer i) {
+					return tree.remove(i);
+				}
+			};
+		case "rb-sharded":
+			Integer[] splits = new Integer[shards - 1];
+			for (int i = 1; i < shards; i++)
+				splits[i - 1] = (int) ((long) range * i / shards);
+			return new Engine() {
+				ShardedRedBlackTree<Integer> tree = new ShardedRedBlackTree<Integer>(
+						splits);
+
+				public String name() {
+					return "ShardedRBTree";
+				}
+
+				public boolean insert(Integer i) {
+					return tree.insert(i);
+				}
+
+				public boolean lookup(Integer i) {
+					return tree.contains(i);
+				}
+
+				public boolean remove(Integer i) {
+					return tree.remove(i);
+				}
+
+				public String report() {
+					StringBuilder sb = new StringBuilder();
+					sb.append(tree.moves()).append(" moves\n");
+					for (Object s : tree.stats())
+						sb.append("  ").append(s).append('\n');
+					return sb.toString();
+				}
+			};
+		case "rb-locked":
+			return new Engine() {
+				RedBlackTree<Integer> tree = new RedBlackTree<Integer>();
+
+				public String name() {
+					return "RBTree+lock";
+				}
+
+				public synchronized boolean insert(Integer i) {
+					return tree.insert(i);
+				}
+
+				public synchronized boolean lookup(Integer i) {
+					return tree.contains(i);
+				}
+
+				public synchronized boolean remove(Integer i) {
+					return tree.remove(i);
+				}
+			};
+		case "avl-locked":
+			return new Engine() {
+				AVLTree<Integer> tree = new AVLTree<Integer>();
+
+				public String name() {
+					return "AVLTree+lock";
+				}
+
+				public synchronized boolean insert(Integer i) {
+					return tree.insert(i);
+				}
+
+				public synchronized boolean lookup(Integer i) {
+					return tree.contains(i);
+				}
+
+				public synchronized boolean remove(Integer i) {
+					return tree.remove(i);
+				}
+			};
+		default:
+			throw new IllegalArgumentException("unknown engine " + name);
+		}
+	}
+
+	/**
+	 * The result of one timed run
+	 */
+	static class Result {
+		String engine;
+		int threads;
+		int readPercent;
+		int range;
+		double opsPerSecond;
+		String report;
+
+		public String toString() {
+			return String.format("%-20s %7d %6d%% %9d %14.1f", engine,
+					threads, readPercent, range, opsPerSecond);
+		}
+	}
+
+	static volatile boolean stop;
+	static volatile long sink;
+
+	/**
+	 * @return The result of running threads workers against a freshly
+	 *         filled engine for the given number of milliseconds
+	 */
+	static Result run(String engineName, int threads, int readPercent,
+			Integer[] keys, long millis) throws InterruptedException {
+		final Engine engine = create(engineName, keys.length);
+		// a partial shuffle picks exactly half of the keys, each once, and
+		// inserts them in random order
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		Integer[] order = keys.clone();
+		for (int i = 0; i < order.length / 2; i++) {
+			int j = i + random.nextInt(order.length - i);
+			Integer t = order[j];
+			order[j] = order[i];
+			order[i] = t;
+			engine.insert(t);
+		}
+
+		final long[] counts = new long[threads];
+		final long[] hits = new long[threads];
+		final CountDownLatch ready = new CountDownLatch(threads);
+		final CountDownLatch go = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+		stop = false;
+		for (int t = 0; t < threads; t++) {
+			final int id = t;
+			workers[t] = new Thread(() -> {
+				ThreadLocalRandom r = ThreadLocalRandom.current();
+				long ops = 0;
+				long found = 0;
+				ready.countDown();
+				try {
+					go.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				while (!stop) {
+					Integer k = keys[r.nextInt(keys.length)];
+					int dice = r.nextInt(100);
+					if (dice < readPercent) {
+						if (engine.lookup(k))
+							found++;
+					} else if ((dice & 1) == 0) {
+						engine.insert(k);
+					} else {
+						engine.remove(k);
+					}
+					ops++;
+				}
+				counts[id] = ops;
+				hits[id] = found;
+			});
+			workers[t].start();
+		}
+		ready.await();
+		long start = System.nanoTime();
+		go.countDown();
+		Thread.sleep(millis);
+		stop = true;
+		for (Thread w : workers)
+			w.join();
+		long nanos = System.nanoTime() - start;
+		engine.check();
+
+		long total = 0, totalHits = 0;
+		for (int t = 0; t < threads; t++) {
+			total += counts[t];
+			totalHits += hits[t];
+		}
+		sink = totalHits;
+		Result r = new Result();
+		r.engine = engine.name();
+		r.threads = threads;
+		r.readPercent = readPercent;
+		r.range = keys.length;
+		r.opsPerSecond = total * 1e9 / nanos;
+		r.report = engine.report();
+		return r;
+	}
+
+	private static int[] ints(String list) {
+		String[] parts = list.split(",");
+		int[] a = new int[parts.length];
+		for (int i = 0; i < parts.length; i++)
+			a[i] = Integer.parseInt(parts[i]);
+		return a;
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		String[] engines = { "avl-concurrent", "skiplist", "rb-snapshot",
+				"rb-stamped", "rb-sharded", "avl-locked", "rb-locked" };
+		int[] threads = { 1, 2, 4, 8, 16, 32, 64 };
+		int[] reads = { 50, 90, 99 };
+		int range = 1000000;
+		long millis = 2000;
+		int repeats = 1;
+		boolean stats = false;
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-engines")) {
+				engines = args[++i].split(",");
+			} else if (args[i].equals("-threads")) {
+				threads = ints(args[++i]);
+			} else if (args[i].equals("-reads")) {
+				reads = ints(args[++i]);
+			} else if (args[i].equals("-range")) {
+				range = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-seconds")) {
+				millis = (long) (Double.parseDouble(args[++i]) * 1000);
+			} else if (args[i].equals("-repeats")) {
+				repeats = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-shards")) {
+				shards = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-stats")) {
+				stats = true;
+			} else {
+				throw new IllegalArgumentException("unknown option "
+						+ args[i]);
+			}
+		}
+
+		// boxed once, so the workers measure the trees and not the allocator
+		Integer[] keys = new Integer[range];
+		for (int i = 0; i < range; i++)
+			keys[i] = i;
+
+		System.out.println(String.format("%-20s %7s %7s %9s %14s", "engine",
+				"threads", "reads", "range", "ops/s"));
+		for (int readPercent : reads) {
+			for (String engine : engines) {
+				for (int t : threads) {
+					// warm up in the same JVM, then report the last repeat
+					Result r = null;
+					for (int f = 0; f <= repeats; f++)
+						r = run(engine, t, readPercent, keys, millis);
+					System.out.println(r);
+					if (stats && r.report != null)
+						System.out.print(r.report);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,116 @@
+import java.util.Random;
+
+import AATree.AATree;
+import AATree.ArrayAATree;
+import redblacktree.RedBlackTree;
+
+/**
+ * Measures the heap retained by each tree engine per element.
+ *
+ * The keys are allocated up front and kept alive for the whole run, so the
+ * figures only cover what the tree itself holds on to: nodes, links and
+ * per-node bookkeeping. Add the size of the element (16 bytes for an
+ * Integer with compressed oops) to get the full cost of a stored key.
+ *
+ * Usage: java -Xmx4g FootprintReport [sizes...] (default 1000000 10000000)
+ */
+public class FootprintReport {
+
+	private static final String[] ENGINES = { "AATree", "ArrayAATree",
+			"AVLTree", "RedBlackTree", "BinarySearchTree" };
+
+	static Object holder;
+
+	/**
+	 * @return The bytes of heap in use after the collector has settled
+	 */
+	static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		// keep collecting until the figure stops shrinking
+		for (int i = 0; i < 10; i++) {
+			System.gc();
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			long now = rt.totalMemory() - rt.freeMemory();
+			if (now >= used)
+				break;
+			used = now;
+		}
+		return used;
+	}
+
+	/**
+	 * @param engine
+	 *            The tree to build
+	 * @param keys
+	 *            The keys to insert, in random order so the unbalanced tree
+	 *            stays shallow
+	 * @return The retained bytes per element
+	 */
+	static double measure(String engine, Integer[] keys) {
+		holder = null;
+		long before = usedHeap();
+		if (engine.equals("AATree")) {
+			AATree<Integer> t = new AATree<Integer>();
+			for (Integer k : keys)
+				t.insert(k);
+			holder = t;
+		} else if (engine.equals("ArrayAATree")) {
+			ArrayAATree<Integer> t = new ArrayAATree<Integer>();
+			for (Integer k : keys)
+				t.insert(k);
+			holder = t;
+		} else if (engine.equals("AVLTree")) {
+			AVLTree<Integer> t = new AVLTree<Integer>();
+			for (Integer k : keys)
+				t.insert(k);
+			holder = t;
+		} else if (engine.equals("RedBlackTree")) {
+			RedBlackTree<Integer> t = new RedBlackTree<Integer>();
+			for (Integer k : keys)
+				t.insert(k);
+			holder = t;
+		} else {
+			BinarySearchTree<Integer> t = new BinarySearchTree<Integer>();
+			for (Integer k : keys)
+				t.insert(k);
+			holder = t;
+		}
+		long after = usedHeap();
+		double perElement = (double) (after - before) / keys.length;
+		holder = null;
+		return perElement;
+	}
+
+	public static void main(String[] args) {
+		int[] sizes = { 1000000, 10000000 };
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++)
+				sizes[i] = Integer.parseInt(args[i]);
+		}
+
+		System.out.println(String.format("%-18s %10s %16s", "engine", "n",
+				"bytes/element"));
+		for (int n : sizes) {
+			Integer[] keys = new Integer[n];
+			for (int i = 0; i < n; i++)
+				keys[i] = i;
+			Random random = new Random(n);
+			for (int i = n - 1; i > 0; i--) {
+				int j = random.nextInt(i + 1);
+				Integer t = keys[i];
+				keys[i] = keys[j];
+				keys[j] = t;
+			}
+			for (String engine : ENGINES) {
+				System.out.println(String.format("%-18s %10d %16.1f", engine,
+						n, measure(engine, keys)));
+			}
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package redblacktree;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ *
+ * @param <T>
+ *            - The intervals, which carry their own start and end
+ *
+ *            An interval tree on top of RedBlackTree. The elements are
+ *            ordered by start, then by end, then by their natural order, so
+ *            distinct intervals with the same endpoints can live side by
+ *            side. Every node also remembers the element of its subtree with
+ *            the largest end, which is recomputed wherever the node's subtree
+ *            count is, so it survives every rotation and removal case.
+ *            Intervals are closed: [start, end]
+ */
+public class IntervalTree<T extends Comparable<? super T>> {
+	private final RedBlackTree<T> tree;
+	private final ToLongFunction<? super T> startOf;
+	private final ToLongFunction<? super T> endOf;
+
+	/**
+	 * @param startOf
+	 *            - The start of an interval
+	 * @param endOf
+	 *            - The end of an interval, never below its start
+	 */
+	public IntervalTree(ToLongFunction<? super T> startOf,
+			ToLongFunction<? super T> endOf) {
+		if (startOf == null || endOf == null)
+			throw new IllegalArgumentException();
+		this.startOf = startOf;
+		this.endOf = endOf;
+		Comparator<T> order = Comparator.<T> comparingLong(startOf)
+				.thenComparingLong(endOf)
+				.thenComparing(Comparator.<T> naturalOrder());
+		this.tree = new RedBlackTree<T>(order, null, endOf);
+	}
+
+	/**
+	 * @param interval
+	 *            - The interval to add
+	 * @return boolean - true if it was added, false if it was already there
+	 *
+	 *         Throws an IllegalArgumentException if its end is below its
+	 *         start
+	 */
+	public boolean insert(T interval) {
+		if (interval == null
+				|| endOf.applyAsLong(interval) < startOf.applyAsLong(interval))
+			throw new IllegalArgumentException();
+		return tree.insert(interval);
+	}
+
+	/**
+	 * @param interval
+	 *            - The interval to take out
+	 * @return boolean - true if it was there
+	 */
+	public boolean remove(T interval) {
+		if (interval == null)
+			return false;
+		return tree.remove(interval);
+	}
+
+	/**
+	 * @param interval
+	 *            - The interval to look for
+	 * @return boolean - true if it is in the tree
+	 */
+	public boolean contains(T interval) {
+		return tree.contains(interval);
+	}
+
+	/**
+	 * @return int - The number of intervals
+	 */
+	public int size() {
+		return tree.size();
+	}
+
+	/**
+	 * @return boolean - true if there are no intervals
+	 */
+	public boolean isEmpty() {
+		return tree.isEmpty();
+	}
+
+	/**
+	 * @param lo
+	 *            - The low end of the query, inclusive
+	 * @param hi
+	 *            - The high end of the query, inclusive
+	 * @return Stream<T> - The intervals that share at least one point with
+	 *         [lo, hi], by start
+	 *
+	 *         The stream is lazy: it walks the tree as it is consumed,
+	 *         skipping every subtree whose largest end is below lo and
+	 *         stopping at the first interval that starts after hi. Listing k
+	 *         intervals visits O(log n + k) nodes when the matches are
+	 *         clustered together in the tree and O(min(n, k log n)) at worst.
+	 *         The tree must not change while the stream is in use
+	 */
+	public Stream<T> overlapping(long lo, long hi) {
+		if (lo > hi)
+			throw new IllegalArgumentException("lo is greater than hi");
+		Iterator<T> it = tree.overlapping(startOf, lo, hi);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it,
+				Spliterator.ORDERED | Spliterator.DISTINCT
+						| Spliterator.NONNULL), false);
+	}
+
+	/**
+	 * @param point
+	 *            - The point to stab
+	 * @return Stream<T> - The intervals that contain point, by start
+	 */
+	public Stream<T> stab(long point) {
+		return overlapping(point, point);
+	}
+
+	/**
+	 * @return Stream<T> - Every interval, by start
+	 */
+	public Stream<T> stream() {
+		return tree.stream();
+	}
+}
@@ -0,0 +1,362 @@
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * An AVLTree specialized for long keys. The key is stored inline in each
+ * node, so nothing is boxed and comparisons are plain long comparisons
+ * instead of compareTo calls. Balancing is the same hpos / adjust() /
+ * rotateLeft() / rotateRight() scheme as AVLTree.
+ *
+ * Apart from the node created by a successful insert, no operation
+ * allocates. Whether the last insert or remove changed the tree is kept in
+ * a field instead of a wrapper object.
+ */
+public class LongAVLTree {
+	public BinaryNode root;
+	public int modCont = 0;
+	public int size = 0;
+	private int rotateCount;
+	private boolean changed;
+
+	/**
+	 * An empty constructor for the class that sets the root node to null and is
+	 * an empty tree
+	 */
+	public LongAVLTree() {
+		root = null;
+	}
+
+	/**
+	 * @return the height of the tree, or -1 if it is empty
+	 * 
+	 *         Reads the height kept in the root
+	 */
+	public int height() {
+		return isEmpty() ? -1 : root.hpos;
+	}
+
+	/**
+	 * @return size of the tree
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return true if empty; false if not
+	 */
+	public boolean isEmpty() {
+		return root == null;
+	}
+
+	/**
+	 * @return The rotation count
+	 * 
+	 *         This method will count how many times the tree has been rotated
+	 */
+	public int getRotationCount() {
+		return rotateCount;
+	}
+
+	/**
+	 * @param key
+	 *            The key that you will be inserting into the tree
+	 * @return true if it was inserted; false if it was already there
+	 */
+	public boolean insert(long key) {
+		if (isEmpty()) {
+			root = new BinaryNode(key);
+			size++;
+			modCont++;
+			return true;
+		}
+		changed = false;
+		root = root.insert(key);
+		return changed;
+	}
+
+	/**
+	 * @param key
+	 *            The key that you want removed
+	 * @return true if it is successfully removed; false otherwise
+	 */
+	public boolean remove(long key) {
+		if (isEmpty())
+			return false;
+		changed = false;
+		root = root.remove(key);
+		return changed;
+	}
+
+	/**
+	 * @param key
+	 *            The key to look for
+	 * @return true if the key is in the tree
+	 */
+	public boolean contains(long key) {
+		BinaryNode current = root;
+		while (current != null) {
+			if (key < current.key)
+				current = current.leftChild;
+			else if (key > current.key)
+				current = current.rightChild;
+			else
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return The keys of the tree in order
+	 */
+	public long[] toArray() {
+		long[] keys = new long[size];
+		if (!isEmpty())
+			root.toArray(keys, 0);
+		return keys;
+	}
+
+	public String toString() {
+		return java.util.Arrays.toString(toArray());
+	}
+
+	/**
+	 * @return An in-order iterator over the keys that hands them out as
+	 *         longs
+	 * 
+	 *         The iterator keeps its own stack of nodes, sized to the height of
+	 *         the tree when it is created, so stepping through it does not
+	 *         allocate
+	 */
+	public PrimitiveIterator.OfLong iterator() {
+		return new InOrderIterator();
+	}
+
+	/**
+	 * @param action
+	 *            Called with every key in order
+	 */
+	public void forEach(java.util.function.LongConsumer action) {
+		if (!isEmpty())
+			root.forEach(action);
+	}
+
+	/**
+	 * The class for the binary nodes which make up the tree
+	 */
+	class BinaryNode {
+		public long key;
+		public BinaryNode leftChild;
+		public BinaryNode rightChild;
+		public int hpos;
+
+		/**
+		 * @param key
+		 *            The key contained within the node
+		 */
+		public BinaryNode(long key) {
+			this.key = key;
+		}
+
+		/**
+		 * @param i
+		 *            The key that will be inserted below this node
+		 * @return The node that now roots this subtree
+		 */
+		public BinaryNode insert(long i) {
+			if (i > key) {
+				if (rightChild != null) {
+					rightChild = rightChild.insert(i);
+					this.hpos = this.getHeight();
+					return this.adjust();
+				}
+				rightChild = new BinaryNode(i);
+				this.hpos = this.getHeight();
+				added();
+				return this;
+			}
+
+			if (i < key) {
+				if (leftChild != null) {
+					leftChild = leftChild.insert(i);
+					this.hpos = this.getHeight();
+					return this.adjust();
+				}
+				leftChild = new BinaryNode(i);
+				this.hpos = this.getHeight();
+				added();
+				return this;
+			}
+
+			return this;
+		}
+
+		/**
+		 * @param i
+		 *            The key that is to be removed
+		 * @return The node that now roots this subtree
+		 * 
+		 *         A node with two children takes its predecessor's key and the
+		 *         predecessor is removed from the left subtree instead
+		 */
+		public BinaryNode remove(long i) {
+			if (i < key) {
+				if (leftChild == null)
+					return this;
+				leftChild = leftChild.remove(i);
+			} else if (i > key) {
+				if (rightChild == null)
+					return this;
+				rightChild = rightChild.remove(i);
+			} else if (leftChild != null && rightChild != null) {
+				key = leftChild.maxValue();
+				leftChild = leftChild.remove(key);
+			} else {
+				changed = true;
+				size--;
+				modCont++;
+				return (leftChild != null) ? leftChild : rightChild;
+			}
+			this.hpos = this.getHeight();
+			return this.adjust();
+		}
+
+		private void added() {
+			changed = true;
+			size++;
+			modCont++;
+		}
+
+		private long maxValue() {
+			BinaryNode current = this;
+			while (current.rightChild != null)
+				current = current.rightChild;
+			return current.key;
+		}
+
+		/**
+		 * @return A binary node that has been adjusted
+		 * 
+		 *         This method will check the position of the nodes and see if
+		 *         there is a height imbalance. It will then make any
+		 *         corrections that are necessary.
+		 */
+		private BinaryNode adjust() {
+			int rightHeight = (rightChild != null) ? rightChild.hpos : -1;
+			int leftHeight = (leftChild != null) ? leftChild.hpos : -1;
+
+			if (leftHeight - rightHeight < -1) {
+				int lh = (rightChild.leftChild != null) ? rightChild.leftChild.hpos
+						: -1;
+				int rh = (rightChild.rightChild != null) ? rightChild.rightChild.hpos
+						: -1;
+				if (lh > rh) {
+					rightChild = rightChild.rotateRight();
+				}
+				return rotateLeft();
+			}
+			if (rightHeight - leftHeight < -1) {
+				int lh = (leftChild.leftChild != null) ? leftChild.leftChild.hpos
+						: -1;
+				int rh = (leftChild.rightChild != null) ? leftChild.rightChild.hpos
+						: -1;
+				if (lh < rh) {
+					leftChild = leftChild.rotateLeft();
+				}
+				return rotateRight();
+			}
+			return this;
+		}
+
+		/**
+		 * @return the height of the node from the heights of its children
+		 */
+		private int getHeight() {
+			int lh = (leftChild != null) ? leftChild.hpos : -1;
+			int rh = (rightChild != null) ? rightChild.hpos : -1;
+			return Math.max(lh, rh) + 1;
+		}
+
+		/**
+		 * @return The right child, rotated up into this node's place
+		 */
+		private BinaryNode rotateLeft() {
+			BinaryNode temp = this.rightChild;
+			this.rightChild = temp.leftChild;
+			temp.leftChild = this;
+			this.hpos = this.getHeight();
+			temp.hpos = temp.getHeight();
+			rotateCount++;
+			return temp;
+		}
+
+		/**
+		 * @return The left child, rotated up into this node's place
+		 */
+		private BinaryNode rotateRight() {
+			BinaryNode temp = this.leftChild;
+			this.leftChild = temp.rightChild;
+			temp.rightChild = this;
+			this.hpos = this.getHeight();
+			temp.hpos = temp.getHeight();
+			rotateCount++;
+			return temp;
+		}
+
+		private int toArray(long[] keys, int index) {
+			if (leftChild != null)
+				index = leftChild.toArray(keys, index);
+			keys[index++] = key;
+			if (rightChild != null)
+				index = rightChild.toArray(keys, index);
+			return index;
+		}
+
+		private void forEach(java.util.function.LongConsumer action) {
+			if (leftChild != null)
+				leftChild.forEach(action);
+			action.accept(key);
+			if (rightChild != null)
+				rightChild.forEach(action);
+		}
+	}
+
+	/**
+	 * In-order iterator over the keys, with the path kept in an array
+	 */
+	private class InOrderIterator implements PrimitiveIterator.OfLong {
+		private final BinaryNode[] stack;
+		private int top = 0;
+		private final int myMod;
+
+		InOrderIterator() {
+			// an AVL tree of height h has at most h + 1 nodes on any path
+			stack = new BinaryNode[height() + 2];
+			myMod = modCont;
+			pushLeft(root);
+		}
+
+		private void pushLeft(BinaryNode n) {
+			while (n != null) {
+				stack[top++] = n;
+				n = n.leftChild;
+			}
+		}
+
+		public boolean hasNext() {
+			return top > 0;
+		}
+
+		public long nextLong() {
+			if (myMod != modCont)
+				throw new ConcurrentModificationException();
+			if (top == 0)
+				throw new NoSuchElementException();
+			BinaryNode n = stack[--top];
+			stack[top] = null;
+			pushLeft(n.rightChild);
+			return n.key;
+		}
+	}
+}
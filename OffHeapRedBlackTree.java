@@ -0,0 +1,809 @@
+package redblacktree;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A RedBlackTree of fixed-width keys whose nodes live outside the Java
+ * heap. Every node is a record of two 64-bit words followed by the
+ * key:
+ *
+ * <pre>
+ * 0   left child
+ * 8   right child, with the node's color in the top bit
+ * 16  key bytes, zero padded to a whole number of words
+ * </pre>
+ *
+ * A node is referred to by a long handle; handle 0 is the null node.
+ * Records are carved out of slabs of 65536 nodes allocated from an
+ * {@link Arena}, so sizes and handles are 64-bit and the tree can grow
+ * past Integer.MAX_VALUE entries without the collector ever seeing a
+ * node. Keys are compared as unsigned bytes, most significant first.
+ *
+ * Insertion and removal are the same top-down passes RedBlackTree
+ * makes: color flips and ConsecutiveReds on the way down for insert,
+ * and the remove2A/remove2B cases for removal, with the node methods
+ * taking the handle of the node they work on as their first argument.
+ *
+ * The memory belongs to the arena. Removed nodes are reused by later
+ * inserts but their slabs are only given back by {@link #close()},
+ * after which every method throws an IllegalStateException. Like
+ * RedBlackTree, the tree is not safe for concurrent use.
+ */
+public class OffHeapRedBlackTree implements AutoCloseable {
+	private static final int SLAB_SHIFT = 16;
+	private static final long SLAB_NODES = 1L << SLAB_SHIFT;
+	private static final long RED_BIT = Long.MIN_VALUE;
+	private static final long LEFT = 0;
+	private static final long RIGHT = 8;
+	private static final long KEY = 16;
+	private static final ValueLayout.OfLong WORD = ValueLayout.JAVA_LONG;
+	private static final ValueLayout.OfLong KEY_WORD = ValueLayout.JAVA_LONG
+			.withOrder(ByteOrder.BIG_ENDIAN);
+
+	private final Arena arena;
+	private final boolean ownsArena;
+	private final int keyBytes;
+	private final int keyWords;
+	private final long stride;
+	/*
+	 * The key being inserted, removed or looked up, padded like a node's key
+	 */
+	private final MemorySegment probe;
+	private MemorySegment[] slabs = new MemorySegment[16];
+	private long next = 1;
+	private long free = 0;
+	private boolean closed;
+
+	private long root;
+	private long rotCount;
+	private long size;
+	public int modCont = 0;
+
+	/**
+	 * @param keyBytes
+	 *            - The width of every key in bytes
+	 *
+	 *            Constructs an empty tree with an arena of its own, which
+	 *            close() frees
+	 */
+	public OffHeapRedBlackTree(int keyBytes) {
+		this(keyBytes, Arena.ofShared(), true);
+	}
+
+	/**
+	 * @param keyBytes
+	 *            - The width of every key in bytes
+	 * @param arena
+	 *            - The arena to allocate nodes from
+	 *
+	 *            Constructs an empty tree on the caller's arena. The nodes live
+	 *            as long as the arena does; close() only stops the tree from
+	 *            being used
+	 */
+	public OffHeapRedBlackTree(int keyBytes, Arena arena) {
+		this(keyBytes, arena, false);
+	}
+
+	private OffHeapRedBlackTree(int keyBytes, Arena arena, boolean ownsArena) {
+		if (keyBytes <= 0)
+			throw new IllegalArgumentException("keyBytes: " + keyBytes);
+		if (arena == null)
+			throw new IllegalArgumentException();
+		this.arena = arena;
+		this.ownsArena = ownsArena;
+		this.keyBytes = keyBytes;
+		this.keyWords = (keyBytes + 7) >>> 3;
+		this.stride = KEY + 8L * keyWords;
+		this.probe = arena.allocate(8L * keyWords, 8);
+	}
+
+	/**
+	 * @return int - The width of the keys in bytes
+	 */
+	public int keyBytes() {
+		return keyBytes;
+	}
+
+	/**
+	 * @return long - The number of keys in the tree
+	 */
+	public long size() {
+		checkOpen();
+		return size;
+	}
+
+	/**
+	 * @return true if the tree holds no keys, false otherwise
+	 */
+	public boolean isEmpty() {
+		checkOpen();
+		return root == 0;
+	}
+
+	/**
+	 * @return long - The number of rotations
+	 *
+	 *         Returns the number of rotations during the insertion and deletion
+	 *         of the red black tree
+	 */
+	public long getRotationCount() {
+		return rotCount;
+	}
+
+	/**
+	 * @return int height of tree
+	 *
+	 *         This method will recursively find the height of the tree. It will
+	 *         return -1 if the root is null
+	 */
+	public int height() {
+		checkOpen();
+		return height(root);
+	}
+
+	/**
+	 * @return long - The bytes of off-heap memory the nodes take up
+	 *
+	 *         Counts whole slabs, including the free nodes in them
+	 */
+	public long reservedBytes() {
+		checkOpen();
+		long slabCount = (next + SLAB_NODES - 1) >>> SLAB_SHIFT;
+		return slabCount * SLAB_NODES * stride;
+	}
+
+	/**
+	 * @param key
+	 *            - The key to insert, exactly keyBytes() long
+	 * @return true if the key was added, false if it was already there
+	 */
+	public boolean insert(byte[] key) {
+		setProbe(key);
+		return insertProbe();
+	}
+
+	/**
+	 * @param key
+	 *            - The key to insert
+	 * @return true if the key was added, false if it was already there
+	 *
+	 *         For trees of 8 byte keys. The key is stored so that the tree
+	 *         orders longs the way Long.compare does
+	 */
+	public boolean insert(long key) {
+		setProbe(key);
+		return insertProbe();
+	}
+
+	/**
+	 * @param key
+	 *            - The key to remove, exactly keyBytes() long
+	 * @return true if the key was removed, false if it was not there
+	 */
+	public boolean remove(byte[] key) {
+		setProbe(key);
+		return removeProbe();
+	}
+
+	/**
+	 * @param key
+	 *            - The key to remove
+	 * @return true if the key was removed, false if it was not there
+	 *
+	 *         For trees of 8 byte keys, see insert(long)
+	 */
+	public boolean remove(long key) {
+		setProbe(key);
+		return removeProbe();
+	}
+
+	/**
+	 * @param key
+	 *            - The key to look for, exactly keyBytes() long
+	 * @return true if the key is in the tree, false otherwise
+	 */
+	public boolean contains(byte[] key) {
+		setProbe(key);
+		return find();
+	}
+
+	/**
+	 * @param key
+	 *            - The key to look for
+	 * @return true if the key is in the tree, false otherwise
+	 *
+	 *         For trees of 8 byte keys, see insert(long)
+	 */
+	public boolean contains(long key) {
+		setProbe(key);
+		return find();
+	}
+
+	/**
+	 * Creates an arraylist of the keys in order, each copied onto the heap
+	 *
+	 * @return
+	 */
+	public ArrayList<byte[]> toArrayList() {
+		checkOpen();
+		ArrayList<byte[]> list = new ArrayList<byte[]>();
+		toArrayList(root, list);
+		return list;
+	}
+
+	public String toString() {
+		StringBuilder b = new StringBuilder("[");
+		for (byte[] key : toArrayList()) {
+			if (b.length() > 1)
+				b.append(", ");
+			b.append(Arrays.toString(key));
+		}
+		return b.append(']').toString();
+	}
+
+	/**
+	 * Frees the arena if the tree made it itself. The tree cannot be used
+	 * afterwards
+	 */
+	@Override
+	public void close() {
+		if (closed)
+			return;
+		closed = true;
+		root = 0;
+		size = 0;
+		slabs = null;
+		if (ownsArena)
+			arena.close();
+	}
+
+	private void checkOpen() {
+		if (closed)
+			throw new IllegalStateException("tree is closed");
+	}
+
+	private void setProbe(byte[] key) {
+		checkOpen();
+		if (key == null || key.length != keyBytes)
+			throw new IllegalArgumentException("keys are " + keyBytes
+					+ " bytes");
+		if ((keyBytes & 7) != 0)
+			probe.fill((byte) 0);
+		probe.copyFrom(MemorySegment.ofArray(key));
+	}
+
+	private void setProbe(long key) {
+		checkOpen();
+		if (keyBytes != 8)
+			throw new IllegalArgumentException("keys are " + keyBytes
+					+ " bytes");
+		probe.set(KEY_WORD, 0, key ^ Long.MIN_VALUE);
+	}
+
+	private boolean insertProbe() {
+		if (root == 0) {
+			root = allocate();
+			setRed(root, false);
+			size++;
+			modCont++;
+			return true;
+		}
+
+		boolean ret = insert(root, 0, 0, 0);
+		setRed(root, false);
+		if (ret) {
+			size++;
+			modCont++;
+		}
+		return ret;
+	}
+
+	private boolean removeProbe() {
+		if (root == 0) { // test to see if the size is 0
+			return false;
+		}
+
+		boolean ret;
+		if (checkBlackKids(root)) {
+			setRed(root, true);
+			ret = traverse(root, 0, 0, 0);
+		} else {
+			ret = remove2B(root, 0, 0, 0);
+		}
+
+		if (root != 0)
+			setRed(root, false);
+
+		if (ret)
+			modCont++;
+		return ret;
+	}
+
+	private boolean find() {
+		long current = root;
+		while (current != 0) {
+			int compare = compare(current);
+			if (compare == 0)
+				return true;
+			current = compare < 0 ? left(current) : right(current);
+		}
+		return false;
+	}
+
+	/*
+	 * Node storage
+	 */
+
+	private MemorySegment slab(long n) {
+		return slabs[(int) (n >>> SLAB_SHIFT)];
+	}
+
+	private long offset(long n) {
+		return (n & (SLAB_NODES - 1)) * stride;
+	}
+
+	private long left(long n) {
+		return slab(n).get(WORD, offset(n) + LEFT);
+	}
+
+	private long right(long n) {
+		return slab(n).get(WORD, offset(n) + RIGHT) & ~RED_BIT;
+	}
+
+	private void setLeft(long n, long child) {
+		slab(n).set(WORD, offset(n) + LEFT, child);
+	}
+
+	private void setRight(long n, long child) {
+		MemorySegment s = slab(n);
+		long at = offset(n) + RIGHT;
+		s.set(WORD, at, (s.get(WORD, at) & RED_BIT) | child);
+	}
+
+	/**
+	 * @param n
+	 *            The node you wish to see is red
+	 * @return true if the node is red, false otherwise. The null node is black
+	 */
+	private boolean isRed(long n) {
+		return n != 0 && slab(n).get(WORD, offset(n) + RIGHT) < 0;
+	}
+
+	private void setRed(long n, boolean red) {
+		MemorySegment s = slab(n);
+		long at = offset(n) + RIGHT;
+		long word = s.get(WORD, at);
+		s.set(WORD, at, red ? word | RED_BIT : word & ~RED_BIT);
+	}
+
+	/**
+	 * This method will make a black node red and a red node black
+	 */
+	private void swapColor(long n) {
+		MemorySegment s = slab(n);
+		long at = offset(n) + RIGHT;
+		s.set(WORD, at, s.get(WORD, at) ^ RED_BIT);
+	}
+
+	/**
+	 * @param n
+	 *            - The node to compare the probe with
+	 * @return The sign of probe - key(n), comparing word by word as unsigned
+	 *         big-endian numbers, which is the same as comparing the bytes
+	 */
+	private int compare(long n) {
+		MemorySegment s = slab(n);
+		long at = offset(n) + KEY;
+		for (int i = 0; i < keyWords; i++) {
+			long a = probe.get(KEY_WORD, 8L * i);
+			long b = s.get(KEY_WORD, at + 8L * i);
+			if (a != b)
+				return Long.compareUnsigned(a, b);
+		}
+		return 0;
+	}
+
+	/**
+	 * @return The handle of a red leaf holding the probe, taken off the free
+	 *         list or from the end of the last slab
+	 */
+	private long allocate() {
+		long n;
+		if (free != 0) {
+			n = free;
+			free = left(n);
+		} else {
+			n = next++;
+			int index = (int) (n >>> SLAB_SHIFT);
+			if (index == slabs.length)
+				slabs = Arrays.copyOf(slabs, index * 2);
+			if (slabs[index] == null)
+				slabs[index] = arena.allocate(SLAB_NODES * stride, 8);
+		}
+		MemorySegment s = slab(n);
+		long at = offset(n);
+		s.set(WORD, at + LEFT, 0);
+		s.set(WORD, at + RIGHT, RED_BIT);
+		MemorySegment.copy(probe, 0, s, at + KEY, 8L * keyWords);
+		return n;
+	}
+
+	/**
+	 * Puts an unlinked node on the free list
+	 */
+	private void release(long n) {
+		setLeft(n, free);
+		free = n;
+		size--;
+	}
+
+	/**
+	 * @param from
+	 *            - The node whose key is copied
+	 * @param to
+	 *            - The node that receives it, or 0 for the probe
+	 */
+	private void copyKey(long from, long to) {
+		MemorySegment dst = (to == 0) ? probe : slab(to);
+		long at = (to == 0) ? 0 : offset(to) + KEY;
+		MemorySegment.copy(slab(from), offset(from) + KEY, dst, at,
+				8L * keyWords);
+	}
+
+	/**
+	 * @param grand
+	 *            - The node that holds the link, or 0 for the root
+	 * @param old
+	 *            - The node currently hanging from grand
+	 * @param top
+	 *            - The node that replaces it
+	 */
+	private void relink(long grand, long old, long top) {
+		if (grand == 0)
+			root = top;
+		else if (left(grand) == old)
+			setLeft(grand, top);
+		else
+			setRight(grand, top);
+	}
+
+	private int height(long n) {
+		if (n == 0)
+			return -1;
+		return 1 + Math.max(height(left(n)), height(right(n)));
+	}
+
+	private void toArrayList(long n, ArrayList<byte[]> list) {
+		if (n == 0)
+			return;
+		toArrayList(left(n), list);
+		byte[] key = new byte[keyBytes];
+		MemorySegment.copy(slab(n), offset(n) + KEY,
+				MemorySegment.ofArray(key), 0, keyBytes);
+		list.add(key);
+		toArrayList(right(n), list);
+	}
+
+	/*
+	 * Insertion, see RedBlackTree.BinaryNode.insert
+	 */
+
+	/**
+	 * @param n
+	 *            - The node the walk is at
+	 * @return true if the probe was inserted, false if it was already there
+	 *
+	 *         Every node with two red children is color flipped on the way
+	 *         down and any consecutive reds that leaves are rotated away, so
+	 *         the new red leaf only ever needs one more rotation
+	 */
+	private boolean insert(long n, long parent, long grand, long gg) {
+		long current = n;
+		if (colorFlip(n)) {
+			if (parent == 0)
+				setRed(n, false); // the root stays black
+			long top = ConsecutiveReds(n, parent, grand, gg);
+			if (top != 0) {
+				// carry on below the rotated subtree, as RedBlackTree does
+				current = top;
+				parent = gg;
+				grand = 0;
+			}
+		}
+
+		int compare = compare(current);
+		if (compare == 0)
+			return false;
+
+		long next = compare < 0 ? left(current) : right(current);
+		if (next != 0)
+			return insert(next, current, parent, grand);
+
+		next = allocate();
+		if (compare < 0)
+			setLeft(current, next);
+		else
+			setRight(current, next);
+
+		ConsecutiveReds(next, current, parent, grand);
+		return true;
+	}
+
+	/**
+	 * @return The node now at grand's position if a rotation was needed, 0
+	 *         otherwise
+	 */
+	private long ConsecutiveReds(long n, long parent, long grand, long gg) {
+		if (parent == 0 || !isRed(n) || !isRed(parent))
+			return 0;
+
+		// a red parent is never the root, so grand exists
+		long top;
+		if (left(grand) == parent) {
+			if (right(parent) == n) {
+				swapColor(n);
+				swapColor(parent);
+				setLeft(grand, rotateLeft(parent));
+			}
+			top = rotateRight(grand);
+		} else {
+			if (left(parent) == n) {
+				swapColor(n);
+				swapColor(parent);
+				setRight(grand, rotateRight(parent));
+			}
+			top = rotateLeft(grand);
+		}
+
+		relink(gg, grand, top);
+		return top;
+	}
+
+	/**
+	 * @return true if the colors were flipped, false otherwise
+	 */
+	private boolean colorFlip(long n) {
+		long l = left(n);
+		long r = right(n);
+		if (isRed(l) && isRed(r)) {
+			swapColor(l);
+			swapColor(r);
+			swapColor(n);
+			return true;
+		}
+		return false;
+	}
+
+	private long rotateLeft(long n) {
+		long temp = right(n);
+		setRight(n, left(temp));
+		setLeft(temp, n);
+		swapColor(n);
+		swapColor(temp);
+		rotCount++;
+		return temp;
+	}
+
+	private long rotateRight(long n) {
+		long temp = left(n);
+		setLeft(n, right(temp));
+		setRight(temp, n);
+		swapColor(n);
+		swapColor(temp);
+		rotCount++;
+		return temp;
+	}
+
+	/*
+	 * Removal, see RedBlackTree.BinaryNode.remove2 and friends
+	 */
+
+	private long removeRotateLeft(long n) {
+		rotCount++;
+		long temp = right(n);
+		setRight(n, left(temp));
+		setLeft(temp, n);
+		return temp;
+	}
+
+	private long removeRotateRight(long n) {
+		rotCount++;
+		long temp = left(n);
+		setLeft(n, right(temp));
+		setRight(temp, n);
+		return temp;
+	}
+
+	private long removeDoubleLeft(long n) {
+		setRight(n, removeRotateRight(right(n)));
+		return removeRotateLeft(n);
+	}
+
+	private long removeDoubleRight(long n) {
+		setLeft(n, removeRotateLeft(left(n)));
+		return removeRotateRight(n);
+	}
+
+	/**
+	 * @return true if both children are black, false otherwise
+	 */
+	private boolean checkBlackKids(long n) {
+		return !isRed(left(n)) && !isRed(right(n));
+	}
+
+	private long maxNode(long n) {
+		long r;
+		while ((r = right(n)) != 0)
+			n = r;
+		return n;
+	}
+
+	/**
+	 * @return true if the node is removed, false otherwise
+	 *
+	 *         n holds the probe. A node with at most one child is unlinked; a
+	 *         node with two takes its predecessor's key, which becomes the
+	 *         probe, and the predecessor is removed from the left subtree
+	 */
+	private boolean remove3(long n, long sibling, long parent, long grand) {
+		long l = left(n);
+		long r = right(n);
+		if (l == 0 && r == 0) {
+			relink(parent, n, 0);
+			release(n);
+			return true;
+		}
+
+		if (l == 0) {
+			setRed(r, false);
+			relink(parent, n, r);
+			release(n);
+			return true;
+		}
+
+		if (r == 0) {
+			setRed(l, false);
+			relink(parent, n, l);
+			release(n);
+			return true;
+		}
+
+		long max = maxNode(l);
+		copyKey(max, n);
+		copyKey(max, 0);
+
+		if (isRed(n)) {
+			return remove2(l, r, n, parent);
+		}
+
+		// black with a red child (case 2B): step onto the red child, or
+		// rotate the red right child up so the left one gets a red parent
+		if (isRed(l)) {
+			return traverse(l, r, n, parent);
+		}
+
+		long red = r;
+		relink(parent, n, removeRotateLeft(n));
+		setRed(red, false);
+		setRed(n, true);
+		return remove2(left(n), right(n), n, red);
+	}
+
+	private boolean remove2(long n, long sibling, long parent, long grand) {
+		if (checkBlackKids(n))
+			return remove2A(n, sibling, parent, grand);
+		return remove2B(n, sibling, parent, grand);
+	}
+
+	private boolean remove2B(long n, long sibling, long parent, long grand) {
+		int compare = compare(n);
+		if (compare == 0) {
+			return remove3(n, sibling, parent, grand);
+		}
+
+		long next = compare < 0 ? left(n) : right(n);
+		long other = compare < 0 ? right(n) : left(n);
+		if (next == 0)
+			return false;
+
+		if (!isRed(next)) {
+			return remove2B2(next, other, n, parent);
+		}
+
+		return traverse(next, other, n, parent);
+	}
+
+	private boolean remove2B2(long n, long sibling, long parent, long grand) {
+		setRed(parent, true);
+		setRed(sibling, false);
+
+		if (left(parent) == sibling) {
+			relink(grand, parent, removeRotateRight(parent));
+			return remove2(n, left(parent), parent, sibling);
+		}
+
+		relink(grand, parent, removeRotateLeft(parent));
+		return remove2(n, right(parent), parent, sibling);
+	}
+
+	private boolean remove2A(long n, long sibling, long parent, long grand) {
+		if (checkBlackKids(sibling)) {
+			return remove2A1(n, sibling, parent, grand);
+		}
+
+		if (left(parent) == sibling) {
+			if (isRed(left(sibling)))
+				return remove2A3(n, sibling, parent, grand);
+			return remove2A2(n, sibling, parent, grand);
+		}
+
+		if (isRed(right(sibling)))
+			return remove2A3(n, sibling, parent, grand);
+		return remove2A2(n, sibling, parent, grand);
+	}
+
+	private boolean remove2A3(long n, long sibling, long parent, long grand) {
+		if (left(parent) == sibling) {
+			setRed(left(sibling), false);
+			relink(grand, parent, removeRotateRight(parent));
+		} else {
+			setRed(right(sibling), false);
+			relink(grand, parent, removeRotateLeft(parent));
+		}
+
+		setRed(n, true);
+		setRed(parent, false);
+		setRed(sibling, true);
+
+		long newSibling = (left(parent) == n) ? right(parent) : left(parent);
+		return traverse(n, newSibling, parent, sibling);
+	}
+
+	private boolean remove2A2(long n, long sibling, long parent, long grand) {
+		long top;
+		if (left(parent) == sibling) {
+			top = removeDoubleRight(parent);
+		} else {
+			top = removeDoubleLeft(parent);
+		}
+		relink(grand, parent, top);
+
+		setRed(n, true);
+		setRed(parent, false);
+
+		long newSibling = (left(parent) == n) ? right(parent) : left(parent);
+		return traverse(n, newSibling, parent, top);
+	}
+
+	private boolean remove2A1(long n, long sibling, long parent, long grand) {
+		setRed(parent, false);
+		setRed(n, true);
+		setRed(sibling, true);
+
+		return traverse(n, sibling, parent, grand);
+	}
+
+	private boolean traverse(long n, long sibling, long parent, long grand) {
+		int compare = compare(n);
+		if (compare > 0) {
+			long r = right(n);
+			if (r == 0)
+				return false;
+			return remove2(r, left(n), n, parent);
+		}
+
+		if (compare < 0) {
+			long l = left(n);
+			if (l == 0)
+				return false;
+			return remove2(l, right(n), n, parent);
+		}
+
+		return remove3(n, sibling, parent, grand); // n is the one to delete
+	}
+}
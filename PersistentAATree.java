@@ -0,0 +1,609 @@
+package AATree;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An AA tree whose versions never change once made. Insert and remove copy
+ * only the nodes on the path they walk, plus the few that skew, split and
+ * balance rotate, and share every other node with the version before, so
+ * each write costs O(log n) new nodes and taking a snapshot costs nothing.
+ * The last few versions are kept so they can be looked up by number;
+ * older ones live on as long as someone holds their Snapshot.
+ *
+ * Writes must come from one thread at a time, but a Snapshot is immutable
+ * and can be read from any thread
+ *
+ * @param <T>
+ */
+public class PersistentAATree<T extends Comparable<? super T>> {
+	/*
+	 * A node is 32 bytes on a 64-bit JVM with compressed oops: header,
+	 * element, two links, level and the outer tree reference
+	 */
+	private static final int NODE_BYTES = 32;
+
+	private final Comparator<? super T> comparator;
+	private final int retain;
+	private final ArrayDeque<Snapshot> versions = new ArrayDeque<>();
+	private Snapshot head;
+	int rotationCount = 0;
+
+	/**
+	 * Constructs an empty tree that only keeps its latest version
+	 *
+	 */
+	public PersistentAATree() {
+		this(null, 1);
+	}
+
+	/**
+	 * Constructs an empty tree that keeps its last retain versions
+	 *
+	 * @param retain
+	 */
+	public PersistentAATree(int retain) {
+		this(null, retain);
+	}
+
+	/**
+	 * Constructs an empty tree ordered by the given comparator, or by the
+	 * elements' natural order if it is null, that keeps its last retain
+	 * versions
+	 *
+	 * @param comparator
+	 * @param retain
+	 */
+	public PersistentAATree(Comparator<? super T> comparator, int retain) {
+		if (retain < 1) {
+			throw new IllegalArgumentException("retain must be at least 1");
+		}
+		this.comparator = comparator;
+		this.retain = retain;
+		publish(new Snapshot(null, 0, 0));
+	}
+
+	/**
+	 * Returns the latest version. Nothing is copied: the snapshot shares
+	 * its nodes with every later version until they are written over
+	 *
+	 * @return
+	 */
+	public Snapshot snapshot() {
+		return this.head;
+	}
+
+	/**
+	 * Returns the retained version with the given number, or null if it
+	 * was never made or has been dropped
+	 *
+	 * @param number
+	 * @return
+	 */
+	public Snapshot version(long number) {
+		for (Snapshot s : this.versions) {
+			if (s.number == number) {
+				return s;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the retained versions, oldest first
+	 *
+	 * @return
+	 */
+	public List<Snapshot> versions() {
+		return new ArrayList<>(this.versions);
+	}
+
+	/**
+	 * Returns the number of elements in the latest version
+	 *
+	 * @return
+	 */
+	public int size() {
+		return this.head.size;
+	}
+
+	/**
+	 * Returns true if the latest version holds an element equal to o
+	 *
+	 * @param o
+	 * @return
+	 */
+	public boolean contains(T o) {
+		return this.head.contains(o);
+	}
+
+	/**
+	 * Returns the number of rotations performed during the existence of the tree
+	 *
+	 * @return
+	 */
+	public int rotationCount() {
+		return this.rotationCount;
+	}
+
+	/**
+	 * Inserts o into a new version that shares every node off the insertion
+	 * path with the current one. Nothing changes, and no version is made,
+	 * if o is already there
+	 *
+	 * @param o
+	 * @return
+	 */
+	public boolean insert(T o) {
+		if (o == null) {
+			throw new IllegalArgumentException();
+		}
+		BinaryNode root = insert(this.head.root, o);
+		if (root == this.head.root) {
+			return false;
+		}
+		publish(new Snapshot(root, this.head.size + 1, this.head.number + 1));
+		return true;
+	}
+
+	/**
+	 * Removes o into a new version that shares every node off the removal
+	 * path with the current one. Nothing changes, and no version is made,
+	 * if o is not there
+	 *
+	 * @param o
+	 * @return
+	 */
+	public boolean remove(T o) {
+		if (o == null) {
+			throw new IllegalArgumentException();
+		}
+		BinaryNode root = remove(this.head.root, o);
+		if (root == this.head.root) {
+			return false;
+		}
+		publish(new Snapshot(root, this.head.size - 1, this.head.number + 1));
+		return true;
+	}
+
+	/**
+	 * Makes s the latest version and drops the oldest retained one if there
+	 * are more than retain
+	 *
+	 * @param s
+	 */
+	private void publish(Snapshot s) {
+		this.head = s;
+		this.versions.addLast(s);
+		if (this.versions.size() > this.retain) {
+			this.versions.removeFirst();
+		}
+	}
+
+	/**
+	 * Counts the nodes the retained versions hold between them, telling
+	 * apart the ones only one version reaches from the ones several share.
+	 * A shared node's whole subtree is shared too, so the first time a
+	 * second version reaches a node the walk goes below it again to mark
+	 * that subtree, and after that it stops there. Every node is expanded
+	 * at most twice, once when first seen and once when it becomes shared,
+	 * so the walk is O(distinct nodes) however many versions are retained
+	 *
+	 * @return
+	 */
+	public Footprint footprint() {
+		// FALSE once one version reaches a node, TRUE once it is shared
+		IdentityHashMap<BinaryNode, Boolean> seen = new IdentityHashMap<>();
+		ArrayDeque<BinaryNode> stack = new ArrayDeque<>();
+		long logical = 0;
+		long shared = 0;
+		for (Snapshot s : this.versions) {
+			logical += s.size;
+			if (s.root != null) {
+				stack.push(s.root);
+			}
+			while (!stack.isEmpty()) {
+				BinaryNode n = stack.pop();
+				Boolean before = seen.put(n, Boolean.TRUE);
+				if (before == Boolean.TRUE) {
+					continue;
+				}
+				if (before != null) {
+					shared++;
+				} else {
+					seen.put(n, Boolean.FALSE);
+				}
+				if (n.leftChild != null) {
+					stack.push(n.leftChild);
+				}
+				if (n.rightChild != null) {
+					stack.push(n.rightChild);
+				}
+			}
+		}
+		return new Footprint(this.versions.size(), logical, seen.size(),
+				shared);
+	}
+
+	/**
+	 * How much the retained versions share, as measured by footprint()
+	 */
+	public static final class Footprint {
+		/** The number of retained versions */
+		public final int versions;
+		/** The nodes the versions would hold between them as full copies */
+		public final long logicalNodes;
+		/** The nodes actually allocated for them */
+		public final long distinctNodes;
+		/** The distinct nodes reached from more than one version */
+		public final long sharedNodes;
+
+		Footprint(int versions, long logicalNodes, long distinctNodes,
+				long sharedNodes) {
+			this.versions = versions;
+			this.logicalNodes = logicalNodes;
+			this.distinctNodes = distinctNodes;
+			this.sharedNodes = sharedNodes;
+		}
+
+		/**
+		 * Returns the distinct nodes only one version reaches
+		 *
+		 * @return
+		 */
+		public long uniqueNodes() {
+			return this.distinctNodes - this.sharedNodes;
+		}
+
+		/**
+		 * Returns the bytes the distinct nodes take, not counting elements
+		 *
+		 * @return
+		 */
+		public long bytes() {
+			return this.distinctNodes * NODE_BYTES;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"%d versions, %d nodes as copies, %d distinct "
+							+ "(%d shared, %d unique), %d bytes",
+					this.versions, this.logicalNodes, this.distinctNodes,
+					this.sharedNodes, uniqueNodes(), bytes());
+		}
+	}
+
+	/**
+	 * Compares two elements in the tree's order
+	 *
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	int compare(T a, T b) {
+		if (this.comparator != null) {
+			return this.comparator.compare(a, b);
+		}
+		return a.compareTo(b);
+	}
+
+	/**
+	 * Returns t with o inserted below it, or t itself if o is already there.
+	 * Every node on the way down is copied, then skewed and split on the
+	 * way back up
+	 *
+	 * @param t
+	 * @param o
+	 * @return
+	 */
+	private BinaryNode insert(BinaryNode t, T o) {
+		if (t == null) {
+			return new BinaryNode(o, null, null, 1);
+		}
+		int compare = compare(o, t.element);
+		if (compare == 0) {
+			return t;
+		}
+		if (compare < 0) {
+			BinaryNode left = insert(t.leftChild, o);
+			if (left == t.leftChild) {
+				return t;
+			}
+			t = t.with(left, t.rightChild);
+		} else {
+			BinaryNode right = insert(t.rightChild, o);
+			if (right == t.rightChild) {
+				return t;
+			}
+			t = t.with(t.leftChild, right);
+		}
+		return split(skew(t));
+	}
+
+	/**
+	 * Returns t with o removed from below it, or t itself if o is not
+	 * there. A node with two children takes its predecessor's element and
+	 * the predecessor is removed from the left subtree instead
+	 *
+	 * @param t
+	 * @param o
+	 * @return
+	 */
+	private BinaryNode remove(BinaryNode t, T o) {
+		if (t == null) {
+			return null;
+		}
+		T element = t.element;
+		BinaryNode left = t.leftChild;
+		BinaryNode right = t.rightChild;
+		int compare = compare(o, element);
+		if (compare < 0) {
+			left = remove(left, o);
+			if (left == t.leftChild) {
+				return t;
+			}
+		} else if (compare > 0) {
+			right = remove(right, o);
+			if (right == t.rightChild) {
+				return t;
+			}
+		} else {
+			// only a level 1 node can lack a child, and then it has at
+			// most one right child on its own level
+			if (left == null) {
+				return right;
+			}
+			if (right == null) {
+				return left;
+			}
+			BinaryNode pred = left;
+			while (pred.rightChild != null) {
+				pred = pred.rightChild;
+			}
+			element = pred.element;
+			left = remove(left, element);
+		}
+		return balance(new BinaryNode(element, left, right, t.level));
+	}
+
+	/**
+	 * Brings t back down to one more than its lower child's level after a
+	 * removal under it, then skews and splits the copies that needs
+	 *
+	 * @param t
+	 * @return
+	 */
+	private BinaryNode balance(BinaryNode t) {
+		int should = Math.min(levelOf(t.leftChild), levelOf(t.rightChild)) + 1;
+		if (should >= t.level) {
+			return t;
+		}
+		BinaryNode right = t.rightChild;
+		if (right != null && right.level > should) {
+			right = new BinaryNode(right.element, right.leftChild,
+					right.rightChild, should);
+		}
+		t = new BinaryNode(t.element, t.leftChild, right, should);
+
+		t = skew(t);
+		if (t.rightChild != null) {
+			BinaryNode r = skew(t.rightChild);
+			if (r.rightChild != null) {
+				r = r.with(r.leftChild, skew(r.rightChild));
+			}
+			t = t.with(t.leftChild, r);
+		}
+		t = split(t);
+		if (t.rightChild != null) {
+			t = t.with(t.leftChild, split(t.rightChild));
+		}
+		return t;
+	}
+
+	private int levelOf(BinaryNode n) {
+		return (n == null) ? 0 : n.level;
+	}
+
+	/**
+	 * Rotates a left child on t's level up over t, copying both
+	 *
+	 * @param t
+	 * @return
+	 */
+	private BinaryNode skew(BinaryNode t) {
+		BinaryNode l = t.leftChild;
+		if (l == null || l.level != t.level) {
+			return t;
+		}
+		this.rotationCount++;
+		return new BinaryNode(l.element, l.leftChild,
+				new BinaryNode(t.element, l.rightChild, t.rightChild, t.level),
+				l.level);
+	}
+
+	/**
+	 * Rotates the first of two right links on t's level up over t, a level
+	 * higher, copying both
+	 *
+	 * @param t
+	 * @return
+	 */
+	private BinaryNode split(BinaryNode t) {
+		BinaryNode r = t.rightChild;
+		if (r == null || r.rightChild == null
+				|| r.rightChild.level != t.level) {
+			return t;
+		}
+		this.rotationCount++;
+		return new BinaryNode(r.element,
+				new BinaryNode(t.element, t.leftChild, r.leftChild, t.level),
+				r.rightChild, r.level + 1);
+	}
+
+	@Override
+	public String toString() {
+		return this.head.toString();
+	}
+
+	/**
+	 * One version of the tree. It never changes, so it can be read while
+	 * later versions are written and handed to other threads
+	 */
+	public class Snapshot implements Iterable<T> {
+		final BinaryNode root;
+		final int size;
+		final long number;
+
+		Snapshot(BinaryNode root, int size, long number) {
+			this.root = root;
+			this.size = size;
+			this.number = number;
+		}
+
+		/**
+		 * Returns the version number, 0 for the empty tree the tree started
+		 * as and one more for each write after it
+		 *
+		 * @return
+		 */
+		public long number() {
+			return this.number;
+		}
+
+		/**
+		 * Returns the number of elements in this version
+		 *
+		 * @return
+		 */
+		public int size() {
+			return this.size;
+		}
+
+		/**
+		 * Returns true if this version has no elements
+		 *
+		 * @return
+		 */
+		public boolean isEmpty() {
+			return this.size == 0;
+		}
+
+		/**
+		 * Returns true if this version holds an element equal to o
+		 *
+		 * @param o
+		 * @return
+		 */
+		public boolean contains(T o) {
+			if (o == null) {
+				return false;
+			}
+			BinaryNode current = this.root;
+			while (current != null) {
+				int compare = compare(o, current.element);
+				if (compare == 0) {
+					return true;
+				}
+				current = (compare < 0) ? current.leftChild
+						: current.rightChild;
+			}
+			return false;
+		}
+
+		/**
+		 * Returns the elements of this version in order. The version cannot
+		 * change, so the iterator never fails
+		 *
+		 * @return
+		 */
+		@Override
+		public Iterator<T> iterator() {
+			return new Iterator<T>() {
+				private final ArrayDeque<BinaryNode> stack = new ArrayDeque<>();
+
+				{
+					pushLeft(Snapshot.this.root);
+				}
+
+				private void pushLeft(BinaryNode n) {
+					for (; n != null; n = n.leftChild) {
+						this.stack.push(n);
+					}
+				}
+
+				@Override
+				public boolean hasNext() {
+					return !this.stack.isEmpty();
+				}
+
+				@Override
+				public T next() {
+					if (this.stack.isEmpty()) {
+						throw new NoSuchElementException();
+					}
+					BinaryNode n = this.stack.pop();
+					pushLeft(n.rightChild);
+					return n.element;
+				}
+			};
+		}
+
+		/**
+		 * Returns the elements of this version in order
+		 *
+		 * @return
+		 */
+		public ArrayList<T> toArrayList() {
+			ArrayList<T> a = new ArrayList<>(this.size);
+			for (T e : this) {
+				a.add(e);
+			}
+			return a;
+		}
+
+		@Override
+		public String toString() {
+			return toArrayList().toString();
+		}
+	}
+
+	/**
+	 * An immutable node. Writes make changed copies instead of touching it
+	 */
+	class BinaryNode {
+		final T element;
+		final BinaryNode leftChild;
+		final BinaryNode rightChild;
+		final int level;
+
+		BinaryNode(T element, BinaryNode leftChild, BinaryNode rightChild,
+				int level) {
+			this.element = element;
+			this.leftChild = leftChild;
+			this.rightChild = rightChild;
+			this.level = level;
+		}
+
+		/**
+		 * Returns this node with the given children, copied unless they
+		 * are the ones it already has
+		 *
+		 * @param left
+		 * @param right
+		 * @return
+		 */
+		BinaryNode with(BinaryNode left, BinaryNode right) {
+			if (left == this.leftChild && right == this.rightChild) {
+				return this;
+			}
+			return new BinaryNode(this.element, left, right, this.level);
+		}
+	}
+
+}
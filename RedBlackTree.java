@@ -1,11 +1,21 @@
 package redblacktree;
 
 import java.lang.reflect.Array;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
 import java.util.Stack;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * 
@@ -20,10 +30,19 @@ import java.util.Stack;
 @SuppressWarnings("rawtypes")
 public class RedBlackTree<T extends Comparable<? super T>> implements
 		Iterable<RedBlackTree.BinaryNode> {
+	/*
+	 * A red-black tree of n nodes is at most 2 log(n + 1) deep, so a path of
+	 * 64 nodes covers any int size
+	 */
+	private static final int MAX_HEIGHT = 64;
+
 	public BinaryNode root;
 	private int rotCount;
 	public int modCont = 0;
 	public int size = 0;
+	private final Comparator<? super T> comparator;
+	private final ToLongFunction<? super T> keyOf;
+	private final ToLongFunction<? super T> endOf;
 
 	public enum Color {
 		RED, BLACK
@@ -33,7 +52,50 @@ public class RedBlackTree<T extends Comparable<? super T>> implements
 	 * No args constructor for a BinarySearchTree that will set the root to null
 	 */
 	public RedBlackTree() {
-		root = null;
+		this(null, null, null);
+	}
+
+	/**
+	 * @param comparator
+	 *            - The order to keep the elements in, or null for their
+	 *            natural order
+	 * 
+	 *            Creates an empty tree ordered by comparator
+	 */
+	public RedBlackTree(Comparator<? super T> comparator) {
+		this(comparator, null, null);
+	}
+
+	/**
+	 * @param keyOf
+	 *            - Maps each element to the long it is ordered by. Elements
+	 *            with the same key count as the same element
+	 * 
+	 *            Creates an empty tree ordered by a primitive key. contains
+	 *            takes the key of the element searched for once and then
+	 *            compares longs all the way down
+	 */
+	public RedBlackTree(ToLongFunction<? super T> keyOf) {
+		this(null, keyOf, null);
+		if (keyOf == null)
+			throw new IllegalArgumentException();
+	}
+
+	/**
+	 * @param comparator
+	 *            - The order of the elements, or null for their natural order
+	 * @param keyOf
+	 *            - A long key to order by instead, or null
+	 * @param endOf
+	 *            - When not null, every node also tracks the element of its
+	 *            subtree with the largest end, for IntervalTree
+	 */
+	RedBlackTree(Comparator<? super T> comparator,
+			ToLongFunction<? super T> keyOf, ToLongFunction<? super T> endOf) {
+		this.root = null;
+		this.comparator = comparator;
+		this.keyOf = keyOf;
+		this.endOf = endOf;
 	}
 
 	/**
@@ -44,9 +106,96 @@ public class RedBlackTree<T extends Comparable<? super T>> implements
 	 *            BinaryNode and make it the root
 	 */
 	public RedBlackTree(BinaryNode n) {
+		this(null, null, null);
 		root = n;
 	}
 
+	/**
+	 * @return Comparator - The comparator the tree is ordered by, or null if
+	 *         it uses the natural order of its elements
+	 */
+	public Comparator<? super T> comparator() {
+		if (keyOf != null)
+			return Comparator.comparingLong(keyOf);
+		return comparator;
+	}
+
+	/**
+	 * @param a
+	 *            - The first element
+	 * @param b
+	 *            - The second element
+	 * @return int - Negative, zero or positive as a is below, equal to or
+	 *         above b in the tree's order
+	 * 
+	 *         Every comparison in the tree goes through here, once per level
+	 *         of a descent
+	 */
+	int compare(T a, T b) {
+		if (keyOf != null)
+			return Long.compare(keyOf.applyAsLong(a), keyOf.applyAsLong(b));
+		if (comparator != null)
+			return comparator.compare(a, b);
+		return a.compareTo(b);
+	}
+
+	/**
+	 * @param el
+	 *            - The element to look for
+	 * @return boolean - true if the element is in the tree; false otherwise
+	 */
+	public boolean contains(T el) {
+		if (el == null)
+			return false;
+		BinaryNode current = root;
+		if (keyOf != null) {
+			long key = keyOf.applyAsLong(el);
+			while (current != null) {
+				long other = keyOf.applyAsLong(current.element);
+				if (key == other)
+					return true;
+				current = (key < other) ? current.leftChild
+						: current.rightChild;
+			}
+			return false;
+		}
+		return current != null && current.find(el);
+	}
+
+	/**
+	 * @param it
+	 *            - The elements in strictly ascending order
+	 * @param size
+	 *            - How many elements to take from it
+	 * @return RedBlackTree<T> - A tree holding the first size elements of it
+	 * 
+	 *         Builds a perfectly balanced tree straight from sorted input in
+	 *         O(n), with no rotations. Throws an IllegalArgumentException if
+	 *         it runs out early or its elements are not strictly ascending
+	 */
+	public static <T extends Comparable<? super T>> RedBlackTree<T> buildFromSorted(
+			Iterator<? extends T> it, int size) {
+		if (it == null || size < 0)
+			throw new IllegalArgumentException();
+		RedBlackTree<T> tree = new RedBlackTree<T>();
+		tree.load(it, size);
+		return tree;
+	}
+
+	/**
+	 * @param a
+	 *            - The elements in strictly ascending order
+	 * @return RedBlackTree<T> - A tree holding the elements of a
+	 * 
+	 *         See buildFromSorted
+	 */
+	public static <T extends Comparable<? super T>> RedBlackTree<T> fromSortedArray(
+			T[] a) {
+		if (a == null)
+			throw new IllegalArgumentException();
+		return buildFromSorted(Arrays.asList(a).iterator(), a.length);
+	}
+
 	/**
 	 * 
 	 * @return int height of tree
@@ -73,8 +222,8 @@ public class RedBlackTree<T extends Comparable<? super T>> implements
 	/**
 	 * @return int - The size of the tree
 	 * 
-	 *         This method will recursively traverse through the tree and then
-	 *         return the size. If the root is equal to null, it will return 0
+	 *         Returns the subtree count kept in the root, so this no longer
+	 *         walks the tree. If the root is equal to null, it will return 0
 	 */
 	public int size() {
 		if (root == null)
@@ -82,6 +231,449 @@ public class RedBlackTree<T extends Comparable<? super T>> implements
 		return root.size();
 	}
 
+	/**
+	 * @param el
+	 *            - The element to rank
+	 * @return int - The number of elements in the tree smaller than el
+	 * 
+	 *         Walks down from the root adding up the left subtree counts of
+	 *         every node the search passes to the right of. The element does
+	 *         not have to be in the tree
+	 */
+	public int rank(T el) {
+		return countBelow(el, false);
+	}
+
+	/**
+	 * @param k
+	 *            - The zero based position in sorted order
+	 * @return T - The k-th smallest element
+	 * 
+	 *         Uses the subtree counts to steer towards the k-th element in
+	 *         O(log n). Throws an IndexOutOfBoundsException if k is not
+	 *         between 0 and size() - 1
+	 */
+	public T select(int k) {
+		if (k < 0 || k >= size())
+			throw new IndexOutOfBoundsException("k: " + k + ", size: "
+					+ size());
+		BinaryNode current = root;
+		while (true) {
+			int left = countOf(current.leftChild);
+			if (k < left) {
+				current = current.leftChild;
+			} else if (k > left) {
+				k -= left + 1;
+				current = current.rightChild;
+			} else {
+				return current.element;
+			}
+		}
+	}
+
+	/**
+	 * @param lo
+	 *            - The lower bound, inclusive
+	 * @param hi
+	 *            - The upper bound, inclusive
+	 * @return int - The number of elements between lo and hi
+	 * 
+	 *         Counts the elements in [lo, hi] with two O(log n) descents.
+	 *         Returns 0 if lo is greater than hi
+	 */
+	public int countInRange(T lo, T hi) {
+		if (compare(lo, hi) > 0)
+			return 0;
+		return countBelow(hi, true) - countBelow(lo, false);
+	}
+
+	/**
+	 * @param el
+	 *            - The element to count up to
+	 * @param inclusive
+	 *            - Whether an element equal to el is counted
+	 * @return int - The number of elements smaller than (or equal to) el
+	 */
+	private int countBelow(T el, boolean inclusive) {
+		int below = 0;
+		BinaryNode current = root;
+		while (current != null) {
+			int compare = compare(el, current.element);
+			if (compare < 0) {
+				current = current.leftChild;
+			} else if (compare > 0) {
+				below += countOf(current.leftChild) + 1;
+				current = current.rightChild;
+			} else {
+				below += countOf(current.leftChild);
+				return inclusive ? below + 1 : below;
+			}
+		}
+		return below;
+	}
+
+	/**
+	 * @param n
+	 *            - The node to count
+	 * @return int - The number of nodes under n, or 0 if n is null
+	 */
+	private int countOf(BinaryNode n) {
+		return n == null ? 0 : n.count;
+	}
+
+	/*
+	 * The probes below are the reads of StampedRedBlackTree's optimistic
+	 * mode. They may overlap a write on another thread, so each reads a
+	 * link once, treats a node whose element is not set yet as torn and
+	 * gives up past MAX_HEIGHT levels, which no finished tree reaches. The
+	 * caller has to validate before trusting what they return
+	 */
+	static final int TORN = -1;
+
+	/**
+	 * @param el
+	 *            - The element to look for
+	 * @return int - 1 if el is in the tree, 0 if not, or TORN
+	 */
+	int probe(T el) {
+		BinaryNode current = root;
+		for (int depth = 0; current != null; depth++) {
+			T e = current.element;
+			if (e == null || depth == MAX_HEIGHT)
+				return TORN;
+			int compare = compare(el, e);
+			if (compare == 0)
+				return 1;
+			current = compare < 0 ? current.leftChild : current.rightChild;
+		}
+		return 0;
+	}
+
+	/**
+	 * @return int - The size of the tree, reading the root once
+	 */
+	int probeSize() {
+		BinaryNode r = root;
+		return r == null ? 0 : r.count;
+	}
+
+	/**
+	 * @param el
+	 *            - The element to count up to
+	 * @param inclusive
+	 *            - Whether an element equal to el is counted
+	 * @return int - countBelow(el, inclusive), or TORN
+	 */
+	int probeCountBelow(T el, boolean inclusive) {
+		int below = 0;
+		BinaryNode current = root;
+		for (int depth = 0; current != null; depth++) {
+			T e = current.element;
+			if (e == null || depth == MAX_HEIGHT)
+				return TORN;
+			int compare = compare(el, e);
+			BinaryNode left = current.leftChild;
+			if (compare < 0) {
+				current = left;
+			} else if (compare > 0) {
+				below += countOf(left) + 1;
+				current = current.rightChild;
+			} else {
+				below += countOf(left);
+				return inclusive ? below + 1 : below;
+			}
+		}
+		return below;
+	}
+
+	/**
+	 * @param lo
+	 *            - The lower bound, inclusive, or null for none
+	 * @param hi
+	 *            - The upper bound, inclusive, or null for none
+	 * @param out
+	 *            - Where the elements in [lo, hi] are added, in order
+	 * @param bounded
+	 *            - Whether to give up after visiting as many nodes as the
+	 *            tree has plus two paths, which only a torn walk does
+	 * @return boolean - false if the walk was torn, with out holding
+	 *         whatever it had found by then
+	 */
+	@SuppressWarnings("unchecked")
+	boolean probeRange(T lo, T hi, List<T> out, boolean bounded) {
+		int limit = bounded ? probeSize() + 2 * MAX_HEIGHT : Integer.MAX_VALUE;
+		BinaryNode[] stack = (BinaryNode[]) new RedBlackTree.BinaryNode[
+				MAX_HEIGHT];
+		int top = 0;
+		int steps = 0;
+		BinaryNode current = root;
+		while (true) {
+			while (current != null) {
+				T e = current.element;
+				if (e == null || top == MAX_HEIGHT || ++steps > limit)
+					return false;
+				if (lo != null && compare(e, lo) < 0) {
+					current = current.rightChild;
+				} else {
+					stack[top++] = current;
+					current = current.leftChild;
+				}
+			}
+			if (top == 0)
+				return true;
+			BinaryNode n = stack[--top];
+			T e = n.element;
+			if (hi != null && compare(e, hi) > 0)
+				return true;
+			out.add(e);
+			current = n.rightChild;
+		}
+	}
+
+	/**
+	 * @param pivot
+	 *            - The element to split at
+	 * @return RedBlackTree<T> - A new tree holding every element greater than
+	 *         or equal to pivot
+	 * 
+	 *         Leaves the elements smaller than pivot in this tree and moves
+	 *         the rest, nodes and all, into a new tree in O(log n). The walk
+	 *         down to pivot cuts the tree into the subtrees hanging off the
+	 *         search path; on the way back up they are joined onto either
+	 *         side by black height
+	 */
+	public RedBlackTree<T> split(T pivot) {
+		if (pivot == null)
+			throw new IllegalArgumentException();
+		if (root == null)
+			return new RedBlackTree<T>(comparator, keyOf, endOf);
+
+		myBool b = new myBool();
+		Split s = split(root, blackHeight(root), pivot, b);
+		rotCount += b.rotations;
+		root = s.lower.root;
+		if (root != null)
+			root.color = Color.BLACK;
+		RedBlackTree<T> upper = new RedBlackTree<T>(comparator, keyOf, endOf);
+		upper.root = s.upper.root;
+		if (upper.root != null)
+			upper.root.color = Color.BLACK;
+		modCont++;
+		return upper;
+	}
+
+	/**
+	 * @param other
+	 *            - The tree to append, whose elements must all be greater than
+	 *            this tree's
+	 * 
+	 *            Moves every element of other onto the end of this tree in
+	 *            O(log n), leaving other empty. The smallest element of other
+	 *            is taken out and the two trees are joined around it by black
+	 *            height. Throws an IllegalArgumentException if the key ranges
+	 *            overlap
+	 */
+	public void concat(RedBlackTree<T> other) {
+		if (other == null || other == this)
+			throw new IllegalArgumentException();
+		if (other.comparator != comparator || other.keyOf != keyOf
+				|| other.endOf != endOf)
+			throw new IllegalArgumentException(
+					"the trees are not in the same order");
+		if (other.root == null)
+			return;
+		if (root == null) {
+			root = other.root;
+		} else {
+			T first = other.root.minValue();
+			if (compare(root.maxValue(), first) >= 0)
+				throw new IllegalArgumentException("key ranges overlap");
+			other.remove(first);
+
+			BinaryNode k = new BinaryNode();
+			k.element = first;
+			myBool b = new myBool();
+			Piece joined = join(new Piece(root, blackHeight(root)), k,
+					new Piece(other.root, blackHeight(other.root)), b);
+			rotCount += b.rotations;
+			root = joined.root;
+		}
+		other.root = null;
+		other.modCont++;
+		modCont++;
+	}
+
+	/**
+	 * @param n
+	 *            - The root of a subtree
+	 * @return int - The number of black nodes on every path from n down to a
+	 *         null, n included
+	 */
+	private int blackHeight(BinaryNode n) {
+		int height = 0;
+		for (; n != null; n = n.leftChild)
+			if (n.color == Color.BLACK)
+				height++;
+		return height;
+	}
+
+	/**
+	 * @param t
+	 *            - The subtree to split; it is taken apart
+	 * @param height
+	 *            - The black height of t
+	 * @param pivot
+	 *            - The element to split at
+	 * @param b
+	 *            - Counts the rotations
+	 * @return Split - The elements of t below pivot and the rest
+	 * 
+	 *         The joins on the way up telescope: each costs the difference in
+	 *         black height between the pieces, so the whole split is O(log n)
+	 */
+	private Split split(BinaryNode t, int height, T pivot, myBool b) {
+		if (t == null)
+			return new Split(new Piece(null, 0), new Piece(null, 0));
+
+		int below = (t.color == Color.BLACK) ? height - 1 : height;
+		int compare = compare(pivot, t.element);
+		if (compare == 0) {
+			Piece right = new Piece(t.rightChild, below);
+			return new Split(new Piece(t.leftChild, below), join(new Piece(
+					null, 0), t, right, b));
+		}
+
+		if (compare < 0) {
+			BinaryNode right = t.rightChild;
+			Split s = split(t.leftChild, below, pivot, b);
+			s.upper = join(s.upper, t, new Piece(right, below), b);
+			return s;
+		}
+
+		BinaryNode left = t.leftChild;
+		Split s = split(t.rightChild, below, pivot, b);
+		s.lower = join(new Piece(left, below), t, s.lower, b);
+		return s;
+	}
+
+	/**
+	 * @param l
+	 *            - The smaller elements
+	 * @param k
+	 *            - The node that goes between them; its links are reset
+	 * @param r
+	 *            - The larger elements
+	 * @param b
+	 *            - Counts the rotations
+	 * @return Piece - A valid red-black tree of l, k and r with a black root
+	 * 
+	 *         Both roots are made black first. If the black heights match, k
+	 *         becomes a black root over both. Otherwise k goes in red down the
+	 *         inner spine of the taller tree, in place of the first black node
+	 *         with the shorter tree's black height, which becomes k's child.
+	 *         Any red parent that leaves is fixed the way insert fixes one:
+	 *         a color flip when the uncle is red, moving up two levels, or a
+	 *         ConsecutiveReds rotation when it is black
+	 */
+	private Piece join(Piece l, BinaryNode k, Piece r, myBool b) {
+		BinaryNode t1 = l.root;
+		BinaryNode t2 = r.root;
+		int h1 = l.height;
+		int h2 = r.height;
+		if (t1 != null && t1.color == Color.RED) {
+			t1.color = Color.BLACK;
+			h1++;
+		}
+		if (t2 != null && t2.color == Color.RED) {
+			t2.color = Color.BLACK;
+			h2++;
+		}
+
+		if (h1 == h2) {
+			k.leftChild = t1;
+			k.rightChild = t2;
+			k.color = Color.BLACK;
+			k.recount();
+			return new Piece(k, h1 + 1);
+		}
+
+		boolean right = h1 > h2;
+		int target = right ? h2 : h1;
+		int height = right ? h1 : h2;
+		BinaryNode current = right ? t1 : t2;
+		ArrayList<BinaryNode> path = new ArrayList<BinaryNode>();
+		while (height != target
+				|| (current != null && current.color == Color.RED)) {
+			path.add(current);
+			if (current.color == Color.BLACK)
+				height--;
+			current = right ? current.rightChild : current.leftChild;
+		}
+
+		BinaryNode parent = path.get(path.size() - 1);
+		k.color = Color.RED;
+		if (right) {
+			k.leftChild = current;
+			k.rightChild = t2;
+			parent.rightChild = k;
+		} else {
+			k.leftChild = t1;
+			k.rightChild = current;
+			parent.leftChild = k;
+		}
+		k.recount();
+		for (int i = path.size() - 1; i >= 0; i--)
+			path.get(i).recount();
+
+		b.root = path.get(0);
+		BinaryNode z = k;
+		for (int i = path.size() - 1; i > 0; i -= 2) {
+			BinaryNode p = path.get(i);
+			if (p.color != Color.RED)
+				break;
+			BinaryNode grand = path.get(i - 1);
+			if (!grand.colorFlip()) {
+				z.ConsecutiveReds(b, p, grand, (i > 1) ? path.get(i - 2)
+						: null);
+				break;
+			}
+			z = grand;
+		}
+
+		int joined = right ? h1 : h2;
+		if (b.root.color == Color.RED) {
+			b.root.color = Color.BLACK;
+			joined++;
+		}
+		return new Piece(b.root, joined);
+	}
+
+	/**
+	 * A subtree together with its black height
+	 */
+	private class Piece {
+		BinaryNode root;
+		int height;
+
+		Piece(BinaryNode root, int height) {
+			this.root = root;
+			this.height = height;
+		}
+	}
+
+	/**
+	 * The two sides of a split
+	 */
+	private class Split {
+		Piece lower;
+		Piece upper;
+
+		Split(Piece lower, Piece upper) {
+			this.lower = lower;
+			this.upper = upper;
+		}
+	}
+
 	/**
 	 * 
 	 * @return true if root is null, false otherwise
@@ -109,6 +701,45 @@ public class RedBlackTree<T extends Comparable<? super T>> implements
 		return new PreOrderIterator(root);
 	}
 
+	/**
+	 * @return Spliterator<T> - A spliterator over the elements in ascending
+	 *         order
+	 * 
+	 *         iterator() hands out nodes in pre order, so this is the way to
+	 *         get at the elements themselves in order. Splits follow subtree
+	 *         boundaries and both halves know their exact size from the
+	 *         subtree counts, so the spliterator is SIZED and SUBSIZED
+	 */
+	public Spliterator<T> elementSpliterator() {
+		return new InOrderSpliterator(root, null, size());
+	}
+
+	/**
+	 * @return Stream<T> - A sequential stream of the elements in ascending
+	 *         order
+	 */
+	public Stream<T> stream() {
+		return StreamSupport.stream(elementSpliterator(), false);
+	}
+
+	/**
+	 * @return Stream<T> - A parallel stream of the elements in ascending
+	 *         order
+	 */
+	public Stream<T> parallelStream() {
+		return StreamSupport.stream(elementSpliterator(), true);
+	}
+
+	/**
+	 * @return Cursor - A new cursor over this tree, not yet on any element
+	 * 
+	 *         The cursor allocates its path once, here, and can be reset and
+	 *         reused for any number of walks
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
 	/**
 	 * Inserts elements into the tree
 	 * 
@@ -120,13 +751,24 @@ public class RedBlackTree<T extends Comparable<? super T>> implements
 			root = new BinaryNode();
 			root.color = Color.BLACK;
 			root.element = element;
+			modCont++;
 			return true;
 		}
 
 		myBool check = new myBool();
-		root.colorFlip();
+		check.root = root;
 		root.insert(element, check, null, null, null);
+		root = check.root;
+		rotCount += check.rotations;
 		root.color = Color.BLACK;
+		// rotations keep every count right except on the path down to the
+		// new leaf, which only learns it grew once the leaf exists
+		if (check.isTrue())
+			root.recountPath(element);
+		// a key that is already there can still be rotated past on the way
+		// down, which moves nodes out from under cursors and spliterators
+		if (check.isTrue() || check.rotations != 0)
+			modCont++;
 		return check.isTrue();
 	}
 
@@ -161,46 +803,157 @@ public class RedBlackTree<T extends Comparable<? super T>> implements
 		}
 
 		boolean ret;
+		myBool check = new myBool();
+		check.root = root;
 		if (root.checkBlackKids()) {
 			root.color = Color.RED;
-			if (root.element.compareTo(el) < 0) {
-				if (root.rightChild == null) {
-					root.color = Color.BLACK;
-					return false;
-				}
+			ret = root.traverse(el, check, null, null, null);
+		} else {
+			ret = root.remove2B(el, check, null, null, null);
+		}
+		root = check.root;
+		rotCount += check.rotations;
 
-				ret = root.rightChild.remove2(el, root.leftChild, root, null);
-				root.color = Color.BLACK;
-				return ret;
-			}
+		if (root != null)
+			root.color = Color.BLACK;
 
-			if (root.element.compareTo(el) > 0) {
-				if (root.leftChild == null) {
-					root.color = Color.BLACK;
-					return false;
-				}
+		// as with insert, only the nodes above the unlinked one are stale
+		if (ret && root != null)
+			root.recountPath(check.unlinked);
+		// and a missing key can still cost rotations
+		if (ret || check.rotations != 0)
+			modCont++;
+		return ret;
 
-				ret = root.leftChild.remove2(el, root.rightChild, root, null);
+	}
 
-				if (root != null)
-					root.color = Color.BLACK;
-				return ret;
+	/**
+	 * @param c
+	 *            - The elements to add
+	 * @return true if the tree changed, false otherwise
+	 * 
+	 *         Adds every element of c. If the tree is empty and c is already
+	 *         in ascending order the tree is built straight from it in O(n),
+	 *         duplicates dropped; otherwise the elements are inserted one at
+	 *         a time
+	 */
+	public boolean addAll(Collection<? extends T> c) {
+		if (c == null)
+			throw new IllegalArgumentException();
+		Object[] a = c.toArray();
+		if (isEmpty()) {
+			int n = sortedDistinct(a);
+			if (n >= 0) {
+				@SuppressWarnings("unchecked")
+				List<T> sorted = (List<T>) (List<?>) Arrays.asList(a).subList(
+						0, n);
+				load(sorted.iterator(), n);
+				return n > 0;
 			}
+		}
+		boolean changed = false;
+		for (Object o : a) {
+			@SuppressWarnings("unchecked")
+			T e = (T) o;
+			changed |= insert(e);
+		}
+		return changed;
+	}
 
-			ret = root.remove3(null, null, null);
-			if (root != null) {
-				root.color = Color.BLACK;
+	/**
+	 * @param a
+	 *            - The elements to check
+	 * @return int - The number of distinct elements, which are moved to the
+	 *         front of a, if a is in ascending order; -1 otherwise
+	 */
+	@SuppressWarnings("unchecked")
+	private int sortedDistinct(Object[] a) {
+		int n = 0;
+		for (Object o : a) {
+			if (o == null)
+				throw new IllegalArgumentException();
+			if (n > 0) {
+				int compare = compare((T) a[n - 1], (T) o);
+				if (compare > 0)
+					return -1;
+				if (compare == 0)
+					continue;
 			}
-			return ret;
+			a[n++] = o;
 		}
+		return n;
+	}
 
-		ret = root.remove2B(el, null, null, null);
+	/**
+	 * @param it
+	 *            - The elements in strictly ascending order
+	 * @param n
+	 *            - How many elements to take from it
+	 * 
+	 *            Replaces the contents of the tree with a balanced tree of the
+	 *            next n elements of it. Every level is black except the
+	 *            bottom one when it is not full, which is red: each path then
+	 *            passes the same number of black nodes and no red node has
+	 *            children
+	 */
+	private void load(Iterator<? extends T> it, int n) {
+		int redLevel = 31 - Integer.numberOfLeadingZeros(n + 1);
+		root = build(new SortedFeed(it), n, 0, redLevel);
+		modCont++;
+	}
 
-		if (root != null)
-			root.color = Color.BLACK;
+	/**
+	 * @param feed
+	 *            - The source of the elements
+	 * @param n
+	 *            - The number of elements in the subtree
+	 * @param depth
+	 *            - The depth of the subtree's root
+	 * @param redLevel
+	 *            - The depth whose nodes are red
+	 * @return BinaryNode - The root of the subtree, or null if n is 0
+	 * 
+	 *         Builds the left half, takes the middle element and builds the
+	 *         right half, which gets the extra element when n is even
+	 */
+	private BinaryNode build(SortedFeed feed, int n, int depth, int redLevel) {
+		if (n == 0)
+			return null;
+		int leftCount = (n - 1) / 2;
+		BinaryNode left = build(feed, leftCount, depth + 1, redLevel);
+		BinaryNode node = new BinaryNode();
+		node.element = feed.next();
+		node.color = (depth == redLevel) ? Color.RED : Color.BLACK;
+		node.leftChild = left;
+		node.rightChild = build(feed, n - 1 - leftCount, depth + 1, redLevel);
+		node.recount();
+		return node;
+	}
 
-		return ret;
+	/**
+	 * Hands out the elements of an iterator, checking that they are strictly
+	 * ascending
+	 */
+	private class SortedFeed {
+		private final Iterator<? extends T> it;
+		private T last;
 
+		SortedFeed(Iterator<? extends T> it) {
+			this.it = it;
+		}
+
+		T next() {
+			if (!it.hasNext())
+				throw new IllegalArgumentException("ran out of elements");
+			T e = it.next();
+			if (e == null)
+				throw new IllegalArgumentException();
+			if (last != null && compare(last, e) >= 0)
+				throw new IllegalArgumentException(
+						"elements are not strictly ascending");
+			last = e;
+			return e;
+		}
 	}
 
 	/**
@@ -217,8 +970,13 @@ public class RedBlackTree<T extends Comparable<? super T>> implements
 		public T element;
 		public BinaryNode leftChild;
 		private BinaryNode rightChild;
-		private Stack<T> stack = new Stack<T>();
 		private Color color = Color.RED;
+		private int count = 1;
+		/*
+		 * The element of this subtree with the largest end when the tree
+		 * tracks ends, kept alongside count. Null means this node's own
+		 */
+		private T maxEnd;
 
 		/**
 		 * @return The height of the tree
@@ -261,65 +1019,48 @@ public class RedBlackTree<T extends Comparable<? super T>> implements
 		 *            - the grandparent of the current node
 		 * @return true if the node is removed, false otherwise
 		 */
-		public boolean remove3(BinaryNode sibling, BinaryNode parent,
+		public boolean remove3(myBool b, BinaryNode sibling, BinaryNode parent,
 				BinaryNode grand) {
 			if (this.leftChild == null && this.rightChild == null) {
-				if (parent == null) {
-					root = null;
-					return true;
-				}
-
-				if (parent.leftChild == this) {
-					parent.leftChild = null;
-				} else {
-					parent.rightChild = null;
-				}
-
+				b.unlinked = this.element;
+				b.relink(parent, this, null);
 				return true;
 			}
 
 			if (this.leftChild == null) {
 				this.rightChild.color = Color.BLACK;
-				if (parent == null) {
-					root = this.rightChild;
-					return true;
-				}
-				if (this == parent.leftChild) {
-					parent.leftChild = this.rightChild;
-					return true;
-				}
-
-				parent.rightChild = this.rightChild;
+				b.unlinked = this.element;
+				b.relink(parent, this, this.rightChild);
 				return true;
 			}
 
 			if (this.rightChild == null) {
 				this.leftChild.color = Color.BLACK;
-				if (parent == null) {
-					root = this.leftChild;
-					return true;
-				}
-				if (this == parent.leftChild) {
-					parent.leftChild = this.leftChild;
-					return true;
-				}
-
-				parent.rightChild = this.leftChild;
+				b.unlinked = this.element;
+				b.relink(parent, this, this.leftChild);
 				return true;
 			}
 
 			T temp = this.leftChild.maxValue();
+			this.element = temp;
 
 			if (this.color == Color.RED) {
-				this.element = temp;
-				return this.leftChild.remove2(temp, this.rightChild, this,
+				return this.leftChild.remove2(temp, b, this.rightChild, this,
 						parent);
 			}
 
-			this.remove2B(temp, sibling, parent, grand);
-			this.element = temp;
+			// black with a red child (case 2B): step onto the red child, or
+			// rotate the red right child up so the left one gets a red parent
+			if (this.leftChild.color == Color.RED) {
+				return this.leftChild.traverse(temp, b, this.rightChild, this,
+						parent);
+			}
 
-			return true;
+			BinaryNode red = this.rightChild;
+			b.relink(parent, this, this.removeRotateLeft(b));
+			red.color = Color.BLACK;
+			this.color = Color.RED;
+			return this.leftChild.remove2(temp, b, this.rightChild, this, red);
 		}
 
 		/**
@@ -336,118 +1077,127 @@ public class RedBlackTree<T extends Comparable<? super T>> implements
 		 *         this will remove the node. This method will take it to the
 		 *         respective node
 		 */
-		public boolean remove2(T el, BinaryNode sibling, BinaryNode parent,
-				BinaryNode grand) {
-			if (sibling == null)
-				System.out.println("sibling is null at " + this.element);
+		public boolean remove2(T el, myBool b, BinaryNode sibling,
+				BinaryNode parent, BinaryNode grand) {
 			if (this.checkBlackKids())
-				return remove2A(el, sibling, parent, grand);
-			return this.remove2B(el, sibling, parent, grand);
+				return remove2A(el, b, sibling, parent, grand);
+			return this.remove2B(el, b, sibling, parent, grand);
 
 		}
 
-		public boolean remove2B(T el, BinaryNode sibling, BinaryNode parent,
-				BinaryNode grand) {
-
-			if (this.element.compareTo(el) == 0) {
-				return this.remove3(sibling, parent, grand);
-			}
-
-			if (this.element.compareTo(el) > 0) {
-				if (this.leftChild == null)
-					return false;
-
-				if (this.leftChild.color == Color.BLACK) {
-					return this.leftChild.remove2B2(el, this.rightChild, this,
-							parent);
-				}
+		public boolean remove2B(T el, myBool b, BinaryNode sibling,
+				BinaryNode parent, BinaryNode grand) {
 
-				return this.leftChild.remove2B1(el, this.rightChild, this,
-						parent);
+			int compare = compare(el, this.element);
+			if (compare == 0) {
+				return this.remove3(b, sibling, parent, grand);
 			}
 
-			if (this.rightChild == null)
+			BinaryNode next = compare < 0 ? this.leftChild : this.rightChild;
+			BinaryNode other = compare < 0 ? this.rightChild : this.leftChild;
+			if (next == null)
 				return false;
 
-			if (this.rightChild.color == Color.BLACK) {
-				return this.rightChild.remove2B2(el, this.leftChild, this,
-						parent);
+			if (next.color == Color.BLACK) {
+				return next.remove2B2(el, b, other, this, parent);
 			}
 
-			return this.rightChild.remove2B1(el, this.leftChild, this, parent);
+			return next.remove2B1(el, b, other, this, parent);
 
 		}
 
-		private boolean remove2B2(T el, BinaryNode sibling, BinaryNode parent,
-				BinaryNode grand) {
+		private boolean remove2B2(T el, myBool b, BinaryNode sibling,
+				BinaryNode parent, BinaryNode grand) {
 
 			parent.color = Color.RED;
 			sibling.color = Color.BLACK;
 
 			if (parent.leftChild == sibling) {
-				if (grand == null) {
-					root = parent.removeRotateRight();
-				}
-
-				else if (parent == grand.leftChild) {
-					grand.leftChild = parent.removeRotateRight();
-				} else {
-					grand.rightChild = parent.removeRotateRight();
-				}
-
-				return this.remove2(el, parent.leftChild, parent, sibling);
-
-			}
-			if (grand == null) {
-				root = parent.removeRotateLeft();
-			}
-
-			else if (parent == grand.leftChild) {
-				grand.leftChild = parent.removeRotateLeft();
-			} else {
-				grand.rightChild = parent.removeRotateLeft();
+				b.relink(grand, parent, parent.removeRotateRight(b));
+				return this.remove2(el, b, parent.leftChild, parent, sibling);
 			}
 
-			return this.remove2(el, parent.rightChild, parent, sibling);
+			b.relink(grand, parent, parent.removeRotateLeft(b));
+			return this.remove2(el, b, parent.rightChild, parent, sibling);
 
 		}
 
-		private boolean remove2B1(T el, BinaryNode sibling, BinaryNode parent,
-				BinaryNode grand) {
-			return this.traverse(el, sibling, parent, grand);
+		private boolean remove2B1(T el, myBool b, BinaryNode sibling,
+				BinaryNode parent, BinaryNode grand) {
+			return this.traverse(el, b, sibling, parent, grand);
 		}
 
+		/**
+		 * @param el
+		 *            - The element to look for
+		 * @return boolean - true if el is in this subtree
+		 * 
+		 *         Walks down with one comparison per level
+		 */
 		public boolean find(T el) {
-			boolean left = false;
-			boolean right = false;
-			if (this.element.compareTo(el) == 0)
-				return true;
-
-			if (this.rightChild != null && this.element.compareTo(el) < 0) {
-				left = this.rightChild.find(el);
-			}
-			if (this.leftChild != null && this.element.compareTo(el) > 0) {
-				right = this.leftChild.find(el);
+			BinaryNode current = this;
+			while (current != null) {
+				int compare = compare(el, current.element);
+				if (compare == 0)
+					return true;
+				current = compare < 0 ? current.leftChild : current.rightChild;
 			}
-
-			return right || left;
+			return false;
 		}
 
 		/**
 		 * @return int - The size of the tree
 		 * 
-		 *         This method will recursively traverse through the tree and
-		 *         then return the size
+		 *         Returns the number of nodes in this subtree, which every
+		 *         insert, remove and rotation keeps up to date
 		 */
 		public int size() {
-			int sizevar = 1;
-			if (rightChild != null) {
-				sizevar += rightChild.size();
-			}
-			if (leftChild != null) {
-				sizevar += leftChild.size();
+			return count;
+		}
+
+		/**
+		 * Recomputes this node's count from the counts of its children, and
+		 * its largest end if the tree tracks ends. Every rotation and every
+		 * node on the path of an insert or remove goes through here, so both
+		 * stay right through the top-down removal cases
+		 */
+		private void recount() {
+			this.count = 1 + countOf(this.leftChild) + countOf(this.rightChild);
+			if (endOf != null) {
+				T max = this.element;
+				if (this.leftChild != null)
+					max = laterEnd(max, this.leftChild.maxEnd());
+				if (this.rightChild != null)
+					max = laterEnd(max, this.rightChild.maxEnd());
+				this.maxEnd = max;
 			}
-			return sizevar;
+		}
+
+		private T laterEnd(T a, T b) {
+			return endOf.applyAsLong(b) > endOf.applyAsLong(a) ? b : a;
+		}
+
+		/**
+		 * @return T - The element of this subtree with the largest end
+		 */
+		private T maxEnd() {
+			return (this.maxEnd == null) ? this.element : this.maxEnd;
+		}
+
+		/**
+		 * @param key
+		 *            - The element whose search path is recounted
+		 * 
+		 *            Recounts every node on the way down to key, bottom-up. A
+		 *            node holding key itself sends the walk left, since that
+		 *            is where a copied-up predecessor was unlinked from
+		 */
+		private void recountPath(T key) {
+			BinaryNode next = compare(key, this.element) > 0 ? this.rightChild
+					: this.leftChild;
+			if (next != null)
+				next.recountPath(key);
+			this.recount();
 		}
 
 		/**
@@ -487,142 +1237,48 @@ public class RedBlackTree<T extends Comparable<? super T>> implements
 		 *         Tree keeping track of the various positions such as the
 		 *         parent, grandparent, and great grandparent. It will return
 		 *         the myBool as true if the element is successfully inserted,
-		 *         false otherwise. It will also balance the tree as needed
-		 *         testing as it goes up and down the tree for all possible
-		 *         cases
+		 *         false otherwise. On the way down every node with two red
+		 *         children is color flipped and any consecutive reds that
+		 *         leaves are rotated away, so the new red leaf only ever needs
+		 *         one more rotation
 		 */
 		public void insert(T i, myBool b, BinaryNode parent, BinaryNode grand,
 				BinaryNode gg) {
-			this.colorFlip();
-			this.ConsecutiveReds(parent, grand, gg);
-
-			if (i.compareTo(element) < 0) { // i < element
-				if (leftChild != null) {
-					leftChild.insert(i, b, this, parent, grand);
-					return;
+			BinaryNode current = this;
+			if (this.colorFlip()) {
+				if (parent == null)
+					this.color = Color.BLACK; // the root stays black
+				BinaryNode top = this.ConsecutiveReds(b, parent, grand, gg);
+				if (top != null) {
+					// carry on below the rotated subtree. Its parent is gg; the
+					// node above that is not tracked, but top's children are red
+					// with black children so nothing below can rotate that high
+					current = top;
+					parent = gg;
+					grand = null;
 				}
-				leftChild = new BinaryNode();
-				leftChild.element = i;
-
-				if (color == Color.RED) {
-					if (parent != null) {
-						if (grand != null) { // Check for possible root cases
-												// with grand and parent
-							if (grand.element.compareTo(parent.element) > 0) {
-								// right-left
-								if (parent.rightChild == this) {
-									this.leftChild.swapColor(); // make sure to
-																// swap the
-																// colors before
-																// rotating
-									this.swapColor();
-									parent.rightChild = this.rotateRight();
-									grand.leftChild = parent.rotateLeft();
-
-								}
-								// right rotation
-								else {
-									grand.leftChild = parent.rotateRight();
-								}
-							} else {
-								// right-left rotate
-								if (parent.rightChild == this) {
-									this.leftChild.swapColor();
-									this.swapColor();
-									parent.rightChild = this.rotateRight();
-									grand.rightChild = parent.rotateLeft();
-
-								}
-								// right-right
-								else {
-									grand.rightChild = parent.rotateRight();
-								}
-							}
-						}
-
-						// Check root cases as the parent
-						if (parent == root) {
-							// double rotate first the pr then the root
-							if (parent.rightChild == this) {
-								this.swapColor();
-								this.leftChild.swapColor();
-								parent.rightChild = this.rotateRight();
-								root = root.rotateLeft();
-							}
-
-							// rotate the root right
-							else {
-								root = root.rotateRight();
-							}
-						}
-					}
-				}
-
-				b.setBool();
 			}
 
-			if (i.compareTo(element) > 0) { // i > element
-				if (rightChild != null) {
-					rightChild.insert(i, b, this, parent, grand);
-					return;
-				}
-				rightChild = new BinaryNode();
-				rightChild.element = i;
-
-				if (isRed(this)) { // test to see if this is red
-					if (parent != null) { // check to see if there is the parent
-						if (grand != null) { // check to see if the grand exists
-							if (grand.element.compareTo(parent.element) > 0) {
-								// double rotation first left then rotate the
-								// parent right
-								if (parent.leftChild == this) {
-									this.rightChild.swapColor();
-									this.swapColor();
-									parent.leftChild = this.rotateLeft();
-									grand.leftChild = parent.rotateRight();
-
-								}
-								// single left rotation on parent
-								else {
-									grand.leftChild = parent.rotateLeft();
-								}
-							} else {
-								if (parent.leftChild == this) {
-									this.rightChild.swapColor();
-									this.swapColor();
-									parent.leftChild = this.rotateLeft();
-									grand.rightChild = parent.rotateRight();
-
-								}
-								// single left rotate
-								else {
-									grand.rightChild = parent.rotateLeft();
-								}
-							}
-						}
-
-						if (parent == root) {
-							// will double rotate the root to the left then
-							// right
-							if (parent.leftChild == this) {
-								this.swapColor();
-								this.rightChild.swapColor();
-								parent.leftChild = this.rotateLeft();
-								root = root.rotateRight();
-							}
-
-							// will rotate the root to the left
-							else {
-								root = root.rotateLeft();
-							}
-						}
-
-					}
-				}
-				b.setBool();
+			int compare = compare(i, current.element);
+			if (compare == 0)
+				return;
 
+			BinaryNode next = compare < 0 ? current.leftChild
+					: current.rightChild;
+			if (next != null) {
+				next.insert(i, b, current, parent, grand);
+				return;
 			}
 
+			next = new BinaryNode();
+			next.element = i;
+			if (compare < 0)
+				current.leftChild = next;
+			else
+				current.rightChild = next;
+
+			next.ConsecutiveReds(b, current, parent, grand);
+			b.setBool();
 		}
 
 		/**
@@ -634,92 +1290,42 @@ public class RedBlackTree<T extends Comparable<? super T>> implements
 		 * @param gg
 		 *            - The great grandparent of the current node
 		 * 
+		 * @return The node now at grand's position if a rotation was needed,
+		 *         null otherwise
+		 * 
 		 *            This method will test all of the consecutive red nodes. If
 		 *            it finds some, it will then perform rotations based on
 		 *            what if required
 		 */
-		private void ConsecutiveReds(BinaryNode parent, BinaryNode grand,
-				BinaryNode gg) {
-			if (parent != null) {
-				if (this.color == Color.RED && parent.color == Color.RED) {
-
-					// check to see if the great grand == null for root and
-					// double rotates
-					if (gg != null) {
-
-						if (gg.leftChild == grand && grand.leftChild == parent) {
-
-							// double rotate left and right
-							if (parent.rightChild == this) {
-								this.swapColor();
-								parent.swapColor();
-								grand.leftChild = parent.rotateLeft();
-								gg.leftChild = grand.rotateRight();
-								return;
-							}
-							// Rotate to the right
-							else {
-								gg.leftChild = grand.rotateRight();
-								return;
-							}
-						}
-
-						// Right child of the gg gets worked with
-						if (gg.rightChild == grand
-								&& grand.rightChild == parent) {
-
-							// double rotate with a right and left
-							if (parent.leftChild == this) {
-								this.swapColor();
-								parent.swapColor();
-								grand.rightChild = parent.rotateRight();
-								gg.rightChild = grand.rotateLeft();
-								return;
-							}
-							// rotate the child of the great grand to the left
-							else {
-								gg.rightChild = grand.rotateLeft();
-								return;
-							}
-						}
-
-					}
-
-					// This will check for root cases
-					if (grand == root) {
-
-						// handles root double rotations
-						if (grand.leftChild == parent) {
-							if (parent.rightChild == this) {
-								this.swapColor();
-								parent.swapColor();
-								grand.leftChild = parent.rotateLeft();
-								root = root.rotateRight();
-
-								return;
-							}
-							root = root.rotateRight();
-							return;
-						}
-
-						// grand left != parent
-						else {
-							// handles root double rotations
-							if (parent.leftChild == this) {
-								this.swapColor();
-								parent.swapColor();
-								grand.rightChild = parent.rotateRight();
-								root = root.rotateLeft();
-								return;
-							}
-
-							//
-							root = root.rotateLeft();
-							return;
-						}
-					}
+		private BinaryNode ConsecutiveReds(myBool b, BinaryNode parent,
+				BinaryNode grand, BinaryNode gg) {
+			if (parent == null || this.color != Color.RED
+					|| parent.color != Color.RED) {
+				return null;
+			}
+
+			// a red parent is never the root, so grand exists
+			BinaryNode top;
+			if (grand.leftChild == parent) {
+				// double rotate left and right
+				if (parent.rightChild == this) {
+					this.swapColor();
+					parent.swapColor();
+					grand.leftChild = parent.rotateLeft(b);
 				}
+				top = grand.rotateRight(b);
+			} else {
+				// double rotate with a right and left
+				if (parent.leftChild == this) {
+					this.swapColor();
+					parent.swapColor();
+					grand.rightChild = parent.rotateRight(b);
+				}
+				top = grand.rotateLeft(b);
 			}
+
+			b.relink(gg, grand, top);
+			return top;
 		}
 
 		/**
@@ -767,8 +1373,8 @@ public class RedBlackTree<T extends Comparable<? super T>> implements
 
 		}
 
-		private BinaryNode removeRotateLeft() {
-			rotCount++;
+		private BinaryNode removeRotateLeft(myBool b) {
+			b.rotations++;
 			BinaryNode temp = this;
 			BinaryNode temp2 = this.rightChild;
 			BinaryNode kid = temp2.leftChild;
@@ -777,11 +1383,13 @@ public class RedBlackTree<T extends Comparable<? super T>> implements
 
 			temp2.leftChild = temp;
 
+			temp.recount();
+			temp2.recount();
 			return temp2;
 		}
 
-		private BinaryNode removeRotateRight() {
-			rotCount++;
+		private BinaryNode removeRotateRight(myBool b) {
+			b.rotations++;
 			BinaryNode temp = this;
 			BinaryNode temp2 = this.leftChild;
 			BinaryNode kid = temp2.rightChild;
@@ -790,17 +1398,19 @@ public class RedBlackTree<T extends Comparable<? super T>> implements
 
 			temp2.rightChild = temp;
 
+			temp.recount();
+			temp2.recount();
 			return temp2;
 		}
 
-		private BinaryNode removeDoubleLeft() {
-			this.rightChild = this.rightChild.removeRotateRight();
-			return this.removeRotateLeft();
+		private BinaryNode removeDoubleLeft(myBool b) {
+			this.rightChild = this.rightChild.removeRotateRight(b);
+			return this.removeRotateLeft(b);
 		}
 
-		private BinaryNode removeDoubleRight() {
-			this.rightChild = this.rightChild.removeRotateLeft();
-			return this.removeRotateRight();
+		private BinaryNode removeDoubleRight(myBool b) {
+			this.leftChild = this.leftChild.removeRotateLeft(b);
+			return this.removeRotateRight(b);
 		}
 
 		/**
@@ -811,14 +1421,15 @@ public class RedBlackTree<T extends Comparable<? super T>> implements
 		 *         nodes. It will also swap any colors and keep track of the
 		 *         rotations
 		 */
-		private BinaryNode rotateLeft() {
+		private BinaryNode rotateLeft(myBool b) {
 			BinaryNode temp = rightChild;
 			this.rightChild = temp.leftChild;
-			this.rightChild = temp.leftChild;
 			temp.leftChild = this;
 			this.swapColor();
 			temp.swapColor();
-			rotCount++;
+			this.recount();
+			temp.recount();
+			b.rotations++;
 			return temp;
 
 		}
@@ -831,14 +1442,16 @@ public class RedBlackTree<T extends Comparable<? super T>> implements
 		 *         nodes. It will also swap any colors and keep track of the
 		 *         rotations
 		 */
-		private BinaryNode rotateRight() {
+		private BinaryNode rotateRight(myBool b) {
 			BinaryNode temp = this.leftChild;
 			this.leftChild = temp.rightChild;
 			temp.rightChild = this;
 			this.swapColor();
 			temp.swapColor();
+			this.recount();
+			temp.recount();
 
-			rotCount++;
+			b.rotations++;
 
 			return temp;
 		}
@@ -861,30 +1474,6 @@ public class RedBlackTree<T extends Comparable<? super T>> implements
 
 		}
 
-		/**
-		 * @return Iterator<T> - The iterator of the elements
-		 * 
-		 *         Will look to see if there are children and if there are, it
-		 *         will push them onto the stack and then return the iterator of
-		 *         the stack
-		 */
-		public Iterator<T> Iterator() {
-
-			stack.push(element);
-
-			if (this.rightChild != null) {
-				rightChild.Iterator();
-			}
-
-			if (this.leftChild != null) {
-				leftChild.Iterator();
-			}
-
-			Iterator<T> ret = stack.iterator();
-
-			return ret;
-		}
-
 		/**
 		 * @return true if the kid is black, false otherwise
 		 * 
@@ -927,117 +1516,83 @@ public class RedBlackTree<T extends Comparable<? super T>> implements
 		 *         adjust the tree accordingly if required. It will return true
 		 *         if the specified element is removed; false otherwise.
 		 */
-		public boolean remove2A(T el, BinaryNode sibling, BinaryNode parent,
-				BinaryNode grand) {
+		public boolean remove2A(T el, myBool b, BinaryNode sibling,
+				BinaryNode parent, BinaryNode grand) {
 
 			// going to the left
 			if (sibling.checkBlackKids()) {
-				return this.remove2A1(el, sibling, parent, grand);
+				return this.remove2A1(el, b, sibling, parent, grand);
 			}
 
 			if (parent.leftChild == sibling) {
 				if (sibling.leftChild != null
 						&& sibling.leftChild.color == Color.RED) {
-					return this.remove2A3(el, sibling, parent, grand);
+					return this.remove2A3(el, b, sibling, parent, grand);
 				}
 
-				return this.remove2A2(el, sibling, parent, grand);
+				return this.remove2A2(el, b, sibling, parent, grand);
 			}
 
 			if (sibling.rightChild != null
 					&& sibling.rightChild.color == Color.RED) {
-				return this.remove2A3(el, sibling, parent, grand);
+				return this.remove2A3(el, b, sibling, parent, grand);
 			}
 
-			return this.remove2A2(el, sibling, parent, grand);
+			return this.remove2A2(el, b, sibling, parent, grand);
 
 		}
 
-		private boolean remove2A3(T el, BinaryNode sibling, BinaryNode parent,
-				BinaryNode grand) {
+		private boolean remove2A3(T el, myBool b, BinaryNode sibling,
+				BinaryNode parent, BinaryNode grand) {
 			if (parent.leftChild == sibling) {
 				sibling.leftChild.color = Color.BLACK;
-				if (grand == null) {
-					root = parent.removeRotateRight();
-				}
-
-				else if (parent == grand.leftChild) {
-					grand.leftChild = parent.removeRotateRight();
-				} else {
-					grand.rightChild = parent.removeRotateRight();
-				}
-
+				b.relink(grand, parent, parent.removeRotateRight(b));
 			} 
 			
 			else {
 				sibling.rightChild.color = Color.BLACK;
-				if (grand == null) {
-					root = parent.removeRotateLeft();
-				}
-
-				else if (parent == grand.leftChild) {
-					grand.leftChild = parent.removeRotateLeft();
-				} 
-				
-				else {
-					grand.rightChild = parent.removeRotateLeft();
-				}
-
+				b.relink(grand, parent, parent.removeRotateLeft(b));
 			}
 
 			this.color = Color.RED;
 			parent.color = Color.BLACK;
 			sibling.color = Color.RED;
 
-			return this.traverse(el, sibling, parent, grand);
+			BinaryNode newSibling = (parent.leftChild == this) ? parent.rightChild
+					: parent.leftChild;
+			return this.traverse(el, b, newSibling, parent, sibling);
 		}
 
-		private boolean remove2A2(T el, BinaryNode sibling, BinaryNode parent,
-				BinaryNode grand) {
+		private boolean remove2A2(T el, myBool b, BinaryNode sibling,
+				BinaryNode parent, BinaryNode grand) {
 
+			BinaryNode top;
 			if (parent.leftChild == sibling) {
-				if (grand == null) {
-					root = parent.removeDoubleRight();
-				}
-
-				else if (parent == grand.leftChild) {
-					grand.leftChild = parent.removeDoubleRight();
-				} else {
-					grand.rightChild = parent.removeDoubleRight();
-				}
-
+				top = parent.removeDoubleRight(b);
 			} 
 			
 			else {
-				if (grand == null) {
-					root = parent.removeDoubleLeft();
-				}
-
-				else if (parent == grand.leftChild) {
-					grand.leftChild = parent.removeDoubleLeft();
-				} 
-				
-				else {
-					grand.rightChild = parent.removeDoubleLeft();
-				}
-
+				top = parent.removeDoubleLeft(b);
 			}
+			b.relink(grand, parent, top);
 
 			this.color = Color.RED;
 			parent.color = Color.BLACK;
 
-			return this.traverse(el, sibling, parent, grand);
+			BinaryNode newSibling = (parent.leftChild == this) ? parent.rightChild
+					: parent.leftChild;
+			return this.traverse(el, b, newSibling, parent, top);
 
 		}
 
-		private boolean remove2A1(T el, BinaryNode sibling, BinaryNode parent,
-				BinaryNode grand) {
+		private boolean remove2A1(T el, myBool b, BinaryNode sibling,
+				BinaryNode parent, BinaryNode grand) {
 
 			parent.color = Color.BLACK;
 			this.color = Color.RED;
 			sibling.color = Color.RED;
 
-			return traverse(el, sibling, parent, grand);
+			return traverse(el, b, sibling, parent, grand);
 
 		}
 
@@ -1048,28 +1603,29 @@ public class RedBlackTree<T extends Comparable<? super T>> implements
 		 * @param grand - The grandparent of the current node
 		 * @return - True or false based on where the node is sent
 		 */
-		public boolean traverse(T el, BinaryNode sibling, BinaryNode parent,
-				BinaryNode grand) {
-			if (this.element.compareTo(el) < 0) {
+		public boolean traverse(T el, myBool b, BinaryNode sibling,
+				BinaryNode parent, BinaryNode grand) {
+			int compare = compare(el, this.element);
+			if (compare > 0) {
 				if (this.rightChild == null) {
 					return false;
 				}
 
 				return this.rightChild
-						.remove2(el, this.leftChild, this, parent);
+						.remove2(el, b, this.leftChild, this, parent);
 			}
 
-			if (this.element.compareTo(el) > 0) {  // if this if greater than the element
+			if (compare < 0) {  // if this if greater than the element
 				if (this.leftChild == null) {
 					return false;
 				}
 
 				return this.leftChild
-						.remove2(el, this.rightChild, this, parent);
+						.remove2(el, b, this.rightChild, this, parent);
 
 			}
 
-			return this.remove3(sibling, parent, grand);  // if it is the one to be deleted
+			return this.remove3(b, sibling, parent, grand);  // if it is the one to be deleted
 		}
 
 		/**
@@ -1082,6 +1638,13 @@ public class RedBlackTree<T extends Comparable<? super T>> implements
 			return (rightChild == null) ? element : rightChild.maxValue();
 		}
 
+		/**
+		 * @return T the min value in the tree
+		 */
+		private T minValue() {
+			return (leftChild == null) ? element : leftChild.minValue();
+		}
+
 		/**
 		 * This method will try to go through and reverse the order of the tree.
 		 * It will make the elements on one side on the other by switching the
@@ -1201,13 +1764,372 @@ public class RedBlackTree<T extends Comparable<? super T>> implements
 		//
 	}
 
+	/**
+	 * In order spliterator. Each node on the stack stands for its own element
+	 * followed by its right subtree, the top of the stack coming first.
+	 * Everything pushed is below hi, so the bound only costs a compare while
+	 * walking down a left spine, and only once a split has set one
+	 */
+	private class InOrderSpliterator implements Spliterator<T> {
+		private final ArrayDeque<BinaryNode> s = new ArrayDeque<BinaryNode>();
+		private final T hi;
+		private long remaining;
+		private int myMod;
+
+		InOrderSpliterator(BinaryNode top, T hi, long remaining) {
+			this.hi = hi;
+			this.remaining = remaining;
+			this.myMod = modCont;
+			pushLeft(top);
+		}
+
+		private void pushLeft(BinaryNode n) {
+			for (; n != null; n = n.leftChild)
+				if (hi == null || compare(n.element, hi) < 0)
+					s.push(n);
+		}
+
+		public boolean tryAdvance(Consumer<? super T> action) {
+			if (action == null)
+				throw new NullPointerException();
+			BinaryNode current = s.poll();
+			if (current == null)
+				return false;
+			pushLeft(current.rightChild);
+			remaining--;
+			action.accept(current.element);
+			if (myMod != modCont)
+				throw new ConcurrentModificationException();
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(Consumer<? super T> action) {
+			if (action == null)
+				throw new NullPointerException();
+			BinaryNode current;
+			while ((current = s.poll()) != null) {
+				pushLeft(current.rightChild);
+				action.accept(current.element);
+			}
+			remaining = 0;
+			if (myMod != modCont)
+				throw new ConcurrentModificationException();
+		}
+
+		/**
+		 * With two or more nodes pending, the prefix takes all but the bottom
+		 * one, which is the shallowest, and its size is the pending nodes plus
+		 * their right subtrees. With one left, the prefix takes that node and
+		 * the part of its right subtree below the subtree's root r, which is
+		 * r's left subtree
+		 */
+		public Spliterator<T> trySplit() {
+			InOrderSpliterator prefix;
+			if (s.size() >= 2) {
+				BinaryNode bottom = s.pollLast();
+				prefix = new InOrderSpliterator(null, null, 0);
+				for (BinaryNode n : s)
+					prefix.remaining += 1 + countOf(n.rightChild);
+				prefix.s.addAll(s);
+				s.clear();
+				s.push(bottom);
+			} else if (s.size() == 1) {
+				BinaryNode r = s.peek().rightChild;
+				while (r != null && hi != null && compare(r.element, hi) >= 0)
+					r = r.leftChild;
+				if (r == null)
+					return null;
+				prefix = new InOrderSpliterator(null, r.element,
+						1 + countOf(r.leftChild));
+				prefix.s.push(s.pop());
+				s.push(r);
+			} else {
+				return null;
+			}
+			prefix.myMod = myMod;
+			remaining -= prefix.remaining;
+			return prefix;
+		}
+
+		public long estimateSize() {
+			return remaining;
+		}
+
+		public int characteristics() {
+			return ORDERED | SORTED | DISTINCT | NONNULL | SIZED | SUBSIZED;
+		}
+
+		@Override
+		public Comparator<? super T> getComparator() {
+			return comparator();
+		}
+	}
+
+	/**
+	 * @param startOf
+	 *            - The start of each element
+	 * @param lo
+	 *            - The low end of the query, inclusive
+	 * @param hi
+	 *            - The high end of the query, inclusive
+	 * @return Iterator<T> - The elements whose [start, end] overlaps [lo, hi],
+	 *         in the tree's order
+	 * 
+	 *         Only for trees that track ends and are ordered by start. See
+	 *         IntervalTree.overlapping
+	 */
+	Iterator<T> overlapping(ToLongFunction<? super T> startOf, long lo,
+			long hi) {
+		return new OverlapIterator(startOf, lo, hi);
+	}
+
+	/**
+	 * In order walk that skips every subtree whose largest end is below lo
+	 * and stops at the first element starting after hi. The stack holds the
+	 * nodes whose left side has been dealt with
+	 */
+	private class OverlapIterator implements Iterator<T> {
+		private final ArrayDeque<BinaryNode> s = new ArrayDeque<BinaryNode>();
+		private final ToLongFunction<? super T> startOf;
+		private final long lo;
+		private final long hi;
+		private final int myMod;
+		private BinaryNode next;
+
+		OverlapIterator(ToLongFunction<? super T> startOf, long lo, long hi) {
+			this.startOf = startOf;
+			this.lo = lo;
+			this.hi = hi;
+			this.myMod = modCont;
+			pushLeft(root);
+			advance();
+		}
+
+		private void pushLeft(BinaryNode n) {
+			for (; n != null; n = n.leftChild) {
+				if (endOf.applyAsLong(n.maxEnd()) < lo)
+					return;
+				s.push(n);
+			}
+		}
+
+		private void advance() {
+			next = null;
+			while (!s.isEmpty()) {
+				BinaryNode n = s.pop();
+				if (startOf.applyAsLong(n.element) > hi) {
+					s.clear();
+					return;
+				}
+				pushLeft(n.rightChild);
+				if (endOf.applyAsLong(n.element) >= lo) {
+					next = n;
+					return;
+				}
+			}
+		}
+
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		public T next() {
+			if (myMod != modCont)
+				throw new ConcurrentModificationException();
+			if (next == null)
+				throw new NoSuchElementException();
+			T e = next.element;
+			advance();
+			return e;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * An in order cursor. It keeps the nodes from the root down to the
+	 * current one in a fixed array, so moving to the next or previous element
+	 * climbs or descends that path without allocating. A change to the tree
+	 * invalidates the cursor until it is repositioned with first, last or
+	 * seek
+	 */
+	public class Cursor {
+		@SuppressWarnings("unchecked")
+		private final BinaryNode[] path = (BinaryNode[]) new RedBlackTree.BinaryNode[
+				MAX_HEIGHT];
+		private int depth;
+		private int myMod;
+
+		Cursor() {
+			this.myMod = modCont;
+		}
+
+		/**
+		 * @return boolean - true if the cursor is on the smallest element;
+		 *         false if the tree is empty
+		 */
+		public boolean first() {
+			start();
+			for (BinaryNode n = root; n != null; n = n.leftChild)
+				path[depth++] = n;
+			return depth > 0;
+		}
+
+		/**
+		 * @return boolean - true if the cursor is on the largest element;
+		 *         false if the tree is empty
+		 */
+		public boolean last() {
+			start();
+			for (BinaryNode n = root; n != null; n = n.rightChild)
+				path[depth++] = n;
+			return depth > 0;
+		}
+
+		/**
+		 * @param el
+		 *            - The element to look for
+		 * @return boolean - true if the cursor is on the smallest element
+		 *         greater than or equal to el; false if there is none
+		 * 
+		 *         The path is cut back to the last node the search went left
+		 *         at, which is the successor when el is not in the tree
+		 */
+		public boolean seek(T el) {
+			if (el == null)
+				throw new IllegalArgumentException();
+			start();
+			int keep = 0;
+			BinaryNode n = root;
+			while (n != null) {
+				path[depth++] = n;
+				int compare = compare(el, n.element);
+				if (compare == 0)
+					return true;
+				if (compare < 0) {
+					keep = depth;
+					n = n.leftChild;
+				} else {
+					n = n.rightChild;
+				}
+			}
+			depth = keep;
+			return depth > 0;
+		}
+
+		/**
+		 * @return boolean - true if the cursor moved to the next element;
+		 *         false if it was on the last one, or on none, and is now off
+		 *         the end
+		 */
+		public boolean next() {
+			check();
+			if (depth == 0)
+				return false;
+			BinaryNode n = path[depth - 1].rightChild;
+			if (n != null) {
+				for (; n != null; n = n.leftChild)
+					path[depth++] = n;
+				return true;
+			}
+			// climb out of every right subtree we are the last element of
+			while (depth > 1 && path[depth - 2].rightChild == path[depth - 1])
+				depth--;
+			depth--;
+			return depth > 0;
+		}
+
+		/**
+		 * @return boolean - true if the cursor moved to the previous element;
+		 *         false if it was on the first one, or on none, and is now off
+		 *         the end
+		 */
+		public boolean prev() {
+			check();
+			if (depth == 0)
+				return false;
+			BinaryNode n = path[depth - 1].leftChild;
+			if (n != null) {
+				for (; n != null; n = n.rightChild)
+					path[depth++] = n;
+				return true;
+			}
+			while (depth > 1 && path[depth - 2].leftChild == path[depth - 1])
+				depth--;
+			depth--;
+			return depth > 0;
+		}
+
+		/**
+		 * @return T - The element the cursor is on. Throws a
+		 *         NoSuchElementException if it is not on one
+		 */
+		public T element() {
+			check();
+			if (depth == 0)
+				throw new NoSuchElementException();
+			return path[depth - 1].element;
+		}
+
+		/**
+		 * Takes the cursor off its element and drops its references to the
+		 * tree's nodes, so a parked cursor does not keep removed nodes alive
+		 */
+		public void reset() {
+			start();
+			Arrays.fill(path, null);
+		}
+
+		private void start() {
+			depth = 0;
+			myMod = modCont;
+		}
+
+		private void check() {
+			if (myMod != modCont)
+				throw new ConcurrentModificationException();
+		}
+	}
+
+	/**
+	 * The state of one insert or remove. Besides the flag it holds the root
+	 * the operation works on, the rotations it makes and the element it
+	 * unlinks, so the nodes never touch the fields of the tree they were
+	 * created in and can be moved between trees by split and concat
+	 */
 	public class myBool {
 		private boolean value;
+		private BinaryNode root;
+		private int rotations;
+		private T unlinked;
 
 		public myBool() {
 			value = false;
 		}
 
+		/**
+		 * @param grand
+		 *            - The node that holds the link, or null for the root
+		 * @param old
+		 *            - The node currently hanging from grand
+		 * @param top
+		 *            - The node that replaces it
+		 * 
+		 *            Points whichever link of grand held old (or the root) at
+		 *            top after a rotation or an unlink
+		 */
+		private void relink(BinaryNode grand, BinaryNode old, BinaryNode top) {
+			if (grand == null)
+				root = top;
+			else if (grand.leftChild == old)
+				grand.leftChild = top;
+			else
+				grand.rightChild = top;
+		}
+
 		public boolean isTrue() {
 			if (value)
 				return true;
@@ -0,0 +1,122 @@
+import java.util.ConcurrentModificationException;
+import java.util.Random;
+import java.util.Spliterator;
+
+import redblacktree.RedBlackTree;
+
+/**
+ * Checks that a RedBlackTree cursor or spliterator stopped partway through
+ * a walk fails fast once an insert of a key that is already there, or a
+ * remove of a key that is not, has rotated nodes on its way down, and that
+ * one that was not disturbed still walks every element once in order.
+ *
+ * Usage: java RedBlackTreeTest (exits with an error on the first failure)
+ */
+public class RedBlackTreeTest {
+
+	static void check(boolean ok, String what) {
+		if (!ok)
+			throw new AssertionError(what);
+	}
+
+	/**
+	 * Does an insert or remove that leaves the elements as they are
+	 *
+	 * @return true if it rotated anything
+	 */
+	static boolean noOp(RedBlackTree<Integer> tree, Random random, int range) {
+		int before = tree.getRotationCount();
+		if (random.nextBoolean()) {
+			// every element is even, so this one is already there
+			Integer present = tree.select(random.nextInt(tree.size()));
+			check(!tree.insert(present), "insert of a present key added it");
+		} else {
+			Integer absent = 2 * random.nextInt(range) + 1;
+			check(!tree.remove(absent), "remove of an absent key removed it");
+		}
+		return tree.getRotationCount() != before;
+	}
+
+	static RedBlackTree<Integer> randomTree(Random random, int range) {
+		RedBlackTree<Integer> tree = new RedBlackTree<Integer>();
+		int n = 1 + random.nextInt(range);
+		for (int i = 0; i < n; i++)
+			tree.insert(2 * random.nextInt(range));
+		return tree;
+	}
+
+	static int cursors(Random random) {
+		int rotated = 0;
+		for (int round = 0; round < 20000; round++) {
+			int range = 4 + random.nextInt(300);
+			RedBlackTree<Integer> tree = randomTree(random, range);
+			RedBlackTree<Integer>.Cursor c = tree.cursor();
+			check(c.first(), "first on a non-empty tree");
+			int steps = random.nextInt(tree.size());
+			for (int i = 0; i < steps; i++)
+				c.next();
+			Integer at = c.element();
+			if (noOp(tree, random, range)) {
+				rotated++;
+				boolean threw = false;
+				try {
+					c.next();
+				} catch (ConcurrentModificationException e) {
+					threw = true;
+				}
+				check(threw, "cursor carried on after a rotation");
+			} else {
+				int seen = steps + 1;
+				Integer last = at;
+				while (c.next()) {
+					check(c.element() > last, "cursor went back to "
+							+ c.element() + " after " + last);
+					last = c.element();
+					seen++;
+				}
+				check(seen == tree.size(), "cursor saw " + seen + " of "
+						+ tree.size());
+			}
+		}
+		return rotated;
+	}
+
+	static int spliterators(Random random) {
+		int rotated = 0;
+		for (int round = 0; round < 20000; round++) {
+			int range = 4 + random.nextInt(300);
+			RedBlackTree<Integer> tree = randomTree(random, range);
+			Spliterator<Integer> s = tree.elementSpliterator();
+			int steps = random.nextInt(tree.size());
+			for (int i = 0; i < steps; i++)
+				s.tryAdvance(e -> {
+				});
+			if (noOp(tree, random, range)) {
+				rotated++;
+				boolean threw = false;
+				try {
+					s.forEachRemaining(e -> {
+					});
+				} catch (ConcurrentModificationException e) {
+					threw = true;
+				}
+				check(threw, "spliterator carried on after a rotation");
+			} else {
+				int[] seen = { steps };
+				s.forEachRemaining(e -> seen[0]++);
+				check(seen[0] == tree.size(), "spliterator saw " + seen[0]
+						+ " of " + tree.size());
+			}
+		}
+		return rotated;
+	}
+
+	public static void main(String[] args) {
+		Random random = new Random(13);
+		int c = cursors(random);
+		int s = spliterators(random);
+		check(c > 0 && s > 0, "no call rotated, so nothing was tested");
+		System.out.println("RedBlackTreeTest passed (" + c + " and " + s
+				+ " walks disturbed by a rotation)");
+	}
+}
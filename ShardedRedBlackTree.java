@@ -0,0 +1,553 @@
+package redblacktree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *
+ * @param <T>
+ *            - The elements
+ *
+ *            A thread-safe set split by key range over several RedBlackTrees,
+ *            each behind its own lock, so writes to different ranges never
+ *            wait for each other. A routing table of split points, replaced
+ *            whole whenever it changes, sends every element to its shard
+ *            with one binary search. Every shard counts its operations, and
+ *            when one shard has had far more of them than a neighbour since
+ *            the last look, half of its elements move to that neighbour with
+ *            one split and one concat, both O(log n), and the split point
+ *            between them moves along
+ */
+public class ShardedRedBlackTree<T extends Comparable<? super T>> implements
+		Iterable<T> {
+	/**
+	 * The operations a shard takes after a rebalance before its thread
+	 * checks the balance, and between checks after that
+	 */
+	static final int REBALANCE_PERIOD = 1 << 14;
+	/**
+	 * How many times as many operations the hot shard needs than its
+	 * neighbour before elements move
+	 */
+	static final int IMBALANCE = 2;
+
+	private final Comparator<? super T> comparator;
+	private final Shard[] shards;
+	private volatile T[] splits;
+	private final ReentrantLock rebalanceLock = new ReentrantLock();
+	private volatile boolean autoRebalance = true;
+	private volatile long moves;
+
+	/**
+	 * One key range and the tree that holds it. The bounds, the tree and the
+	 * counters only change under lock
+	 */
+	private class Shard {
+		final ReentrantLock lock = new ReentrantLock();
+		RedBlackTree<T> tree;
+		T lo; // inclusive, null for none
+		T hi; // exclusive, null for none
+		long lookups;
+		long inserts;
+		long removes;
+		long lockWaitNanos;
+		long contended;
+		long heat; // operations since the last rebalance
+
+		Shard(T lo, T hi) {
+			this.tree = new RedBlackTree<T>(comparator);
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		boolean covers(T el) {
+			return (lo == null || compare(el, lo) >= 0)
+					&& (hi == null || compare(el, hi) < 0);
+		}
+
+		/**
+		 * Takes the lock, timing the wait only when it is not free
+		 */
+		void lock() {
+			if (lock.tryLock())
+				return;
+			long start = System.nanoTime();
+			lock.lock();
+			lockWaitNanos += System.nanoTime() - start;
+			contended++;
+		}
+
+		/**
+		 * @return boolean - true if this operation should look at the
+		 *         balance: every REBALANCE_PERIOD operations since the last
+		 *         rebalance, so a look skipped because another thread was
+		 *         already rebalancing comes round again
+		 */
+		boolean count() {
+			return ++heat % REBALANCE_PERIOD == 0;
+		}
+	}
+
+	/**
+	 * What one shard looked like when {@link #stats()} read it
+	 *
+	 * @param <T>
+	 *            - The elements
+	 */
+	public static final class ShardStats<T> {
+		public final int index;
+		public final T lo;
+		public final T hi;
+		public final int size;
+		public final long lookups;
+		public final long inserts;
+		public final long removes;
+		public final long lockWaitNanos;
+		public final long contended;
+
+		ShardStats(int index, T lo, T hi, int size, long lookups,
+				long inserts, long removes, long lockWaitNanos,
+				long contended) {
+			this.index = index;
+			this.lo = lo;
+			this.hi = hi;
+			this.size = size;
+			this.lookups = lookups;
+			this.inserts = inserts;
+			this.removes = removes;
+			this.lockWaitNanos = lockWaitNanos;
+			this.contended = contended;
+		}
+
+		public String toString() {
+			return String.format("shard %3d [%s, %s) size %d lookups %d "
+					+ "inserts %d removes %d waited %d times for %.3f ms",
+					index, lo == null ? "-inf" : lo, hi == null ? "+inf" : hi,
+					size, lookups, inserts, removes, contended,
+					lockWaitNanos / 1e6);
+		}
+	}
+
+	/**
+	 * @param splits
+	 *            - The strictly increasing split points; shard i holds the
+	 *            elements in [splits[i - 1], splits[i]), so there is one more
+	 *            shard than there are split points
+	 */
+	public ShardedRedBlackTree(T[] splits) {
+		this(null, splits);
+	}
+
+	/**
+	 * @param comparator
+	 *            - The order to keep the elements in, or null for their
+	 *            natural order
+	 * @param splits
+	 *            - The strictly increasing split points; shard i holds the
+	 *            elements in [splits[i - 1], splits[i]), so there is one more
+	 *            shard than there are split points
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public ShardedRedBlackTree(Comparator<? super T> comparator, T[] splits) {
+		this.comparator = comparator;
+		for (int i = 0; i < splits.length; i++) {
+			if (splits[i] == null)
+				throw new IllegalArgumentException();
+			if (i > 0 && compare(splits[i - 1], splits[i]) >= 0)
+				throw new IllegalArgumentException(
+						"split points must be strictly increasing");
+		}
+		this.splits = splits.clone();
+		this.shards = (Shard[]) new ShardedRedBlackTree.Shard[
+				splits.length + 1];
+		for (int i = 0; i < shards.length; i++)
+			shards[i] = new Shard(i == 0 ? null : splits[i - 1],
+					i == splits.length ? null : splits[i]);
+	}
+
+	int compare(T a, T b) {
+		return comparator == null ? a.compareTo(b) : comparator.compare(a, b);
+	}
+
+	/**
+	 * @param el
+	 *            - The element to route
+	 * @return Shard - Its shard, locked and checked to still cover it, since
+	 *         a rebalance may have moved the split point after the routing
+	 *         table was read
+	 */
+	private Shard lockShardFor(T el) {
+		while (true) {
+			T[] r = splits;
+			int low = 0;
+			int high = r.length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (compare(r[mid], el) <= 0)
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			Shard s = shards[low];
+			s.lock();
+			if (s.covers(el))
+				return s;
+			s.lock.unlock();
+		}
+	}
+
+	/**
+	 * @param el
+	 *            - The element to look for
+	 * @return boolean - true if the element is in the tree
+	 */
+	public boolean contains(T el) {
+		if (el == null)
+			return false;
+		Shard s = lockShardFor(el);
+		boolean check;
+		boolean found;
+		try {
+			s.lookups++;
+			check = s.count();
+			found = s.tree.contains(el);
+		} finally {
+			s.lock.unlock();
+		}
+		if (check)
+			maybeRebalance();
+		return found;
+	}
+
+	/**
+	 * @param element
+	 *            - The element to add
+	 * @return boolean - true if it was added, false if it was already there
+	 */
+	public boolean insert(T element) {
+		if (element == null)
+			throw new IllegalArgumentException();
+		Shard s = lockShardFor(element);
+		boolean check;
+		boolean added;
+		try {
+			s.inserts++;
+			check = s.count();
+			added = s.tree.insert(element);
+		} finally {
+			s.lock.unlock();
+		}
+		if (check)
+			maybeRebalance();
+		return added;
+	}
+
+	/**
+	 * @param el
+	 *            - The element to take out
+	 * @return boolean - true if it was there
+	 */
+	public boolean remove(T el) {
+		if (el == null)
+			return false;
+		Shard s = lockShardFor(el);
+		boolean check;
+		boolean removed;
+		try {
+			s.removes++;
+			check = s.count();
+			removed = s.tree.remove(el);
+		} finally {
+			s.lock.unlock();
+		}
+		if (check)
+			maybeRebalance();
+		return removed;
+	}
+
+	/**
+	 * @return int - The number of elements, summed one shard at a time, so
+	 *         only exact when nothing writes at the same time
+	 */
+	public int size() {
+		int size = 0;
+		for (Shard s : shards) {
+			s.lock();
+			try {
+				size += s.tree.size();
+			} finally {
+				s.lock.unlock();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @return boolean - true if there are no elements
+	 */
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * @return int - The number of shards
+	 */
+	public int shardCount() {
+		return shards.length;
+	}
+
+	/**
+	 * @return T[] - A copy of the current split points
+	 */
+	public T[] splits() {
+		return splits.clone();
+	}
+
+	/**
+	 * Copies the elements of one shard from k up to hi into out
+	 *
+	 * @param k
+	 *            - Where to start, inclusive, or null for the first shard
+	 * @param hi
+	 *            - Where to stop, inclusive, or null for no bound
+	 * @param out
+	 *            - Where the elements are added, in order
+	 * @return T - The lower bound of the next shard, or null if this was the
+	 *         last one
+	 */
+	private T scanShard(T k, T hi, List<T> out) {
+		Shard s;
+		if (k != null) {
+			s = lockShardFor(k);
+		} else {
+			s = shards[0];
+			s.lock();
+		}
+		try {
+			s.tree.probeRange(k, hi, out, false);
+			return s.hi;
+		} finally {
+			s.lock.unlock();
+		}
+	}
+
+	/**
+	 * @param lo
+	 *            - The lower bound, inclusive
+	 * @param hi
+	 *            - The upper bound, inclusive
+	 * @return List<T> - The elements in [lo, hi], in order. Each shard is
+	 *         read under its own lock, so the result is consistent within a
+	 *         shard but not across them
+	 */
+	public List<T> range(T lo, T hi) {
+		if (lo == null || hi == null)
+			throw new IllegalArgumentException();
+		ArrayList<T> out = new ArrayList<T>();
+		T k = lo;
+		while (k != null && compare(k, hi) <= 0)
+			k = scanShard(k, hi, out);
+		return out;
+	}
+
+	/**
+	 * @return ArrayList<T> - The elements in order, one shard at a time
+	 */
+	public ArrayList<T> toArrayList() {
+		ArrayList<T> out = new ArrayList<T>();
+		T k = scanShard(null, null, out);
+		while (k != null)
+			k = scanShard(k, null, out);
+		return out;
+	}
+
+	/**
+	 * @return Iterator<T> - A weakly consistent iterator in order that copies
+	 *         one shard at a time, so it never holds a lock between calls.
+	 *         It does not support remove
+	 */
+	public Iterator<T> iterator() {
+		return new Iterator<T>() {
+			private final ArrayList<T> chunk = new ArrayList<T>();
+			private int next;
+			private T from;
+			private boolean last;
+
+			{
+				from = scanShard(null, null, chunk);
+				last = from == null;
+				advance();
+			}
+
+			private void advance() {
+				while (next == chunk.size() && !last) {
+					chunk.clear();
+					next = 0;
+					from = scanShard(from, null, chunk);
+					last = from == null;
+				}
+			}
+
+			public boolean hasNext() {
+				return next < chunk.size();
+			}
+
+			public T next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				T e = chunk.get(next++);
+				if (next == chunk.size())
+					advance();
+				return e;
+			}
+		};
+	}
+
+	/**
+	 * @param on
+	 *            - false to stop the operations from rebalancing on their own;
+	 *            {@link #rebalance()} still works
+	 */
+	public void setAutoRebalance(boolean on) {
+		autoRebalance = on;
+	}
+
+	/**
+	 * @return long - The number of times elements have moved between shards
+	 */
+	public long moves() {
+		return moves;
+	}
+
+	private void maybeRebalance() {
+		if (autoRebalance && rebalanceLock.tryLock()) {
+			try {
+				rebalanceLocked();
+			} finally {
+				rebalanceLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Finds the two neighbouring shards whose operations since the last
+	 * rebalance differ the most, and if the busier one has had more than
+	 * twice as many, moves half of its elements to the other. Only
+	 * neighbours can trade, since a shard has to stay one contiguous range,
+	 * so a hot spot spreads out one step per rebalance
+	 *
+	 * @return boolean - true if elements moved
+	 */
+	public boolean rebalance() {
+		rebalanceLock.lock();
+		try {
+			return rebalanceLocked();
+		} finally {
+			rebalanceLock.unlock();
+		}
+	}
+
+	private boolean rebalanceLocked() {
+		int n = shards.length;
+		if (n < 2)
+			return false;
+		long[] heat = new long[n];
+		for (int i = 0; i < n; i++) {
+			Shard s = shards[i];
+			s.lock();
+			try {
+				heat[i] = s.heat;
+			} finally {
+				s.lock.unlock();
+			}
+		}
+		int hot = -1;
+		int cold = -1;
+		long gap = 0;
+		for (int i = 0; i + 1 < n; i++) {
+			int h = heat[i] >= heat[i + 1] ? i : i + 1;
+			int c = h == i ? i + 1 : i;
+			if (heat[h] > (long) IMBALANCE * heat[c]
+					&& heat[h] - heat[c] > gap) {
+				hot = h;
+				cold = c;
+				gap = heat[h] - heat[c];
+			}
+		}
+
+		boolean moved = hot >= 0 && move(hot, cold);
+		for (Shard s : shards) {
+			s.lock();
+			s.heat = 0;
+			s.lock.unlock();
+		}
+		return moved;
+	}
+
+	/**
+	 * Moves half of the elements of shards[from] into its neighbour
+	 * shards[to], taking both locks in index order
+	 */
+	private boolean move(int from, int to) {
+		Shard a = shards[Math.min(from, to)];
+		Shard b = shards[Math.max(from, to)];
+		a.lock();
+		b.lock();
+		try {
+			Shard hot = shards[from];
+			int size = hot.tree.size();
+			if (size < 2)
+				return false;
+			T pivot = hot.tree.select(size / 2);
+			// a keeps everything below pivot and b gets the rest
+			if (to > from) {
+				RedBlackTree<T> upper = a.tree.split(pivot);
+				upper.concat(b.tree);
+				b.tree = upper;
+			} else {
+				RedBlackTree<T> rest = b.tree.split(pivot);
+				a.tree.concat(b.tree);
+				b.tree = rest;
+			}
+			a.hi = pivot;
+			b.lo = pivot;
+			T[] next = Arrays.copyOf(splits, splits.length);
+			next[Math.min(from, to)] = pivot;
+			splits = next;
+			moves++;
+			return true;
+		} finally {
+			b.lock.unlock();
+			a.lock.unlock();
+		}
+	}
+
+	/**
+	 * @return List<ShardStats<T>> - Size, operation counts and time spent
+	 *         waiting for the lock of every shard, in key order
+	 */
+	public List<ShardStats<T>> stats() {
+		ArrayList<ShardStats<T>> out = new ArrayList<ShardStats<T>>();
+		for (int i = 0; i < shards.length; i++) {
+			Shard s = shards[i];
+			s.lock();
+			try {
+				out.add(new ShardStats<T>(i, s.lo, s.hi, s.tree.size(),
+						s.lookups, s.inserts, s.removes, s.lockWaitNanos,
+						s.contended));
+			} finally {
+				s.lock.unlock();
+			}
+		}
+		return out;
+	}
+
+	public String toString() {
+		return toArrayList().toString();
+	}
+}
@@ -0,0 +1,581 @@
+package redblacktree;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import redblacktree.RedBlackTree.Color;
+
+/**
+ *
+ * @param <T>
+ *            - The elements
+ *
+ *            A red-black tree for one writer and any number of readers.
+ *            Readers never lock and never see a write in progress: every
+ *            version of the tree is immutable once published, and the
+ *            writer publishes each new version through a volatile
+ *            reference. A write copies the nodes on its search path, and
+ *            the few siblings the fix-up recolors or rotates, and shares
+ *            the rest with the version before; old versions are left to the
+ *            garbage collector once no reader holds them.
+ *
+ *            Writes are serialized on the tree, so several writer threads
+ *            are safe, but they take turns
+ */
+public class SnapshotRedBlackTree<T extends Comparable<? super T>> implements
+		Iterable<T> {
+	/*
+	 * A red-black tree of n nodes is at most 2 log(n + 1) deep; removal can
+	 * push one node more onto the path, so leave room for it
+	 */
+	private static final int MAX_HEIGHT = 65;
+
+	private volatile Snapshot current = new Snapshot(null, 0);
+	private final Comparator<? super T> comparator;
+
+	// writer state, only touched under the tree's lock
+	private long stamp;
+	private BinaryNode root;
+	private int rotCount;
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private final BinaryNode[] path =
+			(BinaryNode[]) new SnapshotRedBlackTree.BinaryNode[MAX_HEIGHT];
+	private final boolean[] wentLeft = new boolean[MAX_HEIGHT];
+
+	/**
+	 * Creates an empty tree in the elements' natural order
+	 */
+	public SnapshotRedBlackTree() {
+		this(null);
+	}
+
+	/**
+	 * @param comparator
+	 *            - The order to keep the elements in, or null for their
+	 *            natural order
+	 */
+	public SnapshotRedBlackTree(Comparator<? super T> comparator) {
+		this.comparator = comparator;
+	}
+
+	/**
+	 * @return Snapshot - The latest published version, which never changes.
+	 *         One volatile read
+	 */
+	public Snapshot snapshot() {
+		return current;
+	}
+
+	/**
+	 * @param el
+	 *            - The element to look for
+	 * @return boolean - true if the latest version holds el
+	 */
+	public boolean contains(T el) {
+		return current.contains(el);
+	}
+
+	/**
+	 * @return int - The number of elements in the latest version
+	 */
+	public int size() {
+		return current.size;
+	}
+
+	/**
+	 * @return boolean - true if the latest version is empty
+	 */
+	public boolean isEmpty() {
+		return current.size == 0;
+	}
+
+	/**
+	 * @return Iterator<T> - The elements of the version published when it
+	 *         was called, in order. Writes after that do not show up and
+	 *         never make it fail
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return current.iterator();
+	}
+
+	/**
+	 * @param lo
+	 *            - The lower bound, inclusive
+	 * @param hi
+	 *            - The upper bound, inclusive
+	 * @return Iterator<T> - The elements of the latest version in [lo, hi]
+	 */
+	public Iterator<T> range(T lo, T hi) {
+		return current.range(lo, hi);
+	}
+
+	/**
+	 * @return Stream<T> - The elements of the latest version in order
+	 */
+	public Stream<T> stream() {
+		return current.stream();
+	}
+
+	/**
+	 * @return int - The number of rotations all writes have done
+	 */
+	public synchronized int getRotationCount() {
+		return rotCount;
+	}
+
+	int compare(T a, T b) {
+		if (comparator != null)
+			return comparator.compare(a, b);
+		return a.compareTo(b);
+	}
+
+	/**
+	 * @param element
+	 *            - The element to add
+	 * @return boolean - true if it was added, false if it was already there
+	 *
+	 *         Finds the place for element without copying anything, then
+	 *         copies the path down to it, hangs a red leaf there and fixes
+	 *         the colors bottom-up on the copies before publishing them
+	 */
+	public synchronized boolean insert(T element) {
+		if (element == null)
+			throw new IllegalArgumentException();
+		int depth = 0;
+		BinaryNode cur = current.root;
+		while (cur != null) {
+			int compare = compare(element, cur.element);
+			if (compare == 0)
+				return false;
+			path[depth] = cur;
+			wentLeft[depth++] = compare < 0;
+			cur = (compare < 0) ? cur.left : cur.right;
+		}
+		stamp++;
+		BinaryNode leaf = new BinaryNode(element, Color.RED);
+		if (depth == 0) {
+			root = leaf;
+		} else {
+			copyPath(depth);
+			link(depth - 1, leaf);
+			fixInsert(depth - 1);
+		}
+		root.color = Color.BLACK;
+		publish(current.size + 1, depth);
+		return true;
+	}
+
+	/**
+	 * @param el
+	 *            - The element to take out
+	 * @return boolean - true if it was there
+	 *
+	 *         Finds el, and its successor if it has two children, without
+	 *         copying, then copies that path, unlinks the last node on it and
+	 *         fixes a missing black on the copies before publishing them
+	 */
+	public synchronized boolean remove(T el) {
+		if (el == null)
+			return false;
+		int depth = 0;
+		BinaryNode cur = current.root;
+		while (cur != null) {
+			int compare = compare(el, cur.element);
+			path[depth] = cur;
+			if (compare == 0)
+				break;
+			wentLeft[depth++] = compare < 0;
+			cur = (compare < 0) ? cur.left : cur.right;
+		}
+		if (cur == null) {
+			clearPath(depth);
+			return false;
+		}
+		int target = depth++;
+		if (cur.left != null && cur.right != null) {
+			wentLeft[target] = false;
+			for (cur = cur.right; cur != null; cur = cur.left) {
+				path[depth] = cur;
+				wentLeft[depth++] = true;
+			}
+		}
+		stamp++;
+		copyPath(depth);
+		BinaryNode z = path[depth - 1];
+		if (z != path[target])
+			path[target].element = z.element;
+		BinaryNode child = (z.left != null) ? z.left : z.right;
+		link(depth - 2, child);
+		if (z.color == Color.BLACK) {
+			if (child != null) {
+				// a lone child under a black node is a red leaf
+				child = own(depth - 2, child);
+				child.color = Color.BLACK;
+			} else if (depth > 1) {
+				fixRemove(depth - 2);
+			}
+		}
+		if (root != null)
+			root.color = Color.BLACK;
+		publish(current.size - 1, depth);
+		return true;
+	}
+
+	/**
+	 * @param i
+	 *            - The index on the path of the parent of the new red node
+	 */
+	private void fixInsert(int i) {
+		while (i > 0 && path[i].color == Color.RED) {
+			BinaryNode p = path[i];
+			BinaryNode g = path[i - 1];
+			boolean pLeft = wentLeft[i - 1];
+			BinaryNode uncle = pLeft ? g.right : g.left;
+			if (uncle != null && uncle.color == Color.RED) {
+				uncle = ownChild(g, !pLeft);
+				p.color = Color.BLACK;
+				uncle.color = Color.BLACK;
+				g.color = Color.RED;
+				i -= 2;
+				continue;
+			}
+			if (wentLeft[i] != pLeft) {
+				// the red child is an inner grandchild: turn it outward first
+				p = pLeft ? rotateLeft(p) : rotateRight(p);
+				setChild(g, pLeft, p);
+			}
+			p.color = Color.BLACK;
+			g.color = Color.RED;
+			link(i - 2, pLeft ? rotateRight(g) : rotateLeft(g));
+			return;
+		}
+	}
+
+	/**
+	 * @param i
+	 *            - The index on the path of the node whose wentLeft side is
+	 *            one black short
+	 *
+	 *         The four cases of bottom-up removal. The sibling and the
+	 *         nephews are copied before they are recolored or rotated
+	 */
+	private void fixRemove(int i) {
+		BinaryNode x = null;
+		while (i >= 0 && (x == null || x.color == Color.BLACK)) {
+			BinaryNode p = path[i];
+			boolean xLeft = wentLeft[i];
+			BinaryNode s = ownChild(p, !xLeft);
+			if (s.color == Color.RED) {
+				// red sibling: rotate it above p, p keeps x's side
+				s.color = Color.BLACK;
+				p.color = Color.RED;
+				link(i - 1, xLeft ? rotateLeft(p) : rotateRight(p));
+				path[i] = s;
+				wentLeft[i] = xLeft;
+				path[++i] = p;
+				wentLeft[i] = xLeft;
+				s = ownChild(p, !xLeft);
+			}
+			BinaryNode near = xLeft ? s.left : s.right;
+			BinaryNode far = xLeft ? s.right : s.left;
+			if (isBlack(near) && isBlack(far)) {
+				s.color = Color.RED;
+				x = p;
+				i--;
+				continue;
+			}
+			if (isBlack(far)) {
+				near = ownChild(s, xLeft);
+				near.color = Color.BLACK;
+				s.color = Color.RED;
+				s = xLeft ? rotateRight(s) : rotateLeft(s);
+				setChild(p, !xLeft, s);
+			}
+			far = ownChild(s, !xLeft);
+			s.color = p.color;
+			p.color = Color.BLACK;
+			far.color = Color.BLACK;
+			link(i - 1, xLeft ? rotateLeft(p) : rotateRight(p));
+			return;
+		}
+		if (x != null)
+			x.color = Color.BLACK;
+	}
+
+	private boolean isBlack(BinaryNode n) {
+		return n == null || n.color == Color.BLACK;
+	}
+
+	/**
+	 * Replaces the first depth nodes of the path with copies, each linked
+	 * from the copy above it, and makes the first the working root
+	 */
+	private void copyPath(int depth) {
+		for (int i = 0; i < depth; i++) {
+			path[i] = path[i].copy();
+			if (i > 0)
+				setChild(path[i - 1], wentLeft[i - 1], path[i]);
+		}
+		root = path[0];
+	}
+
+	/**
+	 * Points the wentLeft side of the path node at index i at n, or makes n
+	 * the root when i is -1
+	 */
+	private void link(int i, BinaryNode n) {
+		if (i < 0)
+			root = n;
+		else
+			setChild(path[i], wentLeft[i], n);
+	}
+
+	private void setChild(BinaryNode parent, boolean left, BinaryNode n) {
+		if (left)
+			parent.left = n;
+		else
+			parent.right = n;
+	}
+
+	/**
+	 * @return BinaryNode - parent's child on the given side, copied and
+	 *         relinked first unless this write made it. parent must be
+	 *         owned
+	 */
+	private BinaryNode ownChild(BinaryNode parent, boolean left) {
+		BinaryNode n = left ? parent.left : parent.right;
+		if (n.stamp != stamp) {
+			n = n.copy();
+			setChild(parent, left, n);
+		}
+		return n;
+	}
+
+	/**
+	 * @return BinaryNode - n, which hangs off the wentLeft side of the path
+	 *         node at index i (the root for -1), owned as in ownChild
+	 */
+	private BinaryNode own(int i, BinaryNode n) {
+		if (n.stamp == stamp)
+			return n;
+		n = n.copy();
+		link(i, n);
+		return n;
+	}
+
+	/*
+	 * Both rotations only touch n and the child that comes up, which the
+	 * callers have already made this write's own
+	 */
+	private BinaryNode rotateLeft(BinaryNode n) {
+		rotCount++;
+		BinaryNode r = n.right;
+		n.right = r.left;
+		r.left = n;
+		return r;
+	}
+
+	private BinaryNode rotateRight(BinaryNode n) {
+		rotCount++;
+		BinaryNode l = n.left;
+		n.left = l.right;
+		l.right = n;
+		return l;
+	}
+
+	/**
+	 * Publishes the working root as the latest version and drops the
+	 * path's references
+	 */
+	private void publish(int size, int depth) {
+		current = new Snapshot(root, size);
+		root = null;
+		clearPath(depth + 1);
+	}
+
+	private void clearPath(int depth) {
+		for (int i = 0; i < depth && i < MAX_HEIGHT; i++)
+			path[i] = null;
+	}
+
+	/**
+	 * One published version of the tree. Nothing in it changes after it is
+	 * published, so any number of threads can read it without locking
+	 */
+	public class Snapshot implements Iterable<T> {
+		final BinaryNode root;
+		final int size;
+
+		Snapshot(BinaryNode root, int size) {
+			this.root = root;
+			this.size = size;
+		}
+
+		/**
+		 * @return int - The number of elements in this version
+		 */
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * @return boolean - true if this version is empty
+		 */
+		public boolean isEmpty() {
+			return size == 0;
+		}
+
+		/**
+		 * @param el
+		 *            - The element to look for
+		 * @return boolean - true if this version holds el
+		 */
+		public boolean contains(T el) {
+			if (el == null)
+				return false;
+			BinaryNode cur = root;
+			while (cur != null) {
+				int compare = compare(el, cur.element);
+				if (compare == 0)
+					return true;
+				cur = (compare < 0) ? cur.left : cur.right;
+			}
+			return false;
+		}
+
+		/**
+		 * @return Iterator<T> - The elements of this version in order
+		 */
+		@Override
+		public Iterator<T> iterator() {
+			return new RangeIterator(null, null);
+		}
+
+		/**
+		 * @param lo
+		 *            - The lower bound, inclusive
+		 * @param hi
+		 *            - The upper bound, inclusive
+		 * @return Iterator<T> - The elements of this version in [lo, hi], in
+		 *         order. Starts with one O(log n) descent
+		 */
+		public Iterator<T> range(T lo, T hi) {
+			if (lo == null || hi == null)
+				throw new IllegalArgumentException();
+			return new RangeIterator(lo, hi);
+		}
+
+		/**
+		 * @return Stream<T> - The elements of this version in order
+		 */
+		public Stream<T> stream() {
+			return StreamSupport.stream(Spliterators.spliterator(iterator(),
+					size, Spliterator.ORDERED | Spliterator.SORTED
+							| Spliterator.DISTINCT | Spliterator.NONNULL
+							| Spliterator.IMMUTABLE), false);
+		}
+
+		/**
+		 * @return ArrayList<T> - The elements of this version in order
+		 */
+		public ArrayList<T> toArrayList() {
+			ArrayList<T> list = new ArrayList<T>(size);
+			for (T e : this)
+				list.add(e);
+			return list;
+		}
+
+		@Override
+		public String toString() {
+			return toArrayList().toString();
+		}
+
+		/**
+		 * In-order walk over a stack of the nodes still to visit, starting
+		 * at the first element no lower than lo and stopping after hi
+		 */
+		private class RangeIterator implements Iterator<T> {
+			private final ArrayDeque<BinaryNode> stack =
+					new ArrayDeque<BinaryNode>();
+			private final T hi;
+			private T next;
+
+			RangeIterator(T lo, T hi) {
+				this.hi = hi;
+				BinaryNode cur = root;
+				while (cur != null) {
+					if (lo != null && compare(cur.element, lo) < 0) {
+						cur = cur.right;
+					} else {
+						stack.push(cur);
+						cur = cur.left;
+					}
+				}
+				advance();
+			}
+
+			private void advance() {
+				next = null;
+				if (stack.isEmpty())
+					return;
+				BinaryNode n = stack.pop();
+				for (BinaryNode c = n.right; c != null; c = c.left)
+					stack.push(c);
+				if (hi == null || compare(n.element, hi) <= 0)
+					next = n.element;
+				else
+					stack.clear();
+			}
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public T next() {
+				if (next == null)
+					throw new NoSuchElementException();
+				T e = next;
+				advance();
+				return e;
+			}
+		}
+	}
+
+	/**
+	 * A node, mutable only while the write whose stamp it carries is still
+	 * building the next version
+	 */
+	class BinaryNode {
+		T element;
+		BinaryNode left;
+		BinaryNode right;
+		Color color;
+		final long stamp;
+
+		BinaryNode(T element, Color color) {
+			this.element = element;
+			this.color = color;
+			this.stamp = SnapshotRedBlackTree.this.stamp;
+		}
+
+		/**
+		 * @return BinaryNode - A copy of this node owned by the current write
+		 */
+		BinaryNode copy() {
+			BinaryNode n = new BinaryNode(element, color);
+			n.left = left;
+			n.right = right;
+			return n;
+		}
+	}
+}
@@ -0,0 +1,251 @@
+package redblacktree;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ *
+ * @param <T>
+ *            - The elements
+ *
+ *            A thread-safe RedBlackTree behind a StampedLock. Writes take
+ *            the write lock. Reads first run without any lock under
+ *            tryOptimisticRead, using the tree's probes, which read each
+ *            link once and give up instead of throwing or looping when they
+ *            run into a half-done rotation, and keep the answer only if the
+ *            stamp still validates afterwards. Otherwise they take the read
+ *            lock and read again, so a read costs two volatile reads of the
+ *            lock's state when no write gets in its way
+ */
+public class StampedRedBlackTree<T extends Comparable<? super T>> {
+	private final RedBlackTree<T> tree;
+	private final StampedLock lock = new StampedLock();
+	private final LongAdder optimisticReads = new LongAdder();
+	private final LongAdder lockedReads = new LongAdder();
+
+	/**
+	 * Creates an empty tree in the elements' natural order
+	 */
+	public StampedRedBlackTree() {
+		this(null);
+	}
+
+	/**
+	 * @param comparator
+	 *            - The order to keep the elements in, or null for their
+	 *            natural order
+	 */
+	public StampedRedBlackTree(Comparator<? super T> comparator) {
+		this.tree = new RedBlackTree<T>(comparator);
+	}
+
+	/**
+	 * @param el
+	 *            - The element to look for
+	 * @return boolean - true if the element is in the tree
+	 */
+	public boolean contains(T el) {
+		if (el == null)
+			return false;
+		long stamp = lock.tryOptimisticRead();
+		if (stamp != 0) {
+			int found = tree.probe(el);
+			if (found != RedBlackTree.TORN && lock.validate(stamp)) {
+				optimisticReads.increment();
+				return found == 1;
+			}
+		}
+		stamp = lock.readLock();
+		try {
+			lockedReads.increment();
+			return tree.contains(el);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * @return int - The number of elements
+	 */
+	public int size() {
+		long stamp = lock.tryOptimisticRead();
+		int size = tree.probeSize();
+		if (stamp != 0 && lock.validate(stamp)) {
+			optimisticReads.increment();
+			return size;
+		}
+		stamp = lock.readLock();
+		try {
+			lockedReads.increment();
+			return tree.size();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * @return boolean - true if there are no elements
+	 */
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * @param lo
+	 *            - The lower bound, inclusive
+	 * @param hi
+	 *            - The upper bound, inclusive
+	 * @return int - The number of elements in [lo, hi], with two O(log n)
+	 *         descents
+	 */
+	public int countInRange(T lo, T hi) {
+		if (lo == null || hi == null)
+			throw new IllegalArgumentException();
+		if (tree.compare(lo, hi) > 0)
+			return 0;
+		long stamp = lock.tryOptimisticRead();
+		if (stamp != 0) {
+			int upTo = tree.probeCountBelow(hi, true);
+			int below = tree.probeCountBelow(lo, false);
+			if (upTo != RedBlackTree.TORN && below != RedBlackTree.TORN
+					&& lock.validate(stamp)) {
+				optimisticReads.increment();
+				return upTo - below;
+			}
+		}
+		stamp = lock.readLock();
+		try {
+			lockedReads.increment();
+			return tree.countInRange(lo, hi);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * @param lo
+	 *            - The lower bound, inclusive
+	 * @param hi
+	 *            - The upper bound, inclusive
+	 * @return List<T> - The elements in [lo, hi], in order
+	 *
+	 *         Tries once without a lock, visiting at most as many nodes as
+	 *         the tree has plus two paths; a long scan that a write overlaps
+	 *         is thrown away and done again under the read lock
+	 */
+	public List<T> range(T lo, T hi) {
+		if (lo == null || hi == null)
+			throw new IllegalArgumentException();
+		ArrayList<T> out = new ArrayList<T>();
+		if (tree.compare(lo, hi) > 0)
+			return out;
+		long stamp = lock.tryOptimisticRead();
+		if (stamp != 0) {
+			if (tree.probeRange(lo, hi, out, true) && lock.validate(stamp)) {
+				optimisticReads.increment();
+				return out;
+			}
+			out.clear();
+		}
+		stamp = lock.readLock();
+		try {
+			lockedReads.increment();
+			tree.probeRange(lo, hi, out, false);
+			return out;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * @param element
+	 *            - The element to add
+	 * @return boolean - true if it was added, false if it was already there
+	 */
+	public boolean insert(T element) {
+		if (element == null)
+			throw new IllegalArgumentException();
+		long stamp = lock.writeLock();
+		try {
+			return tree.insert(element);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * @param el
+	 *            - The element to take out
+	 * @return boolean - true if it was there
+	 */
+	public boolean remove(T el) {
+		if (el == null)
+			return false;
+		long stamp = lock.writeLock();
+		try {
+			return tree.remove(el);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * @param c
+	 *            - The elements to add
+	 * @return boolean - true if the tree changed
+	 *
+	 *         Holds the write lock for the whole batch, so readers see all of
+	 *         it or none of it
+	 */
+	public boolean addAll(Collection<? extends T> c) {
+		long stamp = lock.writeLock();
+		try {
+			return tree.addAll(c);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * @return ArrayList<T> - The elements in order, copied under the read
+	 *         lock
+	 */
+	public ArrayList<T> toArrayList() {
+		long stamp = lock.readLock();
+		try {
+			return tree.toArrayList();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * @return int - The number of rotations the writes have done
+	 */
+	public int getRotationCount() {
+		long stamp = lock.readLock();
+		try {
+			return tree.getRotationCount();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * @return long - The reads answered without taking a lock
+	 */
+	public long optimisticReads() {
+		return optimisticReads.sum();
+	}
+
+	/**
+	 * @return long - The reads that fell back to the read lock
+	 */
+	public long lockedReads() {
+		return lockedReads.sum();
+	}
+}
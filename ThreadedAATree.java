@@ -0,0 +1,603 @@
+package AATree;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An AATree whose empty child links are threads: a missing left child points
+ * at the node's in-order predecessor and a missing right child at its
+ * successor, with a flag on each side telling a thread from a real child.
+ * The first node's left thread and the last node's right thread are null.
+ *
+ * Moving to the next or previous node follows a thread, or walks down one
+ * spine of a real subtree, so iterating in either direction needs no stack
+ * and is O(1) amortized per step. Rotations only ever move an empty subtree
+ * from one side of a pair of nodes to the other, and the thread it leaves
+ * behind points at the other node of the pair, so skew and split keep the
+ * threads right with one extra check each.
+ *
+ * @param <T>
+ */
+public class ThreadedAATree<T extends Comparable<? super T>> implements
+		Iterable<T> {
+	BinaryNode root;
+	int size;
+	int rotationCount = 0;
+	int modCont = 0;
+	/*
+	 * The nodes on the way down to the last insert or removal, see AATree
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private final BinaryNode[] path =
+			(BinaryNode[]) new ThreadedAATree.BinaryNode[64];
+
+	/**
+	 * Constructs a new, empty ThreadedAATree
+	 *
+	 */
+	public ThreadedAATree() {
+		this.root = null;
+	}
+
+	/**
+	 * Returns the number of elements in the tree
+	 *
+	 * @return
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the number of rotations performed during the existence of the tree
+	 *
+	 * @return
+	 */
+	public int rotationCount() {
+		return this.rotationCount;
+	}
+
+	/**
+	 * Returns a pre-order representation of the tree
+	 *
+	 * @return
+	 */
+	public ArrayList<Object> toArrayList() {
+		ArrayList<Object> a = new ArrayList<>(this.size);
+		if (this.root != null) {
+			this.root.toArrayList(a);
+		}
+		return a;
+	}
+
+	@Override
+	public String toString() {
+		return toArrayList().toString();
+	}
+
+	/**
+	 * Returns true if the tree holds an element equal to o
+	 *
+	 * @param o
+	 * @return
+	 */
+	public boolean contains(T o) {
+		return o != null && find(o) != null;
+	}
+
+	/**
+	 * Returns the node holding the smallest element, or null if the tree is
+	 * empty
+	 *
+	 * @return
+	 */
+	public BinaryNode firstNode() {
+		BinaryNode n = this.root;
+		if (n != null) {
+			while (!n.leftThread) {
+				n = n.leftChild;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Returns the node holding the largest element, or null if the tree is
+	 * empty
+	 *
+	 * @return
+	 */
+	public BinaryNode lastNode() {
+		BinaryNode n = this.root;
+		if (n != null) {
+			while (!n.rightThread) {
+				n = n.rightChild;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Returns the node holding the smallest element greater than or equal to
+	 * o, or null if there is none
+	 *
+	 * @param o
+	 * @return
+	 */
+	public BinaryNode ceilingNode(T o) {
+		if (o == null) {
+			throw new IllegalArgumentException();
+		}
+		BinaryNode best = null;
+		BinaryNode current = this.root;
+		while (current != null) {
+			int compare = o.compareTo(current.element);
+			if (compare == 0) {
+				return current;
+			}
+			if (compare < 0) {
+				best = current;
+				current = current.left();
+			} else {
+				current = current.right();
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Returns the node holding the largest element less than or equal to o,
+	 * or null if there is none
+	 *
+	 * @param o
+	 * @return
+	 */
+	public BinaryNode floorNode(T o) {
+		if (o == null) {
+			throw new IllegalArgumentException();
+		}
+		BinaryNode best = null;
+		BinaryNode current = this.root;
+		while (current != null) {
+			int compare = o.compareTo(current.element);
+			if (compare == 0) {
+				return current;
+			}
+			if (compare > 0) {
+				best = current;
+				current = current.right();
+			} else {
+				current = current.left();
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Returns the elements in ascending order, without a stack
+	 *
+	 * @return
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return new ThreadIterator(firstNode(), false);
+	}
+
+	/**
+	 * Returns the elements in descending order, without a stack
+	 *
+	 * @return
+	 */
+	public Iterator<T> descendingIterator() {
+		return new ThreadIterator(lastNode(), true);
+	}
+
+	private BinaryNode find(T o) {
+		BinaryNode current = this.root;
+		while (current != null) {
+			int compare = o.compareTo(current.element);
+			if (compare == 0) {
+				return current;
+			}
+			current = (compare < 0) ? current.left() : current.right();
+		}
+		return null;
+	}
+
+	/**
+	 * Inserts a comparable object into the tree, bottom-up, the same way
+	 * AATree.insert does. The new leaf takes over the thread its parent had
+	 * on that side and threads back to the parent on the other
+	 *
+	 * @param o
+	 * @return
+	 */
+	public boolean insert(T o) {
+		if (o == null) {
+			throw new IllegalArgumentException();
+		}
+		if (this.root == null) {
+			this.root = new BinaryNode(o, null, null);
+			this.size++;
+			this.modCont++;
+			return true;
+		}
+		int depth = 0;
+		int compare = 0;
+		BinaryNode current = this.root;
+		while (current != null) {
+			compare = o.compareTo(current.element);
+			if (compare == 0) {
+				clearPath(depth);
+				return false;
+			}
+			this.path[depth++] = current;
+			current = (compare < 0) ? current.left() : current.right();
+		}
+		BinaryNode parent = this.path[depth - 1];
+		if (compare < 0) {
+			parent.leftChild = new BinaryNode(o, parent.leftChild, parent);
+			parent.leftThread = false;
+		} else {
+			parent.rightChild = new BinaryNode(o, parent, parent.rightChild);
+			parent.rightThread = false;
+		}
+		this.size++;
+		this.modCont++;
+
+		boolean belowChanged = true;
+		for (int i = depth - 1; i >= 0; i--) {
+			BinaryNode node = this.path[i];
+			int level = node.level;
+			BinaryNode top = node.skew().split();
+			boolean changed = top != node || top.level != level;
+			if (!changed && !belowChanged) {
+				break;
+			}
+			if (top != node) {
+				relink(i, node, top);
+			}
+			belowChanged = changed;
+		}
+		clearPath(depth);
+		return true;
+	}
+
+	/**
+	 * Removes an object from the tree, bottom-up, the same way AATree.remove
+	 * does. The node that is unlinked hands its threads on to whichever node
+	 * pointed at it: its parent if it was a leaf, otherwise the nearest node
+	 * of its only subtree
+	 *
+	 * @param o
+	 * @return
+	 */
+	public boolean remove(T o) {
+		if (o == null) {
+			throw new IllegalArgumentException();
+		}
+		int depth = 0;
+		BinaryNode current = this.root;
+		while (current != null) {
+			int compare = o.compareTo(current.element);
+			this.path[depth++] = current;
+			if (compare == 0) {
+				break;
+			}
+			current = (compare < 0) ? current.left() : current.right();
+		}
+		if (current == null) {
+			clearPath(depth);
+			return false;
+		}
+		if (!current.leftThread && !current.rightThread) {
+			// copy the predecessor up and unlink its node instead
+			BinaryNode pred = current.leftChild;
+			this.path[depth++] = pred;
+			while (!pred.rightThread) {
+				pred = pred.rightChild;
+				this.path[depth++] = pred;
+			}
+			current.element = pred.element;
+			current = pred;
+		}
+		depth--;
+		unlink(depth, current);
+		this.size--;
+		this.modCont++;
+
+		for (int i = depth - 1; i >= 0; i--) {
+			BinaryNode node = this.path[i];
+			int level = node.level;
+			BinaryNode top = node.balance();
+			if (top != node) {
+				relink(i, node, top);
+			}
+			if (top.level == level) {
+				break;
+			}
+		}
+		clearPath(depth + 1);
+		return true;
+	}
+
+	/**
+	 * Takes a node with at most one real child out of the tree
+	 *
+	 * @param i
+	 *            The node's index in the path buffer
+	 * @param node
+	 */
+	private void unlink(int i, BinaryNode node) {
+		if (!node.leftThread) {
+			BinaryNode last = node.leftChild;
+			while (!last.rightThread) {
+				last = last.rightChild;
+			}
+			last.rightChild = node.rightChild;
+			relink(i, node, node.leftChild);
+		} else if (!node.rightThread) {
+			BinaryNode first = node.rightChild;
+			while (!first.leftThread) {
+				first = first.leftChild;
+			}
+			first.leftChild = node.leftChild;
+			relink(i, node, node.rightChild);
+		} else if (i == 0) {
+			this.root = null;
+		} else {
+			BinaryNode parent = this.path[i - 1];
+			if (!parent.leftThread && parent.leftChild == node) {
+				parent.leftChild = node.leftChild;
+				parent.leftThread = true;
+			} else {
+				parent.rightChild = node.rightChild;
+				parent.rightThread = true;
+			}
+		}
+	}
+
+	/**
+	 * Points the real link that held the node at the given path index at its
+	 * replacement, which is the root link when the index is 0
+	 *
+	 * @param i
+	 * @param old
+	 * @param top
+	 */
+	private void relink(int i, BinaryNode old, BinaryNode top) {
+		if (i == 0) {
+			this.root = top;
+			return;
+		}
+		BinaryNode parent = this.path[i - 1];
+		if (!parent.leftThread && parent.leftChild == old) {
+			parent.leftChild = top;
+		} else {
+			parent.rightChild = top;
+		}
+	}
+
+	private void clearPath(int depth) {
+		for (int i = 0; i < depth; i++) {
+			this.path[i] = null;
+		}
+	}
+
+	/**
+	 * Follows the threads from one node to the next. The tree must not change
+	 * underneath it, since a removal can move an element into another node
+	 */
+	private class ThreadIterator implements Iterator<T> {
+		private BinaryNode next;
+		private final boolean descending;
+		private final int myMod;
+
+		ThreadIterator(BinaryNode start, boolean descending) {
+			this.next = start;
+			this.descending = descending;
+			this.myMod = ThreadedAATree.this.modCont;
+		}
+
+		public boolean hasNext() {
+			return this.next != null;
+		}
+
+		public T next() {
+			if (this.myMod != ThreadedAATree.this.modCont) {
+				throw new ConcurrentModificationException();
+			}
+			if (this.next == null) {
+				throw new NoSuchElementException();
+			}
+			BinaryNode current = this.next;
+			this.next = this.descending ? current.prev() : current.next();
+			return current.element;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * A node of the tree. leftChild and rightChild are threads instead of
+	 * children when the matching flag is set
+	 */
+	public class BinaryNode {
+		T element;
+		BinaryNode leftChild;
+		BinaryNode rightChild;
+		boolean leftThread = true;
+		boolean rightThread = true;
+		int level = 1;
+
+		BinaryNode(T o, BinaryNode pred, BinaryNode succ) {
+			this.element = o;
+			this.leftChild = pred;
+			this.rightChild = succ;
+		}
+
+		/**
+		 * Returns the node after this one in order, or null if this is the
+		 * last. O(1) amortized over a full walk
+		 *
+		 * @return
+		 */
+		public BinaryNode next() {
+			if (this.rightThread) {
+				return this.rightChild;
+			}
+			BinaryNode n = this.rightChild;
+			while (!n.leftThread) {
+				n = n.leftChild;
+			}
+			return n;
+		}
+
+		/**
+		 * Returns the node before this one in order, or null if this is the
+		 * first. O(1) amortized over a full walk
+		 *
+		 * @return
+		 */
+		public BinaryNode prev() {
+			if (this.leftThread) {
+				return this.leftChild;
+			}
+			BinaryNode n = this.leftChild;
+			while (!n.rightThread) {
+				n = n.rightChild;
+			}
+			return n;
+		}
+
+		private BinaryNode left() {
+			return this.leftThread ? null : this.leftChild;
+		}
+
+		private BinaryNode right() {
+			return this.rightThread ? null : this.rightChild;
+		}
+
+		private int leftLevel() {
+			return this.leftThread ? 0 : this.leftChild.level;
+		}
+
+		private int rightLevel() {
+			return this.rightThread ? 0 : this.rightChild.level;
+		}
+
+		private BinaryNode balance() {
+			int should = Math.min(leftLevel(), rightLevel()) + 1;
+			if (should >= this.level) {
+				return this;
+			}
+			this.level = should;
+			if (!this.rightThread && this.rightChild.level > should) {
+				this.rightChild.level = should;
+			}
+			return this.subBalance();
+		}
+
+		private BinaryNode subBalance() {
+			BinaryNode temp = this.skew();
+			if (!temp.rightThread) {
+				temp.rightChild = temp.rightChild.skew();
+				if (!temp.rightChild.rightThread) {
+					temp.rightChild.rightChild = temp.rightChild.rightChild
+							.skew();
+				}
+			}
+			temp = temp.split();
+			if (!temp.rightThread) {
+				temp.rightChild = temp.rightChild.split();
+			}
+			return temp;
+		}
+
+		private BinaryNode skew() {
+			if (!this.leftThread && this.leftChild.level == this.level) {
+				return this.rightRotation();
+			}
+			return this;
+		}
+
+		private BinaryNode split() {
+			if (!this.rightThread && !this.rightChild.rightThread
+					&& this.level == this.rightChild.level
+					&& this.rightChild.level == this.rightChild.rightChild.level) {
+				return this.leftRotation();
+			}
+			return this;
+		}
+
+		/**
+		 * The left child's right subtree moves over to this node's left. If
+		 * it is empty, the left child's thread pointed here and this node's
+		 * new left thread points back at the left child
+		 */
+		private BinaryNode rightRotation() {
+			ThreadedAATree.this.rotationCount++;
+			BinaryNode x = this;
+			BinaryNode p = this.leftChild;
+
+			x.leftThread = p.rightThread;
+			x.leftChild = p.rightThread ? p : p.rightChild;
+			p.rightChild = x;
+			p.rightThread = false;
+
+			return p;
+		}
+
+		private BinaryNode leftRotation() {
+			ThreadedAATree.this.rotationCount++;
+			BinaryNode x = this;
+			BinaryNode r = this.rightChild;
+
+			x.rightThread = r.leftThread;
+			x.rightChild = r.leftThread ? r : r.leftChild;
+			r.leftChild = x;
+			r.leftThread = false;
+			r.level++;
+
+			return r;
+		}
+
+		void toArrayList(ArrayList<Object> temp) {
+			temp.add(this);
+			if (!this.leftThread) {
+				this.leftChild.toArrayList(temp);
+			}
+			if (!this.rightThread) {
+				this.rightChild.toArrayList(temp);
+			}
+		}
+
+		/**
+		 * Returns the element of this node
+		 *
+		 * @return
+		 */
+		public T getElement() {
+			return this.element;
+		}
+
+		/**
+		 * Returns the level of this node
+		 *
+		 * @return
+		 */
+		public int getLevel() {
+			return this.level;
+		}
+
+		@Override
+		public String toString() {
+			return String.valueOf(this.element);
+		}
+	}
+
+}
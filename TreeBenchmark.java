@@ -0,0 +1,520 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+
+import AATree.AATree;
+import AATree.ArrayAATree;
+import AATree.PersistentAATree;
+import AATree.ThreadedAATree;
+import redblacktree.RedBlackTree;
+
+/**
+ * Benchmark harness comparing the AATree, AVLTree, RedBlackTree and
+ * BinarySearchTree engines.
+ *
+ * Runs insert, lookup, iteration and remove phases over sequential, random,
+ * reverse-sorted and Zipf-skewed keys. Every phase is warmed up before it is
+ * measured and reports operations per second, allocated bytes per operation
+ * (read from the same per-thread allocation counter the JMH GC profiler
+ * uses) and the rotations per operation the tree performed during the
+ * phase.
+ *
+ * Usage: java TreeBenchmark [sizes...]
+ * [-engines aa,aa-array,aa-threaded,aa-persistent,avl,rb,bst]
+ * [-keys sequential,random,reverse,zipf] [-repeats n]
+ *
+ * With no sizes given it runs 10^3 through 10^7 elements. Each engine runs
+ * once as a warm-up and then n more times (1 by default) in the same JVM;
+ * the last run is reported.
+ */
+public class TreeBenchmark {
+
+	private static final long SEED = 0x5EEDL;
+	private static final int MIN_MEASURED_OPS = 2000000;
+
+	private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+
+	/**
+	 * The shape of the keys fed into the trees
+	 */
+	public enum KeyOrder {
+		SEQUENTIAL, RANDOM, REVERSE, ZIPF
+	}
+
+	/**
+	 * The operation being measured
+	 */
+	public enum Phase {
+		INSERT, LOOKUP, ITERATE, REMOVE
+	}
+
+	/**
+	 * Common view of the four engines so the phases can be written once
+	 */
+	interface Engine {
+		String name();
+
+		void insert(Integer i);
+
+		boolean lookup(Integer i);
+
+		// walks every element and returns how many there were
+		long iterate();
+
+		void remove(Integer i);
+
+		long rotations();
+	}
+
+	static Engine create(String name) {
+		switch (name) {
+		case "aa":
+			return new Engine() {
+				AATree<Integer> tree = new AATree<Integer>();
+
+				public String name() {
+					return "AATree";
+				}
+
+				public void insert(Integer i) {
+					tree.insert(i);
+				}
+
+				public boolean lookup(Integer i) {
+					return tree.contains(i);
+				}
+
+				public long iterate() {
+					return tree.toArrayList().size();
+				}
+
+				public void remove(Integer i) {
+					tree.remove(i);
+				}
+
+				public long rotations() {
+					return tree.rotationCount();
+				}
+			};
+		case "aa-array":
+			return new Engine() {
+				ArrayAATree<Integer> tree = new ArrayAATree<Integer>();
+
+				public String name() {
+					return "ArrayAATree";
+				}
+
+				public void insert(Integer i) {
+					tree.insert(i);
+				}
+
+				public boolean lookup(Integer i) {
+					return tree.contains(i);
+				}
+
+				public long iterate() {
+					return tree.toArrayList().size();
+				}
+
+				public void remove(Integer i) {
+					tree.remove(i);
+				}
+
+				public long rotations() {
+					return tree.rotationCount();
+				}
+			};
+		case "aa-threaded":
+			return new Engine() {
+				ThreadedAATree<Integer> tree = new ThreadedAATree<Integer>();
+
+				public String name() {
+					return "ThreadedAATree";
+				}
+
+				public void insert(Integer i) {
+					tree.insert(i);
+				}
+
+				public boolean lookup(Integer i) {
+					return tree.contains(i);
+				}
+
+				public long iterate() {
+					long count = 0, sum = 0;
+					for (Integer i : tree) {
+						sum += i;
+						count++;
+					}
+					sink = sum;
+					return count;
+				}
+
+				public void remove(Integer i) {
+					tree.remove(i);
+				}
+
+				public long rotations() {
+					return tree.rotationCount();
+				}
+			};
+		case "aa-persistent":
+			return new Engine() {
+				PersistentAATree<Integer> tree = new PersistentAATree<Integer>();
+
+				public String name() {
+					return "PersistentAATree";
+				}
+
+				public void insert(Integer i) {
+					tree.insert(i);
+				}
+
+				public boolean lookup(Integer i) {
+					return tree.contains(i);
+				}
+
+				public long iterate() {
+					long count = 0, sum = 0;
+					for (Integer i : tree.snapshot()) {
+						sum += i;
+						count++;
+					}
+					sink = sum;
+					return count;
+				}
+
+				public void remove(Integer i) {
+					tree.remove(i);
+				}
+
+				public long rotations() {
+					return tree.rotationCount();
+				}
+			};
+		case "avl":
+			return new Engine() {
+				AVLTree<Integer> tree = new AVLTree<Integer>();
+
+				public String name() {
+					return "AVLTree";
+				}
+
+				public void insert(Integer i) {
+					tree.insert(i);
+				}
+
+				public boolean lookup(Integer i) {
+					AVLTree<Integer>.BinaryNode n = tree.root;
+					while (n != null) {
+						int c = i.compareTo(n.element);
+						if (c == 0)
+							return true;
+						n = c < 0 ? n.leftChild : n.rightChild;
+					}
+					return false;
+				}
+
+				public long iterate() {
+					long count = 0, sum = 0;
+					for (Integer i : tree) {
+						sum += i;
+						count++;
+					}
+					sink = sum;
+					return count;
+				}
+
+				public void remove(Integer i) {
+					tree.remove(i);
+				}
+
+				public long rotations() {
+					return ((Number) tree.getRotationCount()).longValue();
+				}
+			};
+		case "rb":
+			return new Engine() {
+				RedBlackTree<Integer> tree = new RedBlackTree<Integer>();
+
+				public String name() {
+					return "RedBlackTree";
+				}
+
+				public void insert(Integer i) {
+					tree.insert(i);
+				}
+
+				public boolean lookup(Integer i) {
+					return tree.root != null && tree.root.find(i);
+				}
+
+				public long iterate() {
+					long count = 0;
+					Iterator<?> it = tree.iterator();
+					while (it.hasNext()) {
+						it.next();
+						count++;
+					}
+					return count;
+				}
+
+				public void remove(Integer i) {
+					tree.remove(i);
+				}
+
+				public long rotations() {
+					return tree.getRotationCount();
+				}
+			};
+		case "bst":
+			return new Engine() {
+				BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>();
+
+				public String name() {
+					return "BinarySearchTree";
+				}
+
+				public void insert(Integer i) {
+					tree.insert(i);
+				}
+
+				public boolean lookup(Integer i) {
+					BinarySearchTree<Integer>.BinaryNode n = tree.root;
+					while (n != null) {
+						int c = i.compareTo(n.element);
+						if (c == 0)
+							return true;
+						n = c < 0 ? n.leftChild : n.rightChild;
+					}
+					return false;
+				}
+
+				public long iterate() {
+					long count = 0, sum = 0;
+					for (Integer i : tree) {
+						sum += i;
+						count++;
+					}
+					sink = sum;
+					return count;
+				}
+
+				public void remove(Integer i) {
+					tree.remove(i);
+				}
+
+				public long rotations() {
+					return 0;
+				}
+			};
+		default:
+			throw new IllegalArgumentException("unknown engine " + name);
+		}
+	}
+
+	/**
+	 * @param order
+	 *            The distribution of the keys
+	 * @param n
+	 *            The number of keys
+	 * @return The keys in the order they will be inserted
+	 *
+	 *         Zipf keys are drawn with exponent 1 over n distinct ranks, so a
+	 *         handful of keys repeat very often and the tree ends up smaller
+	 *         than n
+	 */
+	static Integer[] keys(KeyOrder order, int n) {
+		Integer[] keys = new Integer[n];
+		Random random = new Random(SEED);
+		switch (order) {
+		case SEQUENTIAL:
+			for (int i = 0; i < n; i++)
+				keys[i] = i;
+			break;
+		case REVERSE:
+			for (int i = 0; i < n; i++)
+				keys[i] = n - 1 - i;
+			break;
+		case RANDOM:
+			for (int i = 0; i < n; i++)
+				keys[i] = i;
+			for (int i = n - 1; i > 0; i--) {
+				int j = random.nextInt(i + 1);
+				Integer t = keys[i];
+				keys[i] = keys[j];
+				keys[j] = t;
+			}
+			break;
+		case ZIPF:
+			double[] cdf = new double[n];
+			double total = 0;
+			for (int i = 0; i < n; i++) {
+				total += 1.0 / (i + 1);
+				cdf[i] = total;
+			}
+			for (int i = 0; i < n; i++) {
+				int rank = Arrays.binarySearch(cdf, random.nextDouble() * total);
+				if (rank < 0)
+					rank = -rank - 1;
+				// scatter the ranks so the hot keys are not also the smallest
+				keys[i] = (int) ((rank * 0x9E3779B1L) & Integer.MAX_VALUE);
+			}
+			break;
+		}
+		return keys;
+	}
+
+	/**
+	 * The result of one measured phase
+	 */
+	static class Result {
+		String engine;
+		KeyOrder order;
+		int n;
+		Phase phase;
+		double opsPerSecond;
+		double bytesPerOp;
+		double rotationsPerOp;
+
+		public String toString() {
+			return String.format("%-16s %-10s %9d %-8s %14.1f %12.1f %12.3f",
+					engine, order, n, phase, opsPerSecond, bytesPerOp,
+					rotationsPerOp);
+		}
+	}
+
+	private static long allocated() {
+		return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	static volatile long sink;
+
+	/**
+	 * @return One result per phase for a freshly built tree
+	 *
+	 *         Builds the tree once per phase so that every phase starts from
+	 *         the same shape, repeating a phase until enough operations have
+	 *         been measured to get a stable rate on small trees or about a
+	 *         second has passed
+	 */
+	static ArrayList<Result> run(String engineName, KeyOrder order, int n) {
+		Integer[] keys = keys(order, n);
+		ArrayList<Result> results = new ArrayList<Result>();
+		for (Phase phase : Phase.values()) {
+			long ops = 0;
+			long nanos = 0;
+			long bytes = 0;
+			long rotations = 0;
+			String name = null;
+			long deadline = System.nanoTime() + 1000000000L;
+			do {
+				Engine engine = create(engineName);
+				name = engine.name();
+				if (phase != Phase.INSERT) {
+					for (Integer k : keys)
+						engine.insert(k);
+				}
+				long rotBefore = engine.rotations();
+				long allocBefore = allocated();
+				long start = System.nanoTime();
+				long done = measure(engine, phase, keys);
+				nanos += System.nanoTime() - start;
+				bytes += allocated() - allocBefore;
+				rotations += engine.rotations() - rotBefore;
+				ops += done;
+			} while (ops < MIN_MEASURED_OPS && System.nanoTime() < deadline);
+
+			Result r = new Result();
+			r.engine = name;
+			r.order = order;
+			r.n = n;
+			r.phase = phase;
+			r.opsPerSecond = ops * 1e9 / nanos;
+			r.bytesPerOp = (double) bytes / ops;
+			r.rotationsPerOp = (double) rotations / ops;
+			results.add(r);
+		}
+		return results;
+	}
+
+	private static long measure(Engine engine, Phase phase, Integer[] keys) {
+		long acc = 0;
+		switch (phase) {
+		case INSERT:
+			for (Integer k : keys)
+				engine.insert(k);
+			return keys.length;
+		case LOOKUP:
+			for (Integer k : keys)
+				if (engine.lookup(k))
+					acc++;
+			sink = acc;
+			return keys.length;
+		case ITERATE:
+			// zipf keys repeat, so the tree can hold far fewer elements than
+			// there were keys
+			return engine.iterate();
+		case REMOVE:
+			for (Integer k : keys)
+				engine.remove(k);
+			return keys.length;
+		}
+		return 0;
+	}
+
+	public static void main(String[] args) {
+		ArrayList<Integer> sizes = new ArrayList<Integer>();
+		String[] engines = { "aa", "avl", "rb", "bst" };
+		KeyOrder[] orders = KeyOrder.values();
+		int repeats = 1;
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-engines")) {
+				engines = args[++i].split(",");
+			} else if (args[i].equals("-keys")) {
+				String[] names = args[++i].split(",");
+				orders = new KeyOrder[names.length];
+				for (int j = 0; j < names.length; j++)
+					orders[j] = KeyOrder.valueOf(names[j].toUpperCase());
+			} else if (args[i].equals("-repeats")) {
+				repeats = Integer.parseInt(args[++i]);
+			} else {
+				sizes.add(Integer.parseInt(args[i]));
+			}
+		}
+		if (sizes.isEmpty()) {
+			for (int n = 1000; n <= 10000000; n *= 10)
+				sizes.add(n);
+		}
+
+		System.out.println(String.format("%-16s %-10s %9s %-8s %14s %12s %12s",
+				"engine", "keys", "n", "phase", "ops/s", "B/op", "rot/op"));
+		for (int n : sizes) {
+			for (KeyOrder order : orders) {
+				for (String engine : engines) {
+					// the unbalanced tree degenerates into a list on sorted
+					// input, which would recurse off the end of the stack
+					if (engine.equals("bst") && order != KeyOrder.RANDOM
+							&& order != KeyOrder.ZIPF && n > 10000)
+						continue;
+					// warm up, then report the last repeat
+					ArrayList<Result> results = null;
+					try {
+						for (int f = 0; f <= repeats; f++)
+							results = run(engine, order, n);
+					} catch (RuntimeException | StackOverflowError e) {
+						System.out.println(String.format("%-16s %-10s %9d failed: %s",
+								engine, order, n, e));
+						continue;
+					}
+					for (Result r : results)
+						System.out.println(r);
+				}
+			}
+		}
+	}
+}